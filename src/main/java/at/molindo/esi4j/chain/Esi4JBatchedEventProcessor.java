@@ -25,4 +25,15 @@ public interface Esi4JBatchedEventProcessor extends Esi4JEventProcessor {
 	public static interface EventSession extends Esi4JEventListener {
 		void flush();
 	}
+
+	/**
+	 * an {@link EventSession} that is able to drop its tasks early, otherwise they are dropped with the session
+	 */
+	public static interface DiscardableEventSession extends EventSession {
+
+		/**
+		 * drop all collected tasks, e.g. after rollback
+		 */
+		void discard();
+	}
 }
@@ -0,0 +1,42 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
+
+import at.molindo.esi4j.chain.impl.QueuedTaskExecutor;
+import at.molindo.esi4j.mapping.TypeDependency;
+
+/**
+ * an {@link Esi4JEntityResolver} that finds owners of changed entities for {@link TypeDependency}s.
+ *
+ * @see QueuedTaskExecutor
+ */
+public interface Esi4JDependencyResolver {
+
+	/**
+	 * must be called within a resolve session if this is an {@link Esi4JSessionEntityResolver}
+	 *
+	 * @param ownerType
+	 *            type declaring the dependency
+	 * @param ids
+	 *            ids of changed entities of {@link TypeDependency#getType()}
+	 * @return ids of owners depending on any of the given entities, without duplicates
+	 */
+	List<Serializable> findOwnerIds(Class<?> ownerType, TypeDependency dependency, Collection<Serializable> ids);
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain;
+
+import at.molindo.esi4j.chain.impl.BulkFailureType;
+import at.molindo.esi4j.chain.impl.QueuedTaskExecutor;
+
+/**
+ * receives metrics of a {@link QueuedTaskExecutor}'s processing pipeline. Methods are called concurrently from
+ * submitting threads, executor threads and network threads and must not block. Implementors must either have a
+ * default constructor or a constructor accepting {@link org.elasticsearch.common.settings.Settings}
+ *
+ * @see QueuedTaskExecutor#SETTING_METRICS
+ */
+public interface Esi4JExecutorMetrics {
+
+	enum Stage {
+		/**
+		 * {@link Esi4JEntityTask#replaceEntity(Esi4JEntityResolver)} on submitting thread
+		 */
+		REPLACE,
+		/**
+		 * {@link Esi4JBatchedEntityResolver#resolveEntities(Esi4JEntityTask[])} on executor thread
+		 */
+		RESOLVE,
+		/**
+		 * {@link Esi4JEntityTask#addToBulk(org.elasticsearch.client.Client, org.elasticsearch.action.bulk.BulkRequestBuilder, String, at.molindo.esi4j.core.Esi4JOperation.OperationContext)}
+		 * , i.e. serialization of entities
+		 */
+		BUILD,
+		/**
+		 * round-trip of bulk request
+		 */
+		BULK,
+		/**
+		 * {@link Esi4JDependencyResolver#findOwnerIds(Class, at.molindo.esi4j.mapping.TypeDependency, java.util.Collection)}
+		 * on executor thread
+		 */
+		PROPAGATE,
+		/**
+		 * eager serialization of entities on committing thread, see
+		 * {@link at.molindo.esi4j.chain.impl.DefaultBatchedEventProcessor#setEagerSerialization(Class, boolean)}
+		 */
+		SERIALIZE
+	}
+
+	/**
+	 * called once executor is ready
+	 */
+	void open(QueuedTaskExecutor executor);
+
+	/**
+	 * @param tasks
+	 *            number of submitted tasks
+	 * @param deduplicated
+	 *            number of tasks that were merged with submitted or queued tasks of the same entity
+	 */
+	void submitted(int tasks, int deduplicated);
+
+	/**
+	 * a stage completed for a batch of tasks
+	 */
+	void stage(Stage stage, int items, long nanos);
+
+	/**
+	 * a stage completed for a single task of the given type
+	 */
+	void type(Stage stage, Class<?> type, long nanos);
+
+	/**
+	 * a bulk item failed
+	 */
+	void failed(BulkFailureType type);
+
+	void close();
+}
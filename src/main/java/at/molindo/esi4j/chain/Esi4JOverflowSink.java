@@ -0,0 +1,36 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain;
+
+import at.molindo.esi4j.chain.impl.QueuedTaskExecutor;
+
+/**
+ * receives {@link Esi4JEntityTask}s that could not be queued by an asynchronous {@link Esi4JTaskProcessor}, e.g. to
+ * persist them or to schedule a rebuild of affected types. Implementors must either have a default constructor or a
+ * constructor accepting {@link org.elasticsearch.common.settings.Settings}
+ *
+ * @see QueuedTaskExecutor
+ */
+public interface Esi4JOverflowSink {
+
+	/**
+	 * @param tasks
+	 *            tasks after {@link Esi4JEntityTask#replaceEntity(Esi4JEntityResolver)} was called, never contains
+	 *            <code>null</code>
+	 */
+	void overflow(Esi4JEntityTask[] tasks);
+
+}
@@ -0,0 +1,31 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain;
+
+import java.util.Set;
+
+/**
+ * an {@link Esi4JEventListener} that is able to process updates of known properties
+ */
+public interface Esi4JPartialUpdateEventListener extends Esi4JEventListener {
+
+	/**
+	 * @param dirtyProperties
+	 *            properties changed by this update
+	 * @see Esi4JPartialUpdateTaskSource
+	 */
+	void onPostUpdate(Object object, Set<String> dirtyProperties);
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain;
+
+import java.io.Closeable;
+
+/**
+ * priority class of {@link Esi4JEntityTask}s. Asynchronous {@link Esi4JTaskProcessor}s may use it to keep mass
+ * updates from delaying interactive changes. The priority of a task is taken from
+ * {@link at.molindo.esi4j.chain.impl.AbstractEntityTask#getPriority()}, the submitting thread (see {@link #enter()})
+ * or the task's type, in this order. Other {@link Esi4JEntityTask} implementations use the default.
+ */
+public enum Esi4JTaskPriority {
+
+	/**
+	 * interactive changes, the default
+	 */
+	REALTIME,
+
+	/**
+	 * mass updates, e.g. scripts or migrations, limited to a share of an executor's capacity
+	 */
+	BACKFILL;
+
+	private static final ThreadLocal<Esi4JTaskPriority> CURRENT = new ThreadLocal<>();
+
+	/**
+	 * @return priority of tasks submitted by the current thread, <code>null</code> if not set
+	 */
+	public static Esi4JTaskPriority current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * use this priority for all tasks submitted by the current thread (e.g. when committing a session) until the
+	 * returned scope is closed:
+	 *
+	 * <pre>
+	 * try (Scope scope = Esi4JTaskPriority.BACKFILL.enter()) {
+	 * 	// update entities
+	 * }
+	 * </pre>
+	 */
+	public Scope enter() {
+		final Scope scope = new Scope(CURRENT.get());
+		CURRENT.set(this);
+		return scope;
+	}
+
+	/**
+	 * restores the previous priority of the current thread when closed
+	 */
+	public static final class Scope implements Closeable {
+
+		private final Esi4JTaskPriority _previous;
+
+		private Scope(final Esi4JTaskPriority previous) {
+			_previous = previous;
+		}
+
+		@Override
+		public void close() {
+			if (_previous == null) {
+				CURRENT.remove();
+			} else {
+				CURRENT.set(_previous);
+			}
+		}
+	}
+}
@@ -15,15 +15,22 @@
  */
 package at.molindo.esi4j.chain.impl;
 
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.client.Client;
+
 import at.molindo.esi4j.chain.Esi4JEntityResolver;
 import at.molindo.esi4j.chain.Esi4JEntityTask;
+import at.molindo.esi4j.chain.Esi4JTaskPriority;
+import at.molindo.esi4j.core.Esi4JOperation.OperationContext;
 import at.molindo.esi4j.mapping.ObjectKey;
+import at.molindo.esi4j.mapping.SourceBuffer;
 
 public abstract class AbstractEntityTask implements Esi4JEntityTask {
 
 	private static final long serialVersionUID = 1L;
 
 	private Object _entity;
+	private Esi4JTaskPriority _priority;
 
 	public AbstractEntityTask(final Object entity) {
 		setEntity(entity);
@@ -54,6 +61,28 @@ public abstract class AbstractEntityTask implements Esi4JEntityTask {
 		_entity = entity;
 	}
 
+	/**
+	 * @return priority of this task or <code>null</code> to use the submitting thread's or type's priority
+	 */
+	public Esi4JTaskPriority getPriority() {
+		return _priority;
+	}
+
+	/**
+	 * @param priority
+	 *            priority of this task, <code>null</code> to use the default
+	 */
+	public void setPriority(final Esi4JTaskPriority priority) {
+		_priority = priority;
+	}
+
+	/**
+	 * @return priority of task if it is an {@link AbstractEntityTask}, <code>null</code> to use the default otherwise
+	 */
+	static Esi4JTaskPriority priority(final Esi4JEntityTask task) {
+		return task instanceof AbstractEntityTask ? ((AbstractEntityTask) task).getPriority() : null;
+	}
+
 	@Override
 	public final ObjectKey toObjectKey(final Esi4JEntityResolver entityResolver) {
 		final Object entity = getEntity();
@@ -64,5 +93,13 @@ public abstract class AbstractEntityTask implements Esi4JEntityTask {
 		}
 	}
 
+	/**
+	 * same as {@link #addToBulk(Client, BulkRequestBuilder, String, OperationContext)} but might write sources to
+	 * buffer of bulk request
+	 */
+	void addToBulk(final Client client, final BulkRequestBuilder bulk, final String indexName, final OperationContext context, final SourceBuffer buffer) {
+		addToBulk(client, bulk, indexName, context);
+	}
+
 	protected abstract void initClone(Esi4JEntityTask clone);
 }
@@ -15,9 +15,11 @@
  */
 package at.molindo.esi4j.chain.impl;
 
-import at.molindo.esi4j.chain.Esi4JEventListener;
+import java.util.Set;
 
-public abstract class AbstractEventListener implements Esi4JEventListener {
+import at.molindo.esi4j.chain.Esi4JPartialUpdateEventListener;
+
+public abstract class AbstractEventListener implements Esi4JPartialUpdateEventListener {
 
 	@Override
 	public void onPostInsert(final Object... objects) {
@@ -47,6 +49,14 @@ public abstract class AbstractEventListener implements Esi4JEventListener {
 		}
 	}
 
+	/**
+	 * ignores dirty properties by default
+	 */
+	@Override
+	public void onPostUpdate(final Object object, final Set<String> dirtyProperties) {
+		onPostUpdate(object);
+	}
+
 	@Override
 	public void onPostDelete(final Object... objects) {
 		for (final Object object : objects) {
@@ -0,0 +1,62 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.rest.RestStatus;
+
+/**
+ * classification of failed bulk items
+ */
+public enum BulkFailureType {
+
+	/**
+	 * document already has a newer version, harmless with external versioning
+	 */
+	VERSION_CONFLICT,
+
+	/**
+	 * mapping error or otherwise invalid request, retrying won't help
+	 */
+	MAPPING,
+
+	/**
+	 * temporary failure, e.g. rejected execution or unavailable shards
+	 */
+	RETRY;
+
+	public static BulkFailureType classify(final BulkItemResponse.Failure failure) {
+		return classify(failure.getStatus(), failure.getMessage());
+	}
+
+	/**
+	 * classify failure of a whole bulk request
+	 */
+	public static BulkFailureType classify(final Throwable t) {
+		return classify(ExceptionsHelper.status(t), t.getMessage());
+	}
+
+	static BulkFailureType classify(final RestStatus status, final String message) {
+		if (status == RestStatus.CONFLICT) {
+			return VERSION_CONFLICT;
+		} else if (status == RestStatus.BAD_REQUEST || message != null && message.contains("MapperParsingException")) {
+			return MAPPING;
+		} else {
+			return RETRY;
+		}
+	}
+}
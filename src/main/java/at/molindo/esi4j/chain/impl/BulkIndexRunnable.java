@@ -0,0 +1,449 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.VersionType;
+
+import com.google.common.collect.Lists;
+
+import at.molindo.esi4j.chain.Esi4JBatchedEntityResolver;
+import at.molindo.esi4j.chain.Esi4JEntityTask;
+import at.molindo.esi4j.chain.Esi4JExecutorMetrics;
+import at.molindo.esi4j.chain.Esi4JExecutorMetrics.Stage;
+import at.molindo.esi4j.chain.Esi4JTaskPriority;
+import at.molindo.esi4j.core.Esi4JOperation;
+import at.molindo.esi4j.mapping.ObjectKey;
+import at.molindo.esi4j.mapping.SourceBuffer;
+import at.molindo.utils.collections.ListMap;
+
+/**
+ * execute a bulk of {@link Esi4JEntityTask}s
+ */
+final class BulkIndexRunnable implements Runnable, TaskCoalescer.Batch, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(BulkIndexRunnable.class);
+
+	/**
+	 * indices must remain stable until started as they are referenced by {@link TaskCoalescer}
+	 */
+	private Esi4JEntityTask[] _tasks;
+	private int _size;
+	private long _bytes;
+	private boolean _started = false;
+
+	/**
+	 * {@link TaskJournal} sequence numbers of tasks, <code>null</code> without journal
+	 */
+	private long[] _seqs;
+
+	/**
+	 * sequence numbers of replaced tasks, acknowledged together with this runnable
+	 */
+	private long[] _superseded;
+	private int _supersededCount;
+
+	/**
+	 * number of previous attempts to index these tasks
+	 */
+	private final int _attempt;
+
+	private final Esi4JTaskPriority _priority;
+
+	/**
+	 * counted down once tasks are indexed or failed
+	 */
+	private final transient CountDownLatch _indexed = new CountDownLatch(1);
+
+	/**
+	 * @param tasks
+	 *            must not contain <code>null</code>
+	 * @param seqs
+	 *            {@link TaskJournal} sequence numbers of tasks, <code>null</code> without journal
+	 * @param attempt
+	 *            number of previous attempts
+	 * @param priority
+	 *            priority of all tasks
+	 * @param bytes
+	 *            estimated size of tasks
+	 */
+	BulkIndexRunnable(final Esi4JEntityTask[] tasks, final long[] seqs, final int attempt, final Esi4JTaskPriority priority, final long bytes) {
+		_tasks = tasks;
+		_seqs = seqs;
+		_attempt = attempt;
+		_priority = priority;
+		_size = tasks.length;
+		_bytes = bytes;
+	}
+
+	/**
+	 * @return number of non-<code>null</code> tasks
+	 */
+	synchronized int size() {
+		return _size;
+	}
+
+	synchronized long bytes() {
+		return _bytes;
+	}
+
+	synchronized Esi4JEntityTask[] tasks() {
+		return _tasks;
+	}
+
+	/**
+	 * @return sequence numbers of tasks and replaced tasks, might contain {@link TaskJournal#NO_SEQ}
+	 */
+	synchronized long[] seqs() {
+		if (_seqs == null) {
+			return new long[0];
+		}
+		final long[] seqs = Arrays.copyOf(_seqs, _seqs.length + _supersededCount);
+		if (_supersededCount > 0) {
+			System.arraycopy(_superseded, 0, seqs, _seqs.length, _supersededCount);
+		}
+		return seqs;
+	}
+
+	private void superseded(final long seq) {
+		if (seq == TaskJournal.NO_SEQ) {
+			return;
+		}
+		if (_superseded == null) {
+			_superseded = new long[4];
+		} else if (_supersededCount == _superseded.length) {
+			_superseded = Arrays.copyOf(_superseded, _superseded.length * 2);
+		}
+		_superseded[_supersededCount++] = seq;
+	}
+
+	/**
+	 * merge tasks of other runnable into this one, resolving duplicates
+	 *
+	 * @return false if this runnable already started or not enough space could be reserved in
+	 *         {@link TaskQueueBound}
+	 */
+	synchronized boolean merge(final BulkIndexRunnable other, final QueuedTaskExecutor executor) {
+		if (_started) {
+			return false;
+		}
+
+		final Esi4JEntityTask[] tasks = other.tasks();
+		final Esi4JEntityTask[] merged = new Esi4JEntityTask[_tasks.length + tasks.length];
+		System.arraycopy(_tasks, 0, merged, 0, _tasks.length);
+		System.arraycopy(tasks, 0, merged, _tasks.length, tasks.length);
+
+		final long[] seqs = other.seqs();
+		final long[] mergedSeqs;
+		if (_seqs != null) {
+			mergedSeqs = Arrays.copyOf(_seqs, merged.length);
+			System.arraycopy(seqs, 0, mergedSeqs, _seqs.length, tasks.length);
+		} else {
+			mergedSeqs = null;
+		}
+
+		final ListMap<ObjectKey, Integer> map = new QueuedTaskExecutor.ObjectKeyListMap(merged.length);
+		for (int i = 0; i < merged.length; i++) {
+			if (merged[i] != null) {
+				map.add(merged[i].toObjectKey(executor.getEntityResolver()), i);
+			}
+		}
+		// don't compact, indices are referenced by TaskCoalescer
+		QueuedTaskExecutor.resolveDuplicates(merged, map);
+
+		int size = 0;
+		for (final Esi4JEntityTask task : merged) {
+			if (task != null) {
+				size++;
+			}
+		}
+		final int sizeDelta = size - _size;
+		final long bytes = executor.estimateBytes(merged);
+		final long bytesDelta = bytes - _bytes;
+
+		if (sizeDelta <= 0 && bytesDelta <= 0) {
+			executor.getQueueBound().release(-sizeDelta, -bytesDelta);
+		} else if (!executor.getQueueBound().tryAcquire(sizeDelta, bytesDelta)) {
+			return false;
+		}
+
+		if (mergedSeqs != null) {
+			for (int i = 0; i < merged.length; i++) {
+				if (merged[i] == null) {
+					superseded(mergedSeqs[i]);
+					mergedSeqs[i] = TaskJournal.NO_SEQ;
+				}
+			}
+		}
+
+		_tasks = merged;
+		_seqs = mergedSeqs;
+		_size = size;
+		_bytes = bytes;
+		queued(executor);
+		return true;
+	}
+
+	@Override
+	public Esi4JTaskPriority getPriority() {
+		return _priority;
+	}
+
+	void indexed() {
+		_indexed.countDown();
+	}
+
+	boolean isIndexed() {
+		return _indexed.getCount() == 0;
+	}
+
+	void awaitIndexed() throws InterruptedException {
+		_indexed.await();
+	}
+
+	@Override
+	public synchronized boolean replace(final int index, final Esi4JEntityTask task, final long seq) {
+		if (_started || _tasks[index] == null) {
+			return false;
+		}
+		_tasks[index] = task;
+		if (_seqs != null) {
+			superseded(_seqs[index]);
+			_seqs[index] = seq;
+		}
+		return true;
+	}
+
+	/**
+	 * register pending tasks with {@link TaskCoalescer}
+	 */
+	synchronized void queued(final QueuedTaskExecutor executor) {
+		final TaskCoalescer coalescer = executor.getCoalescer();
+		if (coalescer != null) {
+			for (int i = 0; i < _tasks.length; i++) {
+				if (_tasks[i] != null) {
+					coalescer.queued(_tasks[i].toObjectKey(executor.getEntityResolver()), this, i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * release space reserved in {@link TaskQueueBound} and unregister tasks from {@link TaskCoalescer}
+	 *
+	 * @return tasks to index, without <code>null</code>
+	 */
+	synchronized Esi4JEntityTask[] release(final QueuedTaskExecutor executor) {
+		_started = true;
+		executor.getQueueBound().release(_size, _bytes);
+
+		final TaskCoalescer coalescer = executor.getCoalescer();
+		if (coalescer != null) {
+			for (int i = 0; i < _tasks.length; i++) {
+				if (_tasks[i] != null) {
+					coalescer.dispatched(_tasks[i].toObjectKey(executor.getEntityResolver()), this, i);
+				}
+			}
+		}
+		return QueuedTaskExecutor.compact(_tasks);
+	}
+
+	@Override
+	public void run() {
+		final Lane lane = Lane.current();
+		final QueuedTaskExecutor executor = lane.getOwner();
+
+		final boolean backfill = lane.takeBackfill();
+		try {
+			dispatch(lane, executor, backfill);
+		} finally {
+			if (backfill) {
+				lane.releaseBackfill();
+			}
+		}
+	}
+
+	/**
+	 * collect, prepare and execute bulk request
+	 *
+	 * @param backfill
+	 *            true if this runnable was taken as {@link Esi4JTaskPriority#BACKFILL}
+	 */
+	private void dispatch(final Lane lane, final QueuedTaskExecutor executor, final boolean backfill) {
+		final List<BulkIndexRunnable> runnables = lane.collect(this, backfill);
+
+		final List<Esi4JEntityTask> list = Lists.newArrayList();
+		final List<ObjectKey> keys = Lists.newArrayList();
+		final List<Integer> attempts = Lists.newArrayList();
+		final List<ObjectKey> changed = Lists.newArrayList();
+		for (final BulkIndexRunnable runnable : runnables) {
+			for (final Esi4JEntityTask task : runnable.release(executor)) {
+				// entities are still replaced, no session required
+				final ObjectKey key = executor.getEntityResolver() == null ? null : task.toObjectKey(executor.getEntityResolver());
+				if (task instanceof PropagateEntityTask) {
+					// not indexed, only find owners
+					if (runnable._attempt == 0 && key != null) {
+						changed.add(key);
+					}
+					continue;
+				}
+				if (key != null && executor.isIndexed(task, key)) {
+					// drop before resolving
+					continue;
+				}
+				list.add(task);
+				keys.add(key);
+				attempts.add(runnable._attempt);
+				if (runnable._attempt == 0 && key != null) {
+					// dependencies were propagated on first attempt already
+					changed.add(key);
+				}
+			}
+		}
+		final Esi4JEntityTask[] tasks = list.toArray(new Esi4JEntityTask[list.size()]);
+
+		final BulkListener listener = new BulkListener(executor, lane, runnables, backfill, executor.isPooledBuffers() ? new SourceBuffer()
+				: null);
+
+		final BulkRequestBuilder bulk;
+		executor.getTaskProcessor().onBeforeBulkIndex();
+		try { // ensure onAfterBulkIndex()
+
+			try {
+				bulk = prepareBulk(executor, tasks, keys, attempts, listener);
+			} catch (final RuntimeException e) {
+				// retry like a failed bulk request
+				listener.prepareFailed(tasks, keys, attempts, e);
+				return;
+			}
+
+			try {
+				executor.propagate(changed);
+			} catch (final RuntimeException e) {
+				// tasks are still indexed
+				log.warn("failed to find owners of " + changed.size()
+						+ " changed entities. index might be out of sync", e);
+			}
+
+		} finally {
+			executor.getTaskProcessor().onAfterBulkIndex();
+		}
+
+		if (bulk.numberOfActions() == 0) {
+			listener.completed(new ListMap<Integer, Esi4JEntityTask>());
+			return;
+		}
+
+		// wait for previous bulk request of this lane
+		lane.acquireInFlight(backfill);
+		listener.sent();
+		try {
+			executor.getTaskProcessor().getIndex()
+					.executeBulk(new Esi4JOperation<ListenableActionFuture<BulkResponse>>() {
+
+						@Override
+						public ListenableActionFuture<BulkResponse> execute(final Client client, final String indexName, final OperationContext helper) {
+							// don't handle completion on network threads
+							return bulk.setListenerThreaded(true).execute();
+						}
+					}).addListener(listener);
+		} catch (final RuntimeException e) {
+			listener.onFailure(e);
+		}
+	}
+
+	/**
+	 * resolve entities and build bulk request, requires a resolve session
+	 *
+	 * @param keys
+	 *            key per task, <code>null</code> without {@link Esi4JBatchedEntityResolver}
+	 * @param attempts
+	 *            number of previous attempts per task
+	 * @param listener
+	 *            receives task for each action of bulk request
+	 */
+	private BulkRequestBuilder prepareBulk(final QueuedTaskExecutor executor, final Esi4JEntityTask[] tasks, final List<ObjectKey> keys, final List<Integer> attempts, final BulkListener listener) {
+		final Esi4JBatchedEntityResolver entityResolver = executor.getEntityResolver();
+
+		final Esi4JExecutorMetrics metrics = executor.getMetrics();
+
+		if (entityResolver != null) {
+			final long start = System.nanoTime();
+			entityResolver.resolveEntities(tasks);
+			metrics.stage(Stage.RESOLVE, tasks.length, System.nanoTime() - start);
+		}
+
+		return executor.getTaskProcessor().getIndex().execute(new Esi4JOperation<BulkRequestBuilder>() {
+
+			@Override
+			public BulkRequestBuilder execute(final Client client, final String indexName, final OperationContext helper) {
+				final BulkRequestBuilder bulk = client.prepareBulk();
+
+				final long start = System.nanoTime();
+				for (int i = 0; i < tasks.length; i++) {
+					final Esi4JEntityTask task = tasks[i];
+					if (task != null) {
+						final long taskStart = System.nanoTime();
+						final int actions = bulk.numberOfActions();
+						if (task instanceof AbstractEntityTask) {
+							((AbstractEntityTask) task).addToBulk(client, bulk, indexName, helper, listener.getBuffer());
+						} else {
+							task.addToBulk(client, bulk, indexName, helper);
+						}
+						for (int a = actions; a < bulk.numberOfActions(); a++) {
+							listener.action(task, attempts.get(i), keys.get(i), executor.getIndexedVersions() == null
+									? null : versionKey(bulk.request().requests().get(a), keys.get(i)));
+						}
+						if (keys.get(i) != null) {
+							// resolved tasks can't be converted to keys without current session
+							metrics.type(Stage.BUILD, keys.get(i).getType(), System.nanoTime() - taskStart);
+						}
+					}
+				}
+				metrics.stage(Stage.BUILD, tasks.length, System.nanoTime() - start);
+
+				return bulk;
+			}
+		});
+	}
+
+	/**
+	 * @return key if request's outcome should be recorded in {@link IndexedVersions}, <code>null</code> otherwise
+	 */
+	private static ObjectKey versionKey(final ActionRequest<?> request, final ObjectKey key) {
+		if (request instanceof DeleteRequest) {
+			return key;
+		} else if (request instanceof IndexRequest) {
+			// only external versions are comparable to entity versions
+			return ((IndexRequest) request).versionType() == VersionType.EXTERNAL ? key : null;
+		} else {
+			return null;
+		}
+	}
+}
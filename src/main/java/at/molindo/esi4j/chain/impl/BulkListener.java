@@ -0,0 +1,250 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+
+import com.google.common.collect.Lists;
+
+import at.molindo.esi4j.action.BulkResponseWrapper;
+import at.molindo.esi4j.chain.Esi4JEntityTask;
+import at.molindo.esi4j.chain.Esi4JExecutorMetrics.Stage;
+import at.molindo.esi4j.mapping.ObjectKey;
+import at.molindo.esi4j.mapping.SourceBuffer;
+import at.molindo.utils.collections.ListMap;
+
+/**
+ * handles completion of an asynchronously executed bulk request. Failed items are retried, dropped or passed to
+ * {@link DeadLetterLog} depending on their {@link BulkFailureType}.
+ */
+final class BulkListener implements ActionListener<BulkResponseWrapper> {
+
+	private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(BulkListener.class);
+
+	private final QueuedTaskExecutor _executor;
+	private final Lane _lane;
+	private final List<BulkIndexRunnable> _runnables;
+	private final boolean _backfill;
+
+	/**
+	 * task and number of previous attempts for each action of the bulk request
+	 */
+	private final List<Esi4JEntityTask> _actions = Lists.newArrayList();
+	private final List<Integer> _attempts = Lists.newArrayList();
+
+	/**
+	 * key of task before its entity was resolved for each action, <code>null</code> without entity resolver. Resolved
+	 * tasks can't be converted to keys outside a resolve session
+	 */
+	private final List<ObjectKey> _keys = Lists.newArrayList();
+
+	/**
+	 * key to record in {@link IndexedVersions} for each action, might be <code>null</code>
+	 */
+	private final List<ObjectKey> _versionKeys = Lists.newArrayList();
+
+	/**
+	 * sources of bulk request, <code>null</code> if not pooled
+	 */
+	private final SourceBuffer _buffer;
+
+	private long _sent;
+
+	BulkListener(final QueuedTaskExecutor executor, final Lane lane, final List<BulkIndexRunnable> runnables, final boolean backfill, final SourceBuffer buffer) {
+		_executor = executor;
+		_lane = lane;
+		_runnables = runnables;
+		_backfill = backfill;
+		_buffer = buffer;
+	}
+
+	/**
+	 * @return buffer for sources of bulk request, <code>null</code> if not pooled
+	 */
+	SourceBuffer getBuffer() {
+		return _buffer;
+	}
+
+	/**
+	 * return pages of {@link SourceBuffer}, bulk request must not be used anymore
+	 */
+	void release() {
+		if (_buffer != null) {
+			_buffer.close();
+		}
+	}
+
+	/**
+	 * @param key
+	 *            key of task before its entity was resolved, <code>null</code> without entity resolver
+	 */
+	void action(final Esi4JEntityTask task, final int attempt, final ObjectKey key, final ObjectKey versionKey) {
+		_actions.add(task);
+		_attempts.add(attempt);
+		_keys.add(key);
+		_versionKeys.add(versionKey);
+	}
+
+	void sent() {
+		_sent = System.nanoTime();
+	}
+
+	@Override
+	public void onResponse(final BulkResponseWrapper response) {
+		_executor.getMetrics().stage(Stage.BULK, _actions.size(), System.nanoTime() - _sent);
+		try {
+			final ListMap<Integer, Esi4JEntityTask> retries = new ListMap<>();
+
+			int failed = 0;
+			for (final BulkItemResponse item : response.getBulkResponse()) {
+				if (item.isFailed()) {
+					failed++;
+					failed(item.getItemId(), BulkFailureType.classify(item.getFailure()), item.getFailureMessage(), retries);
+				} else {
+					indexed(item);
+				}
+			}
+
+			if (log.isDebugEnabled()) {
+				final int indexed = response.getBulkResponse().getItems().length - failed;
+				log.debug("finished bulk indexing " + indexed + " items");
+			}
+
+			_executor.failedItems(failed);
+			_executor.bulkIndexed(_actions.size());
+			completed(retries);
+		} finally {
+			_lane.releaseInFlight(_backfill);
+		}
+	}
+
+	@Override
+	public void onFailure(final Throwable e) {
+		_executor.getMetrics().stage(Stage.BULK, _actions.size(), System.nanoTime() - _sent);
+		try {
+			log.warn("failed to execute bulk request of " + _actions.size() + " items", e);
+			failedAll(e);
+		} finally {
+			_lane.releaseInFlight(_backfill);
+		}
+	}
+
+	/**
+	 * bulk request couldn't be prepared, e.g. as entities couldn't be resolved. Tasks are handled like actions of a
+	 * failed bulk request, but no in-flight permit was acquired yet.
+	 *
+	 * @param keys
+	 *            key per task, <code>null</code> without entity resolver
+	 * @param attempts
+	 *            number of previous attempts per task
+	 */
+	void prepareFailed(final Esi4JEntityTask[] tasks, final List<ObjectKey> keys, final List<Integer> attempts, final RuntimeException e) {
+		log.warn("failed to prepare bulk request of " + tasks.length + " items", e);
+
+		// replace actions of partially built request
+		_actions.clear();
+		_attempts.clear();
+		_keys.clear();
+		_versionKeys.clear();
+		for (int i = 0; i < tasks.length; i++) {
+			if (tasks[i] != null) {
+				action(tasks[i], attempts.get(i), keys.get(i), null);
+			}
+		}
+		failedAll(e);
+	}
+
+	private void failedAll(final Throwable e) {
+		final ListMap<Integer, Esi4JEntityTask> retries = new ListMap<>();
+		final BulkFailureType type = BulkFailureType.classify(e);
+		for (int i = 0; i < _actions.size(); i++) {
+			failed(i, type, e.getMessage(), retries);
+		}
+		_executor.failedItems(_actions.size());
+		completed(retries);
+	}
+
+	private void indexed(final BulkItemResponse item) {
+		final IndexedVersions versions = _executor.getIndexedVersions();
+		final ObjectKey key = versions == null ? null : _versionKeys.get(item.getItemId());
+		if (key != null) {
+			if ("delete".equals(item.getOpType())) {
+				versions.removed(key);
+			} else {
+				versions.indexed(key, item.getVersion());
+			}
+		}
+	}
+
+	/**
+	 * @param retries
+	 *            collects tasks to retry by attempt
+	 */
+	private void failed(final int action, final BulkFailureType type, final String reason, final ListMap<Integer, Esi4JEntityTask> retries) {
+		final Esi4JEntityTask task = _actions.get(action);
+		final ObjectKey key = _keys.get(action);
+		_executor.getMetrics().failed(type);
+
+		if (key == null) {
+			// tasks can't be converted to keys
+			if (type != BulkFailureType.VERSION_CONFLICT) {
+				log.warn("failed to index item: " + reason + ". index might be out of sync");
+			}
+			return;
+		}
+
+		switch (type) {
+		case VERSION_CONFLICT:
+			_executor.versionConflict();
+			break;
+		case RETRY:
+			final int attempt = _attempts.get(action) + 1;
+			if (attempt < _executor.getRetryMaxAttempts()) {
+				retries.add(attempt, task instanceof DeleteEntityTask ? new DeleteEntityTask(key) : new IndexEntityTask(key));
+			} else {
+				// give up
+				_executor.deadLetter(task, key, reason);
+			}
+			break;
+		case MAPPING:
+			_executor.deadLetter(task, key, reason);
+			break;
+		default:
+			throw new IllegalArgumentException("unexpected failure type " + type);
+		}
+	}
+
+	/**
+	 * retry failed tasks and acknowledge all tasks in {@link TaskJournal}
+	 */
+	void completed(final ListMap<Integer, Esi4JEntityTask> retries) {
+		release();
+
+		for (final Map.Entry<Integer, List<Esi4JEntityTask>> e : retries.entrySet()) {
+			final List<Esi4JEntityTask> tasks = e.getValue();
+			_executor.retry(tasks.toArray(new Esi4JEntityTask[tasks.size()]), e.getKey());
+		}
+
+		for (final BulkIndexRunnable runnable : _runnables) {
+			_executor.acknowledge(runnable);
+			runnable.indexed();
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import at.molindo.esi4j.core.Esi4JIndex;
+
+/**
+ * refreshes an index on behalf of concurrent callers. All callers waiting at the same time share a single refresh that
+ * starts after their call. Only one refresh runs at a time, and refreshes start at most once per interval.
+ */
+public final class CoalescedRefresh {
+
+	private final Esi4JIndex _index;
+	private final long _intervalNanos;
+
+	/**
+	 * refresh that didn't start yet, joined by new callers
+	 */
+	private Refresh _next;
+	private boolean _running;
+	private long _lastStart;
+
+	private long _requested;
+	private long _executed;
+
+	public CoalescedRefresh(final Esi4JIndex index, final long interval, final TimeUnit unit) {
+		if (index == null) {
+			throw new NullPointerException("index");
+		}
+		if (unit == null) {
+			throw new NullPointerException("unit");
+		}
+		_index = index;
+		_intervalNanos = unit.toNanos(interval);
+		_lastStart = System.nanoTime() - _intervalNanos;
+	}
+
+	/**
+	 * wait for a refresh that started after this call
+	 */
+	public void refresh() {
+		final Refresh refresh;
+		final boolean leader;
+		synchronized (this) {
+			_requested++;
+			if (_next == null) {
+				_next = new Refresh();
+				leader = true;
+			} else {
+				leader = false;
+			}
+			refresh = _next;
+		}
+
+		if (leader) {
+			execute(refresh);
+		}
+		refresh.await();
+	}
+
+	private void execute(final Refresh refresh) {
+		try {
+			synchronized (this) {
+				// collect more callers while waiting for previous refresh and interval
+				while (true) {
+					final long wait = _lastStart + _intervalNanos - System.nanoTime();
+					if (_running) {
+						wait();
+					} else if (wait > 0) {
+						TimeUnit.NANOSECONDS.timedWait(this, wait);
+					} else {
+						break;
+					}
+				}
+
+				// later callers need a new refresh
+				_next = null;
+				_running = true;
+				_lastStart = System.nanoTime();
+				_executed++;
+			}
+
+			try {
+				_index.refresh();
+			} finally {
+				synchronized (this) {
+					_running = false;
+					notifyAll();
+				}
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			synchronized (this) {
+				if (_next == refresh) {
+					_next = null;
+				}
+			}
+			refresh._exception = new RuntimeException("interrupted while waiting for refresh", e);
+		} catch (final RuntimeException e) {
+			refresh._exception = e;
+		} finally {
+			refresh._done.countDown();
+		}
+	}
+
+	/**
+	 * @return number of refresh requests
+	 */
+	public synchronized long getRequested() {
+		return _requested;
+	}
+
+	/**
+	 * @return number of executed refreshes
+	 */
+	public synchronized long getExecuted() {
+		return _executed;
+	}
+
+	private static final class Refresh {
+
+		private final CountDownLatch _done = new CountDownLatch(1);
+		private volatile RuntimeException _exception;
+
+		private void await() {
+			try {
+				_done.await();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("interrupted while waiting for refresh", e);
+			}
+			if (_exception != null) {
+				throw _exception;
+			}
+		}
+	}
+}
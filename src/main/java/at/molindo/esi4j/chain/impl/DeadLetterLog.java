@@ -0,0 +1,179 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.elasticsearch.common.settings.Settings;
+
+import com.google.common.collect.Lists;
+
+import at.molindo.esi4j.chain.Esi4JEntityTask;
+import at.molindo.esi4j.mapping.ObjectKey;
+
+/**
+ * append-only log of tasks that could not be indexed, e.g. because of mapping errors. Tasks are stored as
+ * {@link ObjectKey}s together with the failure reason and might be replayed later, e.g. after fixing the mapping.
+ */
+public final class DeadLetterLog implements Closeable {
+
+	/**
+	 * directory of dead-letter logs, each index uses a file named after the index
+	 */
+	public static final String SETTING_PATH = "esi4j.index.executor.dead_letter.path";
+
+	private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(DeadLetterLog.class);
+
+	private static final String SUFFIX = ".dead";
+
+	private static final byte OP_INDEX = 0;
+	private static final byte OP_DELETE = 1;
+
+	private static final int MAX_REASON_LENGTH = 1000;
+
+	private final File _file;
+	private DataOutputStream _out;
+
+	private long _appended;
+
+	/**
+	 * @return dead-letter log for this index or <code>null</code> if not enabled
+	 */
+	static DeadLetterLog open(final Settings settings, final String indexName) {
+		final String path = settings.get(SETTING_PATH);
+		if (path == null) {
+			return null;
+		}
+
+		final File dir = new File(path);
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new RuntimeException("failed to create directory " + dir);
+		}
+		return new DeadLetterLog(new File(dir, indexName + SUFFIX));
+	}
+
+	public DeadLetterLog(final File file) {
+		if (file == null) {
+			throw new NullPointerException("file");
+		}
+		_file = file;
+	}
+
+	/**
+	 * @param key
+	 *            key of task's entity
+	 */
+	public synchronized void append(final Esi4JEntityTask task, final ObjectKey key, final String reason) {
+		try {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+			final DataOutputStream record = new DataOutputStream(bytes);
+			record.writeByte(task instanceof DeleteEntityTask ? OP_DELETE : OP_INDEX);
+			ObjectKeyCodec.write(record, key);
+			record.writeUTF(reason == null ? "" : reason.length() > MAX_REASON_LENGTH ? reason.substring(0,
+					MAX_REASON_LENGTH) : reason);
+
+			final DataOutputStream out = out();
+			out.writeInt(bytes.size());
+			bytes.writeTo(out);
+			out.flush();
+
+			_appended++;
+		} catch (final IOException e) {
+			log.warn("failed to append " + key + " to dead-letter log " + _file, e);
+		}
+	}
+
+	/**
+	 * read and remove all tasks from log. Updates are returned as index tasks.
+	 */
+	public synchronized List<Esi4JEntityTask> drain() throws IOException {
+		close();
+
+		final List<Esi4JEntityTask> tasks = Lists.newArrayList();
+		if (!_file.exists()) {
+			return tasks;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(_file)))) {
+			while (true) {
+				final byte[] bytes;
+				try {
+					bytes = new byte[in.readInt()];
+					in.readFully(bytes);
+				} catch (final EOFException e) {
+					// end of log or truncated record
+					break;
+				}
+
+				final DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+				final byte op = record.readByte();
+				try {
+					final ObjectKey key = ObjectKeyCodec.read(record);
+					tasks.add(op == OP_DELETE ? new DeleteEntityTask(key) : new IndexEntityTask(key));
+				} catch (final ClassNotFoundException e) {
+					log.warn("dropping dead-letter entry of unknown class: " + e.getMessage());
+				}
+			}
+		}
+
+		if (!_file.delete()) {
+			throw new IOException("failed to delete dead-letter log " + _file);
+		}
+		return tasks;
+	}
+
+	private DataOutputStream out() throws IOException {
+		if (_out == null) {
+			_out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(_file, true)));
+		}
+		return _out;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (_out != null) {
+			try {
+				_out.close();
+			} catch (final IOException e) {
+				log.warn("failed to close dead-letter log " + _file, e);
+			}
+			_out = null;
+		}
+	}
+
+	public File getFile() {
+		return _file;
+	}
+
+	/**
+	 * @return number of tasks appended since creation
+	 */
+	public synchronized long getAppended() {
+		return _appended;
+	}
+}
@@ -15,33 +15,135 @@
  */
 package at.molindo.esi4j.chain.impl;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 import at.molindo.esi4j.chain.Esi4JBatchedEventProcessor;
+import at.molindo.esi4j.chain.Esi4JEntityResolver;
 import at.molindo.esi4j.chain.Esi4JEntityTask;
+import at.molindo.esi4j.chain.Esi4JExecutorMetrics;
+import at.molindo.esi4j.chain.Esi4JExecutorMetrics.Stage;
 import at.molindo.esi4j.chain.Esi4JTaskProcessor;
 import at.molindo.esi4j.chain.Esi4JTaskSource;
+import at.molindo.esi4j.core.Esi4JIndex;
+import at.molindo.esi4j.core.Esi4JOperation.OperationContext;
+import at.molindo.esi4j.mapping.ObjectKey;
 import at.molindo.utils.collections.ArrayUtils;
 
 public class DefaultBatchedEventProcessor extends DefaultEventProcessor implements Esi4JBatchedEventProcessor {
 
+	private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(DefaultBatchedEventProcessor.class);
+
+	/**
+	 * bytes of compact tasks a session keeps on heap before spilling to a temporary file, -1 to never spill
+	 */
+	public static final String SETTING_SPILL_THRESHOLD = "esi4j.index.session.spill.threshold";
+
+	/**
+	 * directory of spill files, defaults to the temporary-file directory
+	 */
+	public static final String SETTING_SPILL_PATH = "esi4j.index.session.spill.path";
+
+	private static final ByteSizeValue DEFAULT_SPILL_THRESHOLD = new ByteSizeValue(4 * 1024 * 1024);
+
+	private final Esi4JEntityResolver _entityResolver;
+	private final long _spillThreshold;
+	private final File _spillDir;
+
+	private final Set<Class<?>> _eagerTypes = Sets.newConcurrentHashSet();
+
 	public DefaultBatchedEventProcessor(final Esi4JTaskProcessor taskProcessor) {
-		super(taskProcessor);
+		this(taskProcessor, null);
 	}
 
 	public DefaultBatchedEventProcessor(final Esi4JTaskProcessor taskProcessor, final Map<Class<?>, Esi4JTaskSource> taskSources) {
+		this(taskProcessor, taskSources, null);
+	}
+
+	/**
+	 * @param entityResolver
+	 *            if not <code>null</code>, sessions replace entities as soon as events occur and keep tasks in a
+	 *            compact encoding. Must be the resolver used by the task processor.
+	 */
+	public DefaultBatchedEventProcessor(final Esi4JTaskProcessor taskProcessor, final Map<Class<?>, Esi4JTaskSource> taskSources, final Esi4JEntityResolver entityResolver) {
 		super(taskProcessor, taskSources);
+		_entityResolver = entityResolver;
+
+		if (entityResolver != null) {
+			final Settings settings = QueuedTaskProcessor.getSettings(taskProcessor.getIndex());
+			_spillThreshold = settings.getAsBytesSize(SETTING_SPILL_THRESHOLD, DEFAULT_SPILL_THRESHOLD).bytes();
+
+			final String path = settings.get(SETTING_SPILL_PATH);
+			_spillDir = path == null ? null : new File(path);
+			if (_spillDir != null && !_spillDir.isDirectory() && !_spillDir.mkdirs()) {
+				throw new RuntimeException("failed to create directory " + _spillDir);
+			}
+		} else {
+			_spillThreshold = -1;
+			_spillDir = null;
+		}
 	}
 
 	@Override
 	public EventSession startSession() {
-		return new SimpleEventSession();
+		return _entityResolver == null ? new SimpleEventSession() : new CompactEventSession();
 	}
 
-	public class SimpleEventSession extends AbstractEventListener implements EventSession {
+	/**
+	 * serialize documents of this type (and its subtypes) when a session is flushed, i.e. after commit on the
+	 * committing thread. Entities don't have to be loaded again but documents must only depend on state available in
+	 * the committing session. Requires an entity resolver, time spent is reported as {@link Stage#SERIALIZE}.
+	 */
+	public void setEagerSerialization(final Class<?> type, final boolean eager) {
+		if (type == null) {
+			throw new NullPointerException("type");
+		}
+		if (eager) {
+			_eagerTypes.add(type);
+		} else {
+			_eagerTypes.remove(type);
+		}
+	}
+
+	public boolean isEagerSerialization(final Class<?> type) {
+		for (final Class<?> eagerType : _eagerTypes) {
+			if (eagerType.isAssignableFrom(type)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return <code>null</code> if tasks can't be serialized eagerly
+	 */
+	private OperationContext getOperationContext() {
+		final Esi4JIndex index = getTaskProcessor().getIndex();
+		return index instanceof OperationContext ? (OperationContext) index : null;
+	}
+
+	/**
+	 * @return <code>null</code> if task processor doesn't report metrics
+	 */
+	private Esi4JExecutorMetrics getMetrics() {
+		final Esi4JTaskProcessor processor = getTaskProcessor();
+		return processor instanceof QueuedTaskProcessor ? ((QueuedTaskProcessor) processor).getExecutor().getMetrics()
+				: null;
+	}
+
+	/**
+	 * keeps tasks and hence entities on heap until {@link #flush()}
+	 */
+	public class SimpleEventSession extends AbstractEventListener implements DiscardableEventSession {
 
 		private final List<Esi4JEntityTask[]> _tasks = Lists.newArrayList();
 		private int _taskCount = 0;
@@ -56,6 +158,11 @@ public class DefaultBatchedEventProcessor extends DefaultEventProcessor implemen
 			addTasks(getPostUpdateTasks(o));
 		}
 
+		@Override
+		public void onPostUpdate(final Object o, final Set<String> dirtyProperties) {
+			addTasks(getPostUpdateTasks(o, dirtyProperties));
+		}
+
 		@Override
 		public void onPostDelete(final Object o) {
 			addTasks(getPostDeleteTasks(o));
@@ -77,8 +184,107 @@ public class DefaultBatchedEventProcessor extends DefaultEventProcessor implemen
 				from += tasks.length;
 			}
 
+			discard();
+
+			/*
+			 * important: process all tasks in a single batch so we can later identify duplicates
+			 */
+			processTasks(allTasks);
+		}
+
+		@Override
+		public void discard() {
 			_tasks.clear();
 			_taskCount = 0;
+		}
+
+	}
+
+	/**
+	 * replaces entities as soon as events occur and keeps a compact encoding of tasks. Large sessions spill to a
+	 * temporary file. Index tasks of types using eager serialization keep their entities until {@link #flush()}.
+	 */
+	public class CompactEventSession extends AbstractEventListener implements DiscardableEventSession {
+
+		private final TaskBuffer _buffer = new TaskBuffer(_spillThreshold, _spillDir);
+
+		/**
+		 * tasks to serialize on flush and their position among all tasks
+		 */
+		private final List<SerializedIndexEntityTask> _eager = Lists.newArrayList();
+		private final List<Integer> _eagerPositions = Lists.newArrayList();
+
+		@Override
+		public void onPostInsert(final Object o) {
+			addTasks(getPostInsertTasks(o));
+		}
+
+		@Override
+		public void onPostUpdate(final Object o) {
+			addTasks(getPostUpdateTasks(o));
+		}
+
+		@Override
+		public void onPostUpdate(final Object o, final Set<String> dirtyProperties) {
+			addTasks(getPostUpdateTasks(o, dirtyProperties));
+		}
+
+		@Override
+		public void onPostDelete(final Object o) {
+			addTasks(getPostDeleteTasks(o));
+		}
+
+		private void addTasks(final Esi4JEntityTask[] tasks) {
+			if (!ArrayUtils.empty(tasks)) {
+				try {
+					for (final Esi4JEntityTask task : tasks) {
+						if (task == null) {
+							continue;
+						}
+
+						final SerializedIndexEntityTask eager = toEager(task);
+						if (eager != null) {
+							// keeps entity, must be called within originating session
+							eager.replaceEntity(_entityResolver);
+							_eagerPositions.add(_buffer.size() + _eager.size());
+							_eager.add(eager);
+						} else {
+							// must be called within originating session
+							task.replaceEntity(_entityResolver);
+							_buffer.add(task);
+						}
+					}
+				} catch (final IOException e) {
+					throw new RuntimeException("failed to buffer tasks", e);
+				}
+			}
+		}
+
+		private SerializedIndexEntityTask toEager(final Esi4JEntityTask task) {
+			if (_eagerTypes.isEmpty() || !(task instanceof IndexEntityTask)) {
+				return null;
+			}
+			final Object entity = ((IndexEntityTask) task).getEntity();
+			if (entity instanceof ObjectKey || !isEagerSerialization(entity.getClass())) {
+				return null;
+			}
+			final SerializedIndexEntityTask eager = new SerializedIndexEntityTask(entity);
+			eager.setPriority(((IndexEntityTask) task).getPriority());
+			return eager;
+		}
+
+		@Override
+		public void flush() {
+			final Esi4JEntityTask[] buffered;
+			try {
+				buffered = _buffer.toArray();
+			} catch (final IOException e) {
+				throw new RuntimeException("failed to read buffered tasks", e);
+			} finally {
+				_buffer.clear();
+			}
+
+			final Esi4JEntityTask[] allTasks = _eager.isEmpty() ? buffered : serialize(buffered);
 
 			/*
 			 * important: process all tasks in a single batch so we can later identify duplicates
@@ -86,5 +292,69 @@ public class DefaultBatchedEventProcessor extends DefaultEventProcessor implemen
 			processTasks(allTasks);
 		}
 
+		/**
+		 * serialize eager tasks, tasks that fail to serialize resolve their entities later
+		 *
+		 * @return eager tasks merged with buffered tasks in original order
+		 */
+		private Esi4JEntityTask[] serialize(final Esi4JEntityTask[] buffered) {
+			final OperationContext context = getOperationContext();
+			final Esi4JExecutorMetrics metrics = getMetrics();
+
+			final Esi4JEntityTask[] allTasks = new Esi4JEntityTask[buffered.length + _eager.size()];
+			int b = 0;
+			int e = 0;
+
+			final long start = System.nanoTime();
+			for (int i = 0; i < allTasks.length; i++) {
+				if (e < _eager.size() && _eagerPositions.get(e) == i) {
+					final SerializedIndexEntityTask task = _eager.get(e++);
+					if (context != null) {
+						final long taskStart = System.nanoTime();
+						try {
+							task.serialize(context);
+						} catch (final RuntimeException ex) {
+							log.warn("failed to serialize entity, resolving it later", ex);
+						}
+						if (metrics != null) {
+							metrics.type(Stage.SERIALIZE, task.toObjectKey(_entityResolver).getType(), System.nanoTime()
+									- taskStart);
+						}
+					}
+					allTasks[i] = task;
+				} else {
+					allTasks[i] = buffered[b++];
+				}
+			}
+			if (metrics != null) {
+				metrics.stage(Stage.SERIALIZE, _eager.size(), System.nanoTime() - start);
+			}
+
+			_eager.clear();
+			_eagerPositions.clear();
+
+			return allTasks;
+		}
+
+		@Override
+		public void discard() {
+			_buffer.clear();
+			_eager.clear();
+			_eagerPositions.clear();
+		}
+
+		/**
+		 * @return number of buffered tasks
+		 */
+		public int getTaskCount() {
+			return _buffer.size() + _eager.size();
+		}
+
+		/**
+		 * @return <code>true</code> if tasks were spilled to a temporary file
+		 */
+		public boolean isSpilled() {
+			return _buffer.isSpilled();
+		}
 	}
 }
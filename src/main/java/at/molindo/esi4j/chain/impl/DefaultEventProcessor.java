@@ -16,11 +16,20 @@
 package at.molindo.esi4j.chain.impl;
 
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheBuilder;
 
 import at.molindo.esi4j.chain.Esi4JEntityTask;
 import at.molindo.esi4j.chain.Esi4JEventProcessor;
+import at.molindo.esi4j.chain.Esi4JPartialUpdateTaskSource;
 import at.molindo.esi4j.chain.Esi4JTaskProcessor;
 import at.molindo.esi4j.chain.Esi4JTaskSource;
+import at.molindo.esi4j.core.Esi4JIndex;
+import at.molindo.esi4j.core.Esi4JOperation.OperationContext;
+import at.molindo.esi4j.mapping.TypeMapping;
 import at.molindo.utils.collections.ArrayUtils;
 import at.molindo.utils.collections.ClassMap;
 import at.molindo.utils.collections.CollectionUtils;
@@ -28,6 +37,13 @@ import at.molindo.utils.collections.CollectionUtils;
 public class DefaultEventProcessor extends AbstractEventListener implements Esi4JEventProcessor {
 
 	private volatile ClassMap<Esi4JTaskSource> _taskSources;
+
+	/**
+	 * task source per concrete class, avoids walking superclasses for every event. Replaced whenever task sources
+	 * change.
+	 */
+	private volatile ConcurrentMap<Class<?>, Optional<Esi4JTaskSource>> _dispatch = newDispatch();
+
 	private final Esi4JTaskProcessor _taskProcessor;
 
 	public DefaultEventProcessor(final Esi4JTaskProcessor taskProcessor) {
@@ -46,9 +62,13 @@ public class DefaultEventProcessor extends AbstractEventListener implements Esi4
 		}
 	}
 
+	private static ConcurrentMap<Class<?>, Optional<Esi4JTaskSource>> newDispatch() {
+		return CacheBuilder.newBuilder().weakKeys().<Class<?>, Optional<Esi4JTaskSource>> build().asMap();
+	}
+
 	@Override
 	public boolean isProcessing(final Class<?> type) {
-		return _taskSources.find(type) != null;
+		return findTaskSource(type) != null;
 	}
 
 	@Override
@@ -57,6 +77,7 @@ public class DefaultEventProcessor extends AbstractEventListener implements Esi4
 		final ClassMap<Esi4JTaskSource> temp = copyTaskSources();
 		temp.put(type, taskSource);
 		_taskSources = temp;
+		_dispatch = newDispatch();
 	}
 
 	@Override
@@ -65,10 +86,14 @@ public class DefaultEventProcessor extends AbstractEventListener implements Esi4
 		final ClassMap<Esi4JTaskSource> temp = copyTaskSources();
 		temp.remove(type);
 		_taskSources = temp;
+		_dispatch = newDispatch();
 	}
 
 	ClassMap<Esi4JTaskSource> copyTaskSources() {
-		return new ClassMap<Esi4JTaskSource>(_taskSources);
+		final ClassMap<Esi4JTaskSource> taskSources = _taskSources;
+		synchronized (taskSources) {
+			return new ClassMap<Esi4JTaskSource>(taskSources);
+		}
 	}
 
 	protected void processTasks(final Esi4JEntityTask[] tasks) {
@@ -78,7 +103,41 @@ public class DefaultEventProcessor extends AbstractEventListener implements Esi4
 	}
 
 	protected Esi4JTaskSource findTaskSource(final Object o) {
-		return o == null ? null : _taskSources.find(o.getClass());
+		return o == null ? null : findTaskSource(o.getClass());
+	}
+
+	private Esi4JTaskSource findTaskSource(final Class<?> type) {
+		// read dispatch before task sources, see putTaskSource(..)
+		final ConcurrentMap<Class<?>, Optional<Esi4JTaskSource>> dispatch = _dispatch;
+
+		Optional<Esi4JTaskSource> src = dispatch.get(type);
+		if (src == null) {
+			final ClassMap<Esi4JTaskSource> taskSources = _taskSources;
+			synchronized (taskSources) {
+				// WeakHashMap isn't thread-safe, even for reads
+				src = Optional.fromNullable(taskSources.find(type));
+			}
+			dispatch.put(type, src);
+		}
+		return src.orNull();
+	}
+
+	/**
+	 * only applies to {@link DefaultTaskSource}s, others might depend on filtered entities
+	 *
+	 * @return <code>true</code> if o is filtered by a mapping declaring a cheap filter
+	 * @see TypeMapping#isFilterCheap()
+	 */
+	private boolean isFilteredEarly(final Object o, final Esi4JTaskSource src) {
+		if (!(src instanceof DefaultTaskSource)) {
+			return false;
+		}
+		final Esi4JIndex index = _taskProcessor.getIndex();
+		if (!(index instanceof OperationContext) || !index.isMapped(o)) {
+			return false;
+		}
+		final TypeMapping mapping = ((OperationContext) index).findTypeMapping(o);
+		return mapping.isFilterCheap() && mapping.isFiltered(o);
 	}
 
 	@Override
@@ -91,19 +150,50 @@ public class DefaultEventProcessor extends AbstractEventListener implements Esi4
 		processTasks(getPostUpdateTasks(o));
 	}
 
+	@Override
+	public void onPostUpdate(final Object o, final Set<String> dirtyProperties) {
+		processTasks(getPostUpdateTasks(o, dirtyProperties));
+	}
+
 	@Override
 	public void onPostDelete(final Object o) {
 		processTasks(getPostDeleteTasks(o));
 	}
 
+	/**
+	 * @return <code>null</code> for filtered objects, see {@link #isFilteredEarly(Object, Esi4JTaskSource)}
+	 */
 	protected Esi4JEntityTask[] getPostInsertTasks(final Object o) {
 		final Esi4JTaskSource src = findTaskSource(o);
-		return src == null ? null : src.getPostInsertTasks(o);
+		if (src == null || isFilteredEarly(o, src)) {
+			return null;
+		}
+		return src.getPostInsertTasks(o);
 	}
 
+	/**
+	 * @return delete tasks for filtered objects, see {@link #isFilteredEarly(Object, Esi4JTaskSource)}
+	 */
 	protected Esi4JEntityTask[] getPostUpdateTasks(final Object o) {
 		final Esi4JTaskSource src = findTaskSource(o);
-		return src == null ? null : src.getPostUpdateTasks(o);
+		if (src == null) {
+			return null;
+		}
+		return isFilteredEarly(o, src) ? src.getPostDeleteTasks(o) : src.getPostUpdateTasks(o);
+	}
+
+	/**
+	 * @return delete tasks for filtered objects, see {@link #isFilteredEarly(Object, Esi4JTaskSource)}
+	 */
+	protected Esi4JEntityTask[] getPostUpdateTasks(final Object o, final Set<String> dirtyProperties) {
+		final Esi4JTaskSource src = findTaskSource(o);
+		if (src != null && isFilteredEarly(o, src)) {
+			return src.getPostDeleteTasks(o);
+		} else if (src instanceof Esi4JPartialUpdateTaskSource) {
+			return ((Esi4JPartialUpdateTaskSource) src).getPostUpdateTasks(o, dirtyProperties);
+		} else {
+			return src == null ? null : src.getPostUpdateTasks(o);
+		}
 	}
 
 	protected Esi4JEntityTask[] getPostDeleteTasks(final Object o) {
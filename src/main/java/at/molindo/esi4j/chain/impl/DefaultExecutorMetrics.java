@@ -0,0 +1,353 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+
+import at.molindo.esi4j.chain.Esi4JExecutorMetrics;
+import at.molindo.utils.metric.percentile.PercentileCounter;
+
+/**
+ * default {@link Esi4JExecutorMetrics} keeping counters and latency histograms in memory, exposed as
+ * {@link ExecutorMetricsMXBean} named <code>at.molindo.esi4j:type=QueuedTaskExecutor,index=&lt;index name&gt;</code>
+ */
+public class DefaultExecutorMetrics implements Esi4JExecutorMetrics, ExecutorMetricsMXBean {
+
+	/**
+	 * register MBean with platform MBean server, defaults to true
+	 */
+	public static final String SETTING_JMX = "esi4j.index.executor.metrics.jmx";
+
+	public static final String DOMAIN = "at.molindo.esi4j";
+
+	private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(DefaultExecutorMetrics.class);
+
+	private final boolean _jmx;
+
+	private QueuedTaskExecutor _executor;
+	private ObjectName _objectName;
+
+	private final AtomicLong _submitted = new AtomicLong();
+	private final AtomicLong _deduplicated = new AtomicLong();
+
+	private final Map<BulkFailureType, AtomicLong> _failures = new EnumMap<>(BulkFailureType.class);
+	private final Map<Stage, Latency> _stages = new EnumMap<>(Stage.class);
+	private final ConcurrentMap<String, Latency> _types = new ConcurrentHashMap<>();
+
+	public DefaultExecutorMetrics() {
+		this(ImmutableSettings.EMPTY);
+	}
+
+	public DefaultExecutorMetrics(final Settings settings) {
+		_jmx = settings.getAsBoolean(SETTING_JMX, true);
+		for (final BulkFailureType type : BulkFailureType.values()) {
+			_failures.put(type, new AtomicLong());
+		}
+		for (final Stage stage : Stage.values()) {
+			_stages.put(stage, new Latency());
+		}
+	}
+
+	@Override
+	public void open(final QueuedTaskExecutor executor) {
+		_executor = executor;
+		if (_jmx) {
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			try {
+				final ObjectName name = objectName(executor.getTaskProcessor().getIndex().getName());
+				server.registerMBean(this, name);
+				_objectName = name;
+			} catch (final JMException e) {
+				log.warn("failed to register executor metrics for index " + getIndexName(), e);
+			}
+		}
+	}
+
+	public static ObjectName objectName(final String indexName) throws JMException {
+		final String index = indexName.matches("[\\w.-]+") ? indexName : ObjectName.quote(indexName);
+		return new ObjectName(DOMAIN + ":type=" + QueuedTaskExecutor.class.getSimpleName() + ",index=" + index);
+	}
+
+	@Override
+	public void close() {
+		if (_objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(_objectName);
+			} catch (final JMException e) {
+				log.warn("failed to unregister executor metrics " + _objectName, e);
+			}
+			_objectName = null;
+		}
+	}
+
+	@Override
+	public void submitted(final int tasks, final int deduplicated) {
+		_submitted.addAndGet(tasks);
+		_deduplicated.addAndGet(deduplicated);
+	}
+
+	@Override
+	public void stage(final Stage stage, final int items, final long nanos) {
+		_stages.get(stage).add(items, nanos);
+	}
+
+	@Override
+	public void type(final Stage stage, final Class<?> type, final long nanos) {
+		final String key = key(stage) + ":" + type.getName();
+
+		Latency latency = _types.get(key);
+		if (latency == null) {
+			final Latency prev = _types.putIfAbsent(key, latency = new Latency());
+			if (prev != null) {
+				latency = prev;
+			}
+		}
+		latency.add(1, nanos);
+	}
+
+	@Override
+	public void failed(final BulkFailureType type) {
+		_failures.get(type).incrementAndGet();
+	}
+
+	@Override
+	public String getIndexName() {
+		return _executor == null ? null : _executor.getTaskProcessor().getIndex().getName();
+	}
+
+	@Override
+	public int getQueuedTasks() {
+		return _executor == null ? 0 : _executor.getQueueBound().getQueuedTasks();
+	}
+
+	@Override
+	public long getQueuedBytes() {
+		return _executor == null ? 0 : _executor.getQueueBound().getQueuedBytes();
+	}
+
+	@Override
+	public int getQueuedBatches() {
+		return _executor == null ? 0 : _executor.getQueuedBatches();
+	}
+
+	@Override
+	public int getActiveThreads() {
+		return _executor == null ? 0 : _executor.getActiveThreads();
+	}
+
+	@Override
+	public int getInFlightBulks() {
+		return _executor == null ? 0 : _executor.getInFlightBulks();
+	}
+
+	@Override
+	public long getSubmittedTasks() {
+		return _submitted.get();
+	}
+
+	@Override
+	public long getDeduplicatedTasks() {
+		return _deduplicated.get();
+	}
+
+	@Override
+	public double getDeduplicationRatio() {
+		final long submitted = _submitted.get();
+		return submitted == 0 ? 0 : (double) _deduplicated.get() / submitted;
+	}
+
+	@Override
+	public long getBulks() {
+		return _executor == null ? 0 : _executor.getBulks();
+	}
+
+	@Override
+	public long getBulkItems() {
+		return _executor == null ? 0 : _executor.getBulkItems();
+	}
+
+	@Override
+	public Map<String, Long> getFailures() {
+		final Map<String, Long> map = new TreeMap<>();
+		for (final Map.Entry<BulkFailureType, AtomicLong> e : _failures.entrySet()) {
+			map.put(e.getKey().name().toLowerCase(), e.getValue().get());
+		}
+		return map;
+	}
+
+	@Override
+	public long getRetriedItems() {
+		return _executor == null ? 0 : _executor.getRetriedItems();
+	}
+
+	@Override
+	public long getDeadLetters() {
+		return _executor == null ? 0 : _executor.getDeadLetters();
+	}
+
+	@Override
+	public long getPropagatedItems() {
+		return _executor == null ? 0 : _executor.getPropagatedItems();
+	}
+
+	@Override
+	public long getSkippedVersions() {
+		return _executor == null ? 0 : _executor.getSkippedVersions();
+	}
+
+	@Override
+	public long getJournalPending() {
+		final TaskJournal journal = _executor == null ? null : _executor.getJournal();
+		return journal == null ? 0 : journal.getPending();
+	}
+
+	@Override
+	public Map<String, Long> getStageCounts() {
+		final Map<String, Long> map = new TreeMap<>();
+		for (final Map.Entry<Stage, Latency> e : _stages.entrySet()) {
+			map.put(key(e.getKey()), e.getValue().getCount());
+		}
+		return map;
+	}
+
+	@Override
+	public Map<String, Long> getStageItems() {
+		final Map<String, Long> map = new TreeMap<>();
+		for (final Map.Entry<Stage, Latency> e : _stages.entrySet()) {
+			map.put(key(e.getKey()), e.getValue().getItems());
+		}
+		return map;
+	}
+
+	@Override
+	public Map<String, Double> getStageMeanMillis() {
+		final Map<String, Double> map = new TreeMap<>();
+		for (final Map.Entry<Stage, Latency> e : _stages.entrySet()) {
+			map.put(key(e.getKey()), e.getValue().getMeanMillis());
+		}
+		return map;
+	}
+
+	@Override
+	public Map<String, Integer> getStageP99Micros() {
+		final Map<String, Integer> map = new TreeMap<>();
+		for (final Map.Entry<Stage, Latency> e : _stages.entrySet()) {
+			map.put(key(e.getKey()), e.getValue().getPercentileMicros(0.99));
+		}
+		return map;
+	}
+
+	@Override
+	public Map<String, Long> getTypeCounts() {
+		final Map<String, Long> map = new TreeMap<>();
+		for (final Map.Entry<String, Latency> e : _types.entrySet()) {
+			map.put(e.getKey(), e.getValue().getCount());
+		}
+		return map;
+	}
+
+	@Override
+	public Map<String, Double> getTypeMeanMillis() {
+		final Map<String, Double> map = new TreeMap<>();
+		for (final Map.Entry<String, Latency> e : _types.entrySet()) {
+			map.put(e.getKey(), e.getValue().getMeanMillis());
+		}
+		return map;
+	}
+
+	@Override
+	public Map<String, Integer> getTypeP99Micros() {
+		final Map<String, Integer> map = new TreeMap<>();
+		for (final Map.Entry<String, Latency> e : _types.entrySet()) {
+			map.put(e.getKey(), e.getValue().getPercentileMicros(0.99));
+		}
+		return map;
+	}
+
+	@Override
+	public void reset() {
+		_submitted.set(0);
+		_deduplicated.set(0);
+		for (final AtomicLong failures : _failures.values()) {
+			failures.set(0);
+		}
+		for (final Latency latency : _stages.values()) {
+			latency.clear();
+		}
+		_types.clear();
+	}
+
+	private static String key(final Stage stage) {
+		return stage.name().toLowerCase();
+	}
+
+	/**
+	 * histogram of latencies in microseconds
+	 */
+	static final class Latency {
+
+		private static final int MAX_MICROS = 60000000;
+
+		private final PercentileCounter _micros = new PercentileCounter(10, 20, 50, 100, 200, 500, 1000, 2000, 5000,
+				10000, 20000, 50000, 100000, 200000, 500000, 1000000, 2000000, 5000000, 10000000, 30000000, MAX_MICROS);
+
+		private long _count;
+		private long _items;
+		private long _nanos;
+
+		synchronized void add(final int items, final long nanos) {
+			_count++;
+			_items += items;
+			_nanos += nanos;
+			_micros.increment((int) Math.min(MAX_MICROS, TimeUnit.NANOSECONDS.toMicros(nanos)));
+		}
+
+		synchronized long getCount() {
+			return _count;
+		}
+
+		synchronized long getItems() {
+			return _items;
+		}
+
+		synchronized double getMeanMillis() {
+			return _count == 0 ? 0 : (double) _nanos / _count / TimeUnit.MILLISECONDS.toNanos(1);
+		}
+
+		synchronized int getPercentileMicros(final double percentile) {
+			return _count == 0 ? 0 : _micros.estimatePercentile(percentile);
+		}
+
+		synchronized void clear() {
+			_count = _items = _nanos = 0;
+			_micros.clear();
+		}
+	}
+}
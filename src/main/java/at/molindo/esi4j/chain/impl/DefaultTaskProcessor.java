@@ -18,6 +18,7 @@ package at.molindo.esi4j.chain.impl;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.client.Client;
@@ -59,6 +60,16 @@ public class DefaultTaskProcessor extends AbstractTaskProcessor implements Esi4J
 						}
 					}).actionGet();
 
+			if (response.getBulkResponse().hasFailures()) {
+				// synchronous processing doesn't retry, use QueuedTaskProcessor instead
+				for (final BulkItemResponse item : response.getBulkResponse()) {
+					if (item.isFailed() && BulkFailureType.classify(item.getFailure()) != BulkFailureType.VERSION_CONFLICT) {
+						log.warn("failed to index item " + item.getType() + "#" + item.getId() + ": "
+								+ item.getFailureMessage() + ". index might be out of sync");
+					}
+				}
+			}
+
 			if (log.isDebugEnabled()) {
 				log.debug("finished bulk indexing " + response.getBulkResponse().getItems().length + " items");
 			}
@@ -15,10 +15,12 @@
  */
 package at.molindo.esi4j.chain.impl;
 
+import java.util.Set;
+
 import at.molindo.esi4j.chain.Esi4JEntityTask;
-import at.molindo.esi4j.chain.Esi4JTaskSource;
+import at.molindo.esi4j.chain.Esi4JPartialUpdateTaskSource;
 
-public class DefaultTaskSource implements Esi4JTaskSource {
+public class DefaultTaskSource implements Esi4JPartialUpdateTaskSource {
 
 	@Override
 	public Esi4JEntityTask[] getPostInsertTasks(final Object entity) {
@@ -30,6 +32,11 @@ public class DefaultTaskSource implements Esi4JTaskSource {
 		return getPostInsertTasks(entity);
 	}
 
+	@Override
+	public Esi4JEntityTask[] getPostUpdateTasks(final Object entity, final Set<String> properties) {
+		return new Esi4JEntityTask[] { new PartialUpdateEntityTask(entity, properties) };
+	}
+
 	@Override
 	public Esi4JEntityTask[] getPostDeleteTasks(final Object entity) {
 		return new Esi4JEntityTask[] { new DeleteEntityTask(entity) };
@@ -44,7 +44,7 @@ public final class DeleteEntityTask extends AbstractEntityTask {
 	@Override
 	public void replaceEntity(final Esi4JEntityResolver entityResolver) {
 		// always use ObjectKey
-		setEntity(entityResolver.toObjectKey(getEntity()));
+		setEntity(toObjectKey(entityResolver));
 	}
 
 	@Override
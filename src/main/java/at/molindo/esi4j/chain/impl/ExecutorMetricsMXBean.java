@@ -0,0 +1,99 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import java.util.Map;
+
+/**
+ * management interface of {@link DefaultExecutorMetrics}. Latencies are reported per {@link at.molindo.esi4j.chain.Esi4JExecutorMetrics.Stage}
+ * (e.g. "resolve") and per stage and type (e.g. "build:com.example.Article").
+ */
+public interface ExecutorMetricsMXBean {
+
+	String getIndexName();
+
+	int getQueuedTasks();
+
+	long getQueuedBytes();
+
+	/**
+	 * @return number of batches and barriers waiting for execution
+	 */
+	int getQueuedBatches();
+
+	int getActiveThreads();
+
+	int getInFlightBulks();
+
+	long getSubmittedTasks();
+
+	long getDeduplicatedTasks();
+
+	/**
+	 * @return fraction of submitted tasks that didn't cause a separate bulk item
+	 */
+	double getDeduplicationRatio();
+
+	long getBulks();
+
+	long getBulkItems();
+
+	/**
+	 * @return failed bulk items per {@link BulkFailureType}
+	 */
+	Map<String, Long> getFailures();
+
+	long getRetriedItems();
+
+	long getDeadLetters();
+
+	/**
+	 * @return owners submitted for reindexing because of {@link at.molindo.esi4j.mapping.TypeDependency}s
+	 */
+	long getPropagatedItems();
+
+	/**
+	 * @return tasks dropped as their entity's version was indexed already
+	 */
+	long getSkippedVersions();
+
+	/**
+	 * @return unacknowledged tasks in {@link TaskJournal}, 0 if not enabled
+	 */
+	long getJournalPending();
+
+	Map<String, Long> getStageCounts();
+
+	/**
+	 * @return number of tasks processed per stage
+	 */
+	Map<String, Long> getStageItems();
+
+	Map<String, Double> getStageMeanMillis();
+
+	Map<String, Integer> getStageP99Micros();
+
+	Map<String, Long> getTypeCounts();
+
+	Map<String, Double> getTypeMeanMillis();
+
+	Map<String, Integer> getTypeP99Micros();
+
+	/**
+	 * reset latency histograms and counters of this bean
+	 */
+	void reset();
+}
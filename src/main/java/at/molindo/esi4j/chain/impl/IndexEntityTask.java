@@ -24,6 +24,8 @@ import at.molindo.esi4j.chain.Esi4JEntityResolver;
 import at.molindo.esi4j.chain.Esi4JEntityTask;
 import at.molindo.esi4j.core.Esi4JOperation.OperationContext;
 import at.molindo.esi4j.ex.EntityNotResolveableException;
+import at.molindo.esi4j.mapping.ObjectKey;
+import at.molindo.esi4j.mapping.SourceBuffer;
 import at.molindo.esi4j.mapping.TypeMapping;
 
 public final class IndexEntityTask extends AbstractEntityTask {
@@ -45,7 +47,10 @@ public final class IndexEntityTask extends AbstractEntityTask {
 
 	@Override
 	public void replaceEntity(final Esi4JEntityResolver entityResolver) {
-		setEntity(entityResolver.replaceEntity(getEntity()));
+		// might have been replaced by event session already
+		if (!(getEntity() instanceof ObjectKey)) {
+			setEntity(entityResolver.replaceEntity(getEntity()));
+		}
 	}
 
 	@Override
@@ -55,18 +60,39 @@ public final class IndexEntityTask extends AbstractEntityTask {
 
 	@Override
 	public void addToBulk(final Client client, final BulkRequestBuilder bulk, final String indexName, final OperationContext context) {
+		addToBulk(client, bulk, indexName, context, null);
+	}
+
+	@Override
+	void addToBulk(final Client client, final BulkRequestBuilder bulk, final String indexName, final OperationContext context, final SourceBuffer buffer) {
 		final Object entity = getEntity();
 		if (entity != null) {
-			final TypeMapping mapping = context.findTypeMapping(entity);
-			final IndexRequest index = mapping.indexBuilderRequest(client, indexName, entity);
+			addToBulk(client, bulk, indexName, context.findTypeMapping(entity), entity, buffer);
+		}
+	}
+
+	/**
+	 * index entity or delete it if filtered
+	 */
+	static void addToBulk(final Client client, final BulkRequestBuilder bulk, final String indexName, final TypeMapping mapping, final Object entity) {
+		addToBulk(client, bulk, indexName, mapping, entity, null);
+	}
+
+	/**
+	 * index entity or delete it if filtered
+	 *
+	 * @param buffer
+	 *            buffer of bulk request, might be <code>null</code>
+	 */
+	static void addToBulk(final Client client, final BulkRequestBuilder bulk, final String indexName, final TypeMapping mapping, final Object entity, final SourceBuffer buffer) {
+		final IndexRequest index = mapping.indexBuilderRequest(client, indexName, entity, buffer);
 
-			if (index != null) {
-				bulk.add(index);
-			} else {
-				final DeleteRequest delete = mapping.deleteBuilderRequest(client, indexName, entity);
-				if (delete != null) {
-					bulk.add(delete);
-				}
+		if (index != null) {
+			bulk.add(index);
+		} else {
+			final DeleteRequest delete = mapping.deleteBuilderRequest(client, indexName, entity);
+			if (delete != null) {
+				bulk.add(delete);
 			}
 		}
 	}
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import java.util.Map;
+
+import org.elasticsearch.common.settings.Settings;
+
+import com.google.common.collect.Maps;
+
+import at.molindo.esi4j.mapping.ObjectKey;
+
+/**
+ * bounded in-memory index of the last version successfully indexed per {@link ObjectKey}. Only numeric ids are kept,
+ * using a direct-mapped table of primitive arrays: colliding keys replace each other, i.e. entries might get lost but
+ * are never wrong. Only versions of mappings using external versioning should be recorded.
+ */
+final class IndexedVersions {
+
+	/**
+	 * number of slots, disabled if 0 (default). Rounded up to the next power of 2.
+	 */
+	public static final String SETTING_CAPACITY = "esi4j.index.executor.versions.capacity";
+
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	private final Map<Class<?>, Integer> _typeNumbers = Maps.newHashMap();
+
+	/**
+	 * type number per slot, 0 for empty slots
+	 */
+	private final int[] _types;
+	private final long[] _ids;
+	private final long[] _versions;
+	private final int _mask;
+
+	/**
+	 * @return versions for this index or <code>null</code> if not enabled
+	 */
+	static IndexedVersions open(final Settings settings) {
+		final int capacity = settings.getAsInt(SETTING_CAPACITY, 0);
+		if (capacity < 0) {
+			throw new IllegalArgumentException(SETTING_CAPACITY + " must be >= 0, was " + capacity);
+		}
+		return capacity == 0 ? null : new IndexedVersions(capacity);
+	}
+
+	IndexedVersions(final int capacity) {
+		if (capacity <= 0 || capacity > MAX_CAPACITY) {
+			throw new IllegalArgumentException("capacity must be > 0 and <= " + MAX_CAPACITY + ", was " + capacity);
+		}
+		final int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+		_types = new int[size];
+		_ids = new long[size];
+		_versions = new long[size];
+		_mask = size - 1;
+	}
+
+	/**
+	 * @return true if a version of key's entity that is at least as new as key's version was indexed already
+	 */
+	synchronized boolean isIndexed(final ObjectKey key) {
+		final Long version = key.getVersion();
+		if (version == null || !(key.getId() instanceof Number)) {
+			return false;
+		}
+		final Integer type = _typeNumbers.get(key.getType());
+		if (type == null) {
+			return false;
+		}
+		final long id = ((Number) key.getId()).longValue();
+		final int slot = slot(type, id);
+		return _types[slot] == type && _ids[slot] == id && _versions[slot] >= version;
+	}
+
+	/**
+	 * record successfully indexed version of key's entity, older versions are ignored
+	 */
+	synchronized void indexed(final ObjectKey key, final long version) {
+		if (!(key.getId() instanceof Number)) {
+			return;
+		}
+		final int type = typeNumber(key.getType());
+		final long id = ((Number) key.getId()).longValue();
+		final int slot = slot(type, id);
+		if (_types[slot] == type && _ids[slot] == id && _versions[slot] >= version) {
+			return;
+		}
+		_types[slot] = type;
+		_ids[slot] = id;
+		_versions[slot] = version;
+	}
+
+	/**
+	 * forget version of key's entity, e.g. after it was deleted from the index
+	 */
+	synchronized void removed(final ObjectKey key) {
+		if (!(key.getId() instanceof Number)) {
+			return;
+		}
+		final Integer type = _typeNumbers.get(key.getType());
+		if (type == null) {
+			return;
+		}
+		final long id = ((Number) key.getId()).longValue();
+		final int slot = slot(type, id);
+		if (_types[slot] == type && _ids[slot] == id) {
+			_types[slot] = 0;
+		}
+	}
+
+	int getCapacity() {
+		return _types.length;
+	}
+
+	private int typeNumber(final Class<?> type) {
+		Integer number = _typeNumbers.get(type);
+		if (number == null) {
+			number = _typeNumbers.size() + 1;
+			_typeNumbers.put(type, number);
+		}
+		return number;
+	}
+
+	private int slot(final int type, final long id) {
+		// murmur3 finalizer
+		long h = id * 31 + type;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (int) h & _mask;
+	}
+}
@@ -0,0 +1,259 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import java.util.List;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+
+import at.molindo.esi4j.chain.Esi4JTaskPriority;
+import at.molindo.esi4j.chain.impl.TaskQueueBound.OverflowPolicy;
+
+/**
+ * a single-threaded executor of a {@link QueuedTaskExecutor}. All tasks of an entity are executed by the same lane
+ */
+final class Lane {
+
+	private final QueuedTaskExecutor _owner;
+
+	private final LaneQueue _queue;
+	private final ThreadPoolExecutor _executor;
+
+	/**
+	 * permit for this lane's single in-flight bulk request
+	 */
+	private final Semaphore _dispatch = new Semaphore(1);
+
+	/**
+	 * permits for in-flight bulk requests shared by all lanes
+	 */
+	private final Semaphore _inFlight;
+	private final Semaphore _backfillInFlight;
+
+	private final int _bulkMaxItems;
+	private final long _bulkMaxBytes;
+	private final long _bulkLingerNanos;
+
+	/**
+	 * last submitted {@link BulkIndexRunnable}, used for {@link OverflowPolicy#COALESCE}
+	 */
+	private volatile BulkIndexRunnable _tail;
+
+	/**
+	 * @param name
+	 *            name of lane's thread
+	 * @param queue
+	 *            queue of this lane
+	 * @param inFlight
+	 *            permits for in-flight bulk requests shared by all lanes
+	 * @param backfillInFlight
+	 *            permits for in-flight bulk requests of {@link Esi4JTaskPriority#BACKFILL} tasks shared by all lanes
+	 */
+	Lane(final QueuedTaskExecutor owner, final String name, final LaneQueue queue, final RejectedExecutionHandler handler, final Semaphore inFlight, final Semaphore backfillInFlight, final int bulkMaxItems, final long bulkMaxBytes, final long bulkLingerNanos) {
+		_owner = owner;
+		_queue = queue;
+		_inFlight = inFlight;
+		_backfillInFlight = backfillInFlight;
+		_bulkMaxItems = bulkMaxItems;
+		_bulkMaxBytes = bulkMaxBytes;
+		_bulkLingerNanos = bulkLingerNanos;
+
+		_executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, _queue, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(final Runnable r) {
+				return new LaneThread(r, name, Lane.this);
+			}
+		}, handler);
+		// otherwise the first runnable is passed to the thread directly instead of taking it from the queue
+		_executor.prestartCoreThread();
+	}
+
+	/**
+	 * @return lane of the current thread
+	 * @throws IllegalStateException
+	 *             if not called by a lane's thread
+	 */
+	static Lane current() {
+		final Thread thread = Thread.currentThread();
+		if (!(thread instanceof LaneThread)) {
+			throw new IllegalStateException("not a lane thread: " + thread.getName());
+		}
+		return ((LaneThread) thread)._lane;
+	}
+
+	QueuedTaskExecutor getOwner() {
+		return _owner;
+	}
+
+	void execute(final Runnable runnable) {
+		_executor.execute(runnable);
+	}
+
+	/**
+	 * submit runnable and remember it for {@link OverflowPolicy#COALESCE}
+	 */
+	void executeTail(final BulkIndexRunnable runnable) {
+		_tail = runnable;
+		_executor.execute(runnable);
+	}
+
+	/**
+	 * @return last submitted {@link BulkIndexRunnable}, might be <code>null</code>
+	 */
+	BulkIndexRunnable getTail() {
+		return _tail;
+	}
+
+	/**
+	 * @return number of batches and barriers waiting in this lane
+	 */
+	int getQueued() {
+		return _queue.size();
+	}
+
+	/**
+	 * @return 1 if this lane is currently executing a batch or barrier, 0 otherwise
+	 */
+	int getActiveCount() {
+		return _executor.getActiveCount();
+	}
+
+	void shutdown() {
+		_executor.shutdown();
+	}
+
+	boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+		return _executor.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * take queued {@link BulkIndexRunnable}s following first from the queue to execute them as a single bulk request,
+	 * waiting up to {@link QueuedTaskExecutor#SETTING_BULK_LINGER} for more. Stops at anything else (i.e. a
+	 * {@link LaneBarrier}) to keep order.
+	 *
+	 * @param backfill
+	 *            true if first was taken as {@link Esi4JTaskPriority#BACKFILL}
+	 * @return runnables to execute, starting with first
+	 */
+	List<BulkIndexRunnable> collect(final BulkIndexRunnable first, final boolean backfill) {
+		final Esi4JTaskPriority priority = backfill ? Esi4JTaskPriority.BACKFILL : Esi4JTaskPriority.REALTIME;
+		final List<BulkIndexRunnable> runnables = Lists.newArrayList(first);
+
+		int items = first.size();
+		long bytes = first.bytes();
+		final long deadline = System.nanoTime() + _bulkLingerNanos;
+
+		while (items < _bulkMaxItems && bytes < _bulkMaxBytes) {
+			BulkIndexRunnable next = _queue.pollFirst(priority);
+			if (next == null) {
+				final long wait = deadline - System.nanoTime();
+				if (wait <= 0) {
+					break;
+				}
+				try {
+					next = _queue.pollFirst(priority, wait);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+				if (next == null) {
+					break;
+				}
+			}
+
+			final int nextItems = items + next.size();
+			final long nextBytes = bytes + next.bytes();
+			if (nextItems <= _bulkMaxItems && nextBytes <= _bulkMaxBytes) {
+				runnables.add(next);
+				items = nextItems;
+				bytes = nextBytes;
+			} else {
+				// keep for next execution
+				_queue.offerFirst(priority, next);
+				break;
+			}
+		}
+		return runnables;
+	}
+
+	/**
+	 * @return true if the current runnable holds a backfill lane permit that must be released
+	 * @see LaneQueue#takeBackfill()
+	 */
+	boolean takeBackfill() {
+		return _queue.takeBackfill();
+	}
+
+	void releaseBackfill() {
+		_queue.releaseBackfill();
+	}
+
+	/**
+	 * wait for this lane's and a global in-flight permit
+	 *
+	 * @param backfill
+	 *            true to wait for a backfill in-flight permit too
+	 */
+	void acquireInFlight(final boolean backfill) {
+		_dispatch.acquireUninterruptibly();
+		if (backfill) {
+			_backfillInFlight.acquireUninterruptibly();
+		}
+		_inFlight.acquireUninterruptibly();
+	}
+
+	void releaseInFlight(final boolean backfill) {
+		_inFlight.release();
+		if (backfill) {
+			_backfillInFlight.release();
+		}
+		_dispatch.release();
+	}
+
+	void awaitInFlight() {
+		_dispatch.acquireUninterruptibly();
+		_dispatch.release();
+	}
+
+	boolean awaitInFlight(final long timeout, final TimeUnit unit) throws InterruptedException {
+		if (_dispatch.tryAcquire(timeout, unit)) {
+			_dispatch.release();
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * thread that references its {@link Lane}
+	 */
+	private static final class LaneThread extends Thread {
+
+		private final Lane _lane;
+
+		private LaneThread(final Runnable r, final String name, final Lane lane) {
+			super(r, name);
+			_lane = lane;
+			setDaemon(true);
+		}
+	}
+}
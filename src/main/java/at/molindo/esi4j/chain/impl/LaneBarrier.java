@@ -0,0 +1,56 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * blocks its lanes until the submitting thread executed its operation
+ */
+final class LaneBarrier implements Runnable {
+
+	private final CountDownLatch _arrived;
+	private final CountDownLatch _released = new CountDownLatch(1);
+
+	LaneBarrier(final int lanes) {
+		_arrived = new CountDownLatch(lanes);
+	}
+
+	@Override
+	public void run() {
+		// wait for completion of previous bulk request
+		Lane.current().awaitInFlight();
+
+		arrive();
+		try {
+			_released.await();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	void arrive() {
+		_arrived.countDown();
+	}
+
+	void awaitArrival() throws InterruptedException {
+		_arrived.await();
+	}
+
+	void release() {
+		_released.countDown();
+	}
+}
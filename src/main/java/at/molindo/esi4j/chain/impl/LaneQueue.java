@@ -0,0 +1,395 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.collect.Lists;
+
+import at.molindo.esi4j.chain.Esi4JTaskPriority;
+
+/**
+ * queue of a {@link Lane} with a deque per {@link Esi4JTaskPriority}. Backfill runnables are taken if there are no
+ * others or if they didn't get their {@link QueuedTaskExecutor#SETTING_BACKFILL_SHARE} yet, but never by more than
+ * that share of lanes at once. A {@link LaneBarrier} moves queued backfill runnables ahead of itself and keeps
+ * backfill runnables offered afterwards behind itself to keep its order. Runnables moved ahead are taken like any
+ * other runnable, i.e. without a backfill lane permit. Runnables kept behind are queued as backfill runnables again
+ * once the last barrier was taken.
+ */
+final class LaneQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+	/**
+	 * wait time of idle lanes before checking for available backfill permits again
+	 */
+	private static final long BACKFILL_RECHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	/**
+	 * permits for lanes executing {@link Esi4JTaskPriority#BACKFILL} runnables, shared by all lanes
+	 */
+	private final Semaphore _backfillLanes;
+	private final float _backfillShare;
+
+	private final ReentrantLock _lock = new ReentrantLock();
+	private final Condition _notEmpty = _lock.newCondition();
+
+	private final ArrayDeque<Runnable> _realtime = new ArrayDeque<>();
+	private final ArrayDeque<Runnable> _backfill = new ArrayDeque<>();
+
+	/**
+	 * backfill runnables due, grows with every realtime runnable taken while backfill runnables are waiting
+	 */
+	private float _credit;
+
+	/**
+	 * number of {@link LaneBarrier}s in {@link #_realtime}
+	 */
+	private int _barriers;
+
+	/**
+	 * true if the runnable taken by this lane's thread holds a backfill lane permit
+	 */
+	private boolean _takenBackfill;
+
+	/**
+	 * @param backfillLanes
+	 *            permits for lanes executing {@link Esi4JTaskPriority#BACKFILL} runnables, shared by all lanes
+	 * @param backfillShare
+	 *            share of taken runnables due for {@link Esi4JTaskPriority#BACKFILL} if others are waiting
+	 */
+	LaneQueue(final Semaphore backfillLanes, final float backfillShare) {
+		_backfillLanes = backfillLanes;
+		_backfillShare = backfillShare;
+	}
+
+	private boolean isBackfill(final Runnable r) {
+		return r instanceof BulkIndexRunnable && ((BulkIndexRunnable) r).getPriority() == Esi4JTaskPriority.BACKFILL;
+	}
+
+	private ArrayDeque<Runnable> deque(final Esi4JTaskPriority priority) {
+		return priority == Esi4JTaskPriority.BACKFILL ? _backfill : _realtime;
+	}
+
+	@Override
+	public boolean offer(final Runnable r) {
+		if (r == null) {
+			throw new NullPointerException("r");
+		}
+		_lock.lock();
+		try {
+			if (r instanceof LaneBarrier) {
+				_realtime.addAll(_backfill);
+				_backfill.clear();
+				_barriers++;
+				_realtime.add(r);
+			} else if (isBackfill(r) && _barriers == 0) {
+				_backfill.add(r);
+			} else {
+				// keep backfill runnables behind queued barriers
+				_realtime.add(r);
+			}
+			_notEmpty.signal();
+			return true;
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * must hold lock
+	 *
+	 * @return next runnable or <code>null</code>
+	 */
+	private Runnable next() {
+		if (!_backfill.isEmpty()) {
+			final boolean due = _realtime.isEmpty() || _credit >= 1;
+			if (due && _backfillLanes.tryAcquire()) {
+				if (!_realtime.isEmpty()) {
+					_credit -= 1;
+				}
+				_takenBackfill = true;
+				return _backfill.poll();
+			}
+			if (!_realtime.isEmpty()) {
+				_credit = Math.min(1, _credit + _backfillShare / (1 - _backfillShare));
+			}
+		}
+		return removed(_realtime.poll());
+	}
+
+	/**
+	 * must hold lock
+	 *
+	 * @return r
+	 */
+	private Runnable removed(final Runnable r) {
+		if (r instanceof LaneBarrier && --_barriers == 0) {
+			// all remaining backfill runnables were kept behind barriers, backfill deque is empty
+			final Iterator<Runnable> iter = _realtime.iterator();
+			while (iter.hasNext()) {
+				final Runnable next = iter.next();
+				if (isBackfill(next)) {
+					iter.remove();
+					_backfill.add(next);
+				}
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * must hold lock
+	 */
+	private long await(final long nanos) throws InterruptedException {
+		// backfill permits are released by other lanes without signal
+		return _notEmpty.awaitNanos(_backfill.isEmpty() ? nanos : Math.min(nanos, BACKFILL_RECHECK_NANOS));
+	}
+
+	@Override
+	public Runnable poll() {
+		_lock.lock();
+		try {
+			return next();
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	@Override
+	public Runnable take() throws InterruptedException {
+		_lock.lockInterruptibly();
+		try {
+			Runnable r;
+			while ((r = next()) == null) {
+				await(Long.MAX_VALUE);
+			}
+			return r;
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	@Override
+	public Runnable poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		_lock.lockInterruptibly();
+		try {
+			Runnable r;
+			while ((r = next()) == null) {
+				final long nanos = deadline - System.nanoTime();
+				if (nanos <= 0) {
+					return null;
+				}
+				await(nanos);
+			}
+			return r;
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * must hold lock
+	 *
+	 * @return next batch of given priority or <code>null</code> if there is none or anything else (i.e. a
+	 *         {@link LaneBarrier}) comes first
+	 */
+	private BulkIndexRunnable pollBatch(final Esi4JTaskPriority priority) {
+		final ArrayDeque<Runnable> deque = deque(priority);
+		return deque.peek() instanceof BulkIndexRunnable ? (BulkIndexRunnable) deque.poll() : null;
+	}
+
+	/**
+	 * @return next batch of given priority without waiting, used by lane's thread while collecting
+	 * @see #pollBatch(Esi4JTaskPriority)
+	 */
+	BulkIndexRunnable pollFirst(final Esi4JTaskPriority priority) {
+		_lock.lock();
+		try {
+			return pollBatch(priority);
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * @return next batch of given priority, waiting up to nanos for any runnable
+	 * @see #pollBatch(Esi4JTaskPriority)
+	 */
+	BulkIndexRunnable pollFirst(final Esi4JTaskPriority priority, final long nanos) throws InterruptedException {
+		final long deadline = System.nanoTime() + nanos;
+		_lock.lockInterruptibly();
+		try {
+			while (deque(priority).isEmpty()) {
+				final long wait = deadline - System.nanoTime();
+				if (wait <= 0) {
+					return null;
+				}
+				_notEmpty.awaitNanos(wait);
+			}
+			return pollBatch(priority);
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * return a batch taken by {@link #pollFirst(Esi4JTaskPriority)}
+	 */
+	void offerFirst(final Esi4JTaskPriority priority, final BulkIndexRunnable r) {
+		_lock.lock();
+		try {
+			deque(priority).addFirst(r);
+			_notEmpty.signal();
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * only called by this lane's thread after taking a runnable
+	 *
+	 * @return true if the taken runnable holds a backfill lane permit that must be released using
+	 *         {@link #releaseBackfill()}
+	 */
+	boolean takeBackfill() {
+		final boolean backfill = _takenBackfill;
+		_takenBackfill = false;
+		return backfill;
+	}
+
+	void releaseBackfill() {
+		_backfillLanes.release();
+	}
+
+	@Override
+	public Runnable peek() {
+		_lock.lock();
+		try {
+			return _realtime.isEmpty() ? _backfill.peek() : _realtime.peek();
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	@Override
+	public void put(final Runnable r) {
+		offer(r);
+	}
+
+	@Override
+	public boolean offer(final Runnable r, final long timeout, final TimeUnit unit) {
+		return offer(r);
+	}
+
+	@Override
+	public int remainingCapacity() {
+		return Integer.MAX_VALUE;
+	}
+
+	@Override
+	public boolean remove(final Object o) {
+		_lock.lock();
+		try {
+			if (_realtime.remove(o)) {
+				removed((Runnable) o);
+				return true;
+			}
+			return _backfill.remove(o);
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	@Override
+	public int drainTo(final Collection<? super Runnable> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int drainTo(final Collection<? super Runnable> c, final int maxElements) {
+		_lock.lock();
+		try {
+			int n = 0;
+			Runnable r;
+			while (n < maxElements && ((r = removed(_realtime.poll())) != null || (r = _backfill.poll()) != null)) {
+				c.add(r);
+				n++;
+			}
+			return n;
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		_lock.lock();
+		try {
+			return _realtime.size() + _backfill.size();
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * iterates over a snapshot of queued runnables
+	 */
+	@Override
+	public Iterator<Runnable> iterator() {
+		final List<Runnable> snapshot;
+		_lock.lock();
+		try {
+			snapshot = Lists.newArrayList(_realtime);
+			snapshot.addAll(_backfill);
+		} finally {
+			_lock.unlock();
+		}
+
+		final Iterator<Runnable> iter = snapshot.iterator();
+		return new Iterator<Runnable>() {
+
+			private Runnable _last;
+
+			@Override
+			public boolean hasNext() {
+				return iter.hasNext();
+			}
+
+			@Override
+			public Runnable next() {
+				return _last = iter.next();
+			}
+
+			@Override
+			public void remove() {
+				if (_last == null) {
+					throw new IllegalStateException();
+				}
+				LaneQueue.this.remove(_last);
+				_last = null;
+			}
+		};
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import at.molindo.esi4j.mapping.ObjectKey;
+
+/**
+ * compact binary encoding of an {@link ObjectKey}'s type and id. Versions are not encoded.
+ */
+final class ObjectKeyCodec {
+
+	private static final byte ID_LONG = 0;
+	private static final byte ID_INTEGER = 1;
+	private static final byte ID_STRING = 2;
+	private static final byte ID_SERIALIZED = 3;
+
+	private ObjectKeyCodec() {
+	}
+
+	static void write(final DataOutput out, final ObjectKey key) throws IOException {
+		out.writeUTF(key.getType().getName());
+		writeId(out, key.getId());
+	}
+
+	static void writeId(final DataOutput out, final Serializable id) throws IOException {
+		if (id instanceof Long) {
+			out.writeByte(ID_LONG);
+			out.writeLong((Long) id);
+		} else if (id instanceof Integer) {
+			out.writeByte(ID_INTEGER);
+			out.writeInt((Integer) id);
+		} else if (id instanceof String) {
+			out.writeByte(ID_STRING);
+			out.writeUTF((String) id);
+		} else {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (ObjectOutputStream oout = new ObjectOutputStream(bytes)) {
+				oout.writeObject(id);
+			}
+			out.writeByte(ID_SERIALIZED);
+			out.writeInt(bytes.size());
+			out.write(bytes.toByteArray());
+		}
+	}
+
+	/**
+	 * @throws ClassNotFoundException
+	 *             if type or id class isn't available anymore
+	 */
+	static ObjectKey read(final DataInput in) throws IOException, ClassNotFoundException {
+		final String typeName = in.readUTF();
+		final Serializable id = readId(in);
+		return new ObjectKey(Class.forName(typeName, false, classLoader()), id);
+	}
+
+	static Serializable readId(final DataInput in) throws IOException, ClassNotFoundException {
+		final Serializable id;
+		final byte tag = in.readByte();
+		switch (tag) {
+		case ID_LONG:
+			id = in.readLong();
+			break;
+		case ID_INTEGER:
+			id = in.readInt();
+			break;
+		case ID_STRING:
+			id = in.readUTF();
+			break;
+		case ID_SERIALIZED:
+			final byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			try (ObjectInputStream oin = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+				id = (Serializable) oin.readObject();
+			}
+			break;
+		default:
+			throw new IOException("unexpected id tag " + tag);
+		}
+		return id;
+	}
+
+	private static ClassLoader classLoader() {
+		final ClassLoader cl = Thread.currentThread().getContextClassLoader();
+		return cl == null ? ObjectKeyCodec.class.getClassLoader() : cl;
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import java.util.Set;
+
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.Client;
+
+import com.google.common.collect.ImmutableSet;
+
+import at.molindo.esi4j.chain.Esi4JEntityResolver;
+import at.molindo.esi4j.chain.Esi4JEntityTask;
+import at.molindo.esi4j.core.Esi4JOperation.OperationContext;
+import at.molindo.esi4j.ex.EntityNotResolveableException;
+import at.molindo.esi4j.mapping.ObjectKey;
+import at.molindo.esi4j.mapping.SourceBuffer;
+import at.molindo.esi4j.mapping.TypeMapping;
+
+/**
+ * updates fields depending on changed properties using
+ * {@link TypeMapping#updateBuilderRequest(Client, String, Object, Set)}. Reindexes the whole entity if the mapping
+ * doesn't support a partial update. {@link QueuedTaskExecutor} retries failed updates, e.g. of missing documents, by
+ * reindexing the whole entity.
+ */
+public final class PartialUpdateEntityTask extends AbstractEntityTask {
+
+	private static final long serialVersionUID = 1L;
+
+	private final ImmutableSet<String> _properties;
+
+	public PartialUpdateEntityTask(final Object entity, final Set<String> properties) {
+		super(entity);
+		if (properties == null) {
+			throw new NullPointerException("properties");
+		}
+		_properties = ImmutableSet.copyOf(properties);
+	}
+
+	@Override
+	public boolean isUpdate() {
+		return true;
+	}
+
+	@Override
+	protected void initClone(final Esi4JEntityTask clone) {
+	}
+
+	@Override
+	public void replaceEntity(final Esi4JEntityResolver entityResolver) {
+		// might have been replaced by event session already
+		if (!(getEntity() instanceof ObjectKey)) {
+			setEntity(entityResolver.replaceEntity(getEntity()));
+		}
+	}
+
+	@Override
+	public void resolveEntity(final Esi4JEntityResolver entityResolver) throws EntityNotResolveableException {
+		setEntity(entityResolver.resolveEntity(getEntity()));
+	}
+
+	@Override
+	public void addToBulk(final Client client, final BulkRequestBuilder bulk, final String indexName, final OperationContext context) {
+		addToBulk(client, bulk, indexName, context, null);
+	}
+
+	@Override
+	void addToBulk(final Client client, final BulkRequestBuilder bulk, final String indexName, final OperationContext context, final SourceBuffer buffer) {
+		final Object entity = getEntity();
+		if (entity != null) {
+			final TypeMapping mapping = context.findTypeMapping(entity);
+			final UpdateRequest update = mapping.updateBuilderRequest(client, indexName, entity, _properties);
+
+			if (update != null) {
+				bulk.add(update);
+			} else {
+				IndexEntityTask.addToBulk(client, bulk, indexName, mapping, entity, buffer);
+			}
+		}
+	}
+
+	/**
+	 * @return changed properties
+	 */
+	public Set<String> getProperties() {
+		return _properties;
+	}
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.client.Client;
+
+import at.molindo.esi4j.chain.Esi4JEntityResolver;
+import at.molindo.esi4j.chain.Esi4JEntityTask;
+import at.molindo.esi4j.core.Esi4JOperation.OperationContext;
+import at.molindo.esi4j.mapping.TypeMapping;
+
+/**
+ * change of an entity that isn't indexed itself but embedded into documents of other types. Only triggers reindexing
+ * of its owners, see {@link TypeMapping#getDependencies()}
+ */
+public final class PropagateEntityTask extends AbstractEntityTask {
+
+	private static final long serialVersionUID = 1L;
+
+	public PropagateEntityTask(final Object entity) {
+		super(entity);
+	}
+
+	@Override
+	public boolean isUpdate() {
+		return false;
+	}
+
+	@Override
+	protected void initClone(final Esi4JEntityTask clone) {
+	}
+
+	@Override
+	public void replaceEntity(final Esi4JEntityResolver entityResolver) {
+		// always use ObjectKey
+		setEntity(toObjectKey(entityResolver));
+	}
+
+	@Override
+	public void resolveEntity(final Esi4JEntityResolver entityResolver) {
+		// noop - owners are found by key
+	}
+
+	@Override
+	public void addToBulk(final Client client, final BulkRequestBuilder bulk, final String indexName, final OperationContext context) {
+		// noop - not indexed
+	}
+
+}
@@ -15,103 +15,926 @@
  */
 package at.molindo.esi4j.chain.impl;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.elasticsearch.action.ListenableActionFuture;
-import org.elasticsearch.action.bulk.BulkItemResponse;
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
-import org.elasticsearch.action.bulk.BulkResponse;
-import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
-import at.molindo.esi4j.action.BulkResponseWrapper;
 import at.molindo.esi4j.chain.Esi4JBatchedEntityResolver;
+import at.molindo.esi4j.chain.Esi4JDependencyResolver;
 import at.molindo.esi4j.chain.Esi4JEntityResolver;
 import at.molindo.esi4j.chain.Esi4JEntityTask;
-import at.molindo.esi4j.core.Esi4JOperation;
+import at.molindo.esi4j.chain.Esi4JExecutorMetrics;
+import at.molindo.esi4j.chain.Esi4JExecutorMetrics.Stage;
+import at.molindo.esi4j.chain.Esi4JOverflowSink;
+import at.molindo.esi4j.chain.Esi4JTaskPriority;
+import at.molindo.esi4j.chain.impl.TaskQueueBound.OverflowPolicy;
+import at.molindo.esi4j.core.Esi4JIndex;
+import at.molindo.esi4j.core.Esi4JOperation.OperationContext;
 import at.molindo.esi4j.mapping.ObjectKey;
+import at.molindo.esi4j.mapping.SourceBuffer;
+import at.molindo.esi4j.mapping.TypeDependency;
+import at.molindo.esi4j.mapping.TypeMapping;
+import at.molindo.esi4j.util.Esi4JUtils;
 import at.molindo.utils.collections.ArrayUtils;
 import at.molindo.utils.collections.ListMap;
+import at.molindo.utils.metric.percentile.Percentile;
+import at.molindo.utils.metric.percentile.PercentileCounter;
 
 /**
- * wrapping a {@link ThreadPoolExecutor} to execute {@link Esi4JEntityTask}s asynchronously. This implementations
- * provides a best-effort ordering of executed tasks
+ * executes {@link Esi4JEntityTask}s asynchronously using a fixed number of single-threaded lanes. Tasks are partitioned
+ * across lanes by {@link ObjectKey}, hence all tasks of an entity are executed in order while unrelated entities are
+ * indexed in parallel (without {@link Esi4JBatchedEntityResolver}, batches are distributed round-robin and there is no
+ * ordering guarantee). {@link SerializableEsi4JOperation}s only wait for the lanes they depend on. Queued tasks might
+ * be journaled using a {@link TaskJournal} to survive restarts. The queue might be bounded using a
+ * {@link TaskQueueBound}. Queued tasks are superseded by later tasks for the same entity using a {@link TaskCoalescer}.
  */
 public class QueuedTaskExecutor {
 
+	/**
+	 * number of lanes, each using its own thread
+	 */
+	public static final String SETTING_THREADS = "esi4j.index.executor.threads";
+	public static final String SETTING_OVERFLOW_SINK = "esi4j.index.executor.queue.sink.type";
+
+	/**
+	 * {@link Esi4JExecutorMetrics} implementation, defaults to {@link DefaultExecutorMetrics}
+	 */
+	public static final String SETTING_METRICS = "esi4j.index.executor.metrics.type";
+
+	/**
+	 * maximum number of items of a bulk request combined from queued batches
+	 */
+	public static final String SETTING_BULK_MAX_ITEMS = "esi4j.index.executor.bulk.max_items";
+	/**
+	 * maximum estimated size of a bulk request combined from queued batches
+	 */
+	public static final String SETTING_BULK_MAX_BYTES = "esi4j.index.executor.bulk.max_bytes";
+	/**
+	 * maximum time a lane waits for more batches if a bulk request isn't full yet, defaults to 0
+	 */
+	public static final String SETTING_BULK_LINGER = "esi4j.index.executor.bulk.linger";
+	/**
+	 * maximum number of concurrently executed bulk requests, defaults to the number of lanes. Each lane has at most one
+	 * bulk request in flight
+	 */
+	public static final String SETTING_BULK_IN_FLIGHT = "esi4j.index.executor.bulk.in_flight";
+
+	/**
+	 * write sources of bulk requests to pooled {@link SourceBuffer}s, defaults to false
+	 */
+	public static final String SETTING_BULK_POOLED_BUFFERS = "esi4j.index.executor.bulk.pooled_buffers";
+
+	/**
+	 * maximum number of attempts to index a task if bulk items fail temporarily, defaults to 5
+	 */
+	public static final String SETTING_RETRY_MAX_ATTEMPTS = "esi4j.index.executor.retry.max_attempts";
+	/**
+	 * initial backoff for retries, doubled for every attempt and jittered
+	 */
+	public static final String SETTING_RETRY_BACKOFF = "esi4j.index.executor.retry.backoff";
+	public static final String SETTING_RETRY_MAX_BACKOFF = "esi4j.index.executor.retry.max_backoff";
+
+	/**
+	 * maximum share of lanes and in-flight bulk requests used by {@link Esi4JTaskPriority#BACKFILL} tasks at once,
+	 * defaults to 0.25. Backfill tasks get this share of dispatched batches if there are other tasks waiting.
+	 */
+	public static final String SETTING_BACKFILL_SHARE = "esi4j.index.executor.backfill.share";
+
+	private static final float DEFAULT_BACKFILL_SHARE = 0.25f;
+
+	/**
+	 * minimum interval between refreshes triggered by {@link #refresh()}, defaults to 0
+	 */
+	public static final String SETTING_REFRESH_INTERVAL = "esi4j.index.executor.refresh.interval";
+
+	/**
+	 * maximum number of changed entities per query for owners of {@link TypeDependency}s, defaults to 500
+	 */
+	public static final String SETTING_DEPENDENCY_BATCH_SIZE = "esi4j.index.executor.dependency.batch_size";
+
+	private static final int DEFAULT_DEPENDENCY_BATCH_SIZE = 500;
+
+	private static final int DEFAULT_RETRY_MAX_ATTEMPTS = 5;
+	private static final TimeValue DEFAULT_RETRY_BACKOFF = TimeValue.timeValueMillis(100);
+	private static final TimeValue DEFAULT_RETRY_MAX_BACKOFF = TimeValue.timeValueSeconds(30);
+
+	private static final int DEFAULT_BULK_MAX_ITEMS = 1000;
+	private static final ByteSizeValue DEFAULT_BULK_MAX_BYTES = new ByteSizeValue(5, ByteSizeUnit.MB);
+
 	private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(QueuedTaskExecutor.class);
 
 	private static final AtomicInteger EXECUTOR_NUMBER = new AtomicInteger(1);
 
 	private final int _executorNumber = EXECUTOR_NUMBER.getAndIncrement();
-	private final AtomicInteger _threadNumber = new AtomicInteger(1);
 
 	private final QueuedTaskProcessor _queuedTaskProcessor;
 	private final Esi4JBatchedEntityResolver _entityResolver;
-	private final ThreadPoolExecutor _executorService;
+	private final Lane[] _lanes;
+	private final AtomicInteger _nextLane = new AtomicInteger();
+	private final TaskQueueBound _queueBound;
+	private volatile Esi4JOverflowSink _overflowSink;
+
+	/**
+	 * <code>null</code> without entity resolver
+	 */
+	private final TaskCoalescer _coalescer;
+
+	/**
+	 * <code>null</code> without entity resolver or if not enabled
+	 */
+	private final TaskJournal _journal;
+
+	/**
+	 * <code>null</code> without entity resolver or if not enabled
+	 */
+	private final DeadLetterLog _deadLetterLog;
+
+	/**
+	 * true once unacknowledged tasks of {@link #_journal} were submitted again, see {@link #recover()}
+	 */
+	private volatile boolean _recovered;
+	private final Object _recoveryLock = new Object();
+
+	/**
+	 * last indexed versions, <code>null</code> if not enabled or if there is no {@link Esi4JBatchedEntityResolver}
+	 */
+	private final IndexedVersions _indexedVersions;
+	private final ScheduledThreadPoolExecutor _scheduler;
 
-	/*
-	 * TODO used to block execution of Esi4JEntityTasks if a SerializableEsi4JOperation is submitted. However, it's not
-	 * the time of submission but the start of execution that determines order
+	/**
+	 * barriers must be added to all of their lanes atomically to avoid deadlocks between concurrent barriers
 	 */
-	private final ReentrantReadWriteLock _executionOrderLock = new ReentrantReadWriteLock(true);
+	private final Object _barrierLock = new Object();
 
 	private final int _poolSize;
 
-	public QueuedTaskExecutor(final QueuedTaskProcessor queuedTaskProcessor, final Esi4JBatchedEntityResolver entityResolver) {
+	private final int _bulkMaxItems;
+	private final long _bulkMaxBytes;
+	private final long _bulkLingerNanos;
+	private final Semaphore _inFlight;
+	private final int _inFlightMax;
+	private final boolean _pooledBuffers;
+
+	private final Esi4JExecutorMetrics _metrics;
+
+	private final float _backfillShare;
+	private final Semaphore _backfillLanes;
+	private final Semaphore _backfillInFlight;
+
+	private final CoalescedRefresh _refresh;
+
+	/**
+	 * runnables containing tasks submitted by the current thread that weren't indexed yet
+	 */
+	private final ThreadLocal<List<BulkIndexRunnable>> _submitted = new ThreadLocal<>();
+
+	private final int _retryMaxAttempts;
+	private final long _retryBackoffMillis;
+	private final long _retryMaxBackoffMillis;
+
+	private final AtomicLong _failedItems = new AtomicLong();
+	private final AtomicLong _retriedItems = new AtomicLong();
+	private final AtomicLong _versionConflicts = new AtomicLong();
+	private final AtomicLong _deadLetters = new AtomicLong();
+
+	private final int _dependencyBatchSize;
+	private volatile TypeDependencies _dependencies = TypeDependencies.EMPTY;
+	private final AtomicLong _propagatedItems = new AtomicLong();
+	private final AtomicLong _skippedVersions = new AtomicLong();
+
+	/**
+	 * distribution of items per bulk request, guarded by itself
+	 */
+	private final PercentileCounter _bulkSizes = new PercentileCounter(1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000,
+			5000, 10000);
+	private final AtomicLong _bulks = new AtomicLong();
+	private final AtomicLong _bulkItems = new AtomicLong();
+
+	public QueuedTaskExecutor(final QueuedTaskProcessor queuedTaskProcessor,
+			final Esi4JBatchedEntityResolver entityResolver) {
+		this(queuedTaskProcessor, entityResolver, ImmutableSettings.EMPTY);
+	}
+
+	public QueuedTaskExecutor(final QueuedTaskProcessor queuedTaskProcessor,
+			final Esi4JBatchedEntityResolver entityResolver, final Settings settings) {
 		if (queuedTaskProcessor == null) {
 			throw new NullPointerException("queuedTaskProcessor");
 		}
+		if (settings == null) {
+			throw new NullPointerException("settings");
+		}
 		_queuedTaskProcessor = queuedTaskProcessor;
 		_entityResolver = entityResolver;
 
-		// TODO make configurable
-		_poolSize = (Runtime.getRuntime().availableProcessors() + 1) / 2;
-		_executorService = newExecutorService();
-	}
+		_poolSize = settings.getAsInt(SETTING_THREADS, (Runtime.getRuntime().availableProcessors() + 1) / 2);
+		if (_poolSize <= 0) {
+			throw new IllegalArgumentException(SETTING_THREADS + " must be > 0, was " + _poolSize);
+		}
+
+		_bulkMaxItems = settings.getAsInt(SETTING_BULK_MAX_ITEMS, DEFAULT_BULK_MAX_ITEMS);
+		_bulkMaxBytes = settings.getAsBytesSize(SETTING_BULK_MAX_BYTES, DEFAULT_BULK_MAX_BYTES).bytes();
+		_bulkLingerNanos = settings.getAsTime(SETTING_BULK_LINGER, TimeValue.timeValueMillis(0)).nanos();
+		_pooledBuffers = settings.getAsBoolean(SETTING_BULK_POOLED_BUFFERS, false);
+
+		final int inFlight = settings.getAsInt(SETTING_BULK_IN_FLIGHT, _poolSize);
+		if (inFlight <= 0) {
+			throw new IllegalArgumentException(SETTING_BULK_IN_FLIGHT + " must be > 0, was " + inFlight);
+		}
+		_inFlight = new Semaphore(inFlight);
+		_inFlightMax = inFlight;
+
+		_backfillShare = settings.getAsFloat(SETTING_BACKFILL_SHARE, DEFAULT_BACKFILL_SHARE);
+		if (_backfillShare <= 0 || _backfillShare > 1) {
+			throw new IllegalArgumentException(SETTING_BACKFILL_SHARE + " must be > 0 and <= 1, was " + _backfillShare);
+		}
+		_backfillLanes = new Semaphore(Math.max(1, (int) (_backfillShare * _poolSize)));
+		_backfillInFlight = new Semaphore(Math.max(1, (int) (_backfillShare * inFlight)));
+
+		_retryMaxAttempts = settings.getAsInt(SETTING_RETRY_MAX_ATTEMPTS, DEFAULT_RETRY_MAX_ATTEMPTS);
+		_retryBackoffMillis = settings.getAsTime(SETTING_RETRY_BACKOFF, DEFAULT_RETRY_BACKOFF).millis();
+		_retryMaxBackoffMillis = settings.getAsTime(SETTING_RETRY_MAX_BACKOFF, DEFAULT_RETRY_MAX_BACKOFF).millis();
+
+		_dependencyBatchSize = settings.getAsInt(SETTING_DEPENDENCY_BATCH_SIZE, DEFAULT_DEPENDENCY_BATCH_SIZE);
+		if (_dependencyBatchSize <= 0) {
+			throw new IllegalArgumentException(SETTING_DEPENDENCY_BATCH_SIZE + " must be > 0, was "
+					+ _dependencyBatchSize);
+		}
 
-	private ThreadPoolExecutor newExecutorService() {
-		log.info("creating new QueuedTaskExecutor with " + _poolSize + " threads");
+		_queueBound = new TaskQueueBound(settings);
+
+		_refresh = new CoalescedRefresh(queuedTaskProcessor.getIndex(), settings.getAsTime(SETTING_REFRESH_INTERVAL,
+				TimeValue.timeValueMillis(0)).millis(), TimeUnit.MILLISECONDS);
+
+		final Class<? extends Esi4JOverflowSink> sinkClass = settings.getAsClass(SETTING_OVERFLOW_SINK, null);
+		if (sinkClass != null) {
+			_overflowSink = Esi4JUtils.createObject(sinkClass, settings);
+		}
+
+		_metrics = Esi4JUtils.createObject(settings.getAsClass(SETTING_METRICS, DefaultExecutorMetrics.class), settings);
+
+		_coalescer = entityResolver == null ? null : new TaskCoalescer(queuedTaskProcessor.getIndex(), settings);
+		_journal = entityResolver == null ? null : TaskJournal.open(settings, queuedTaskProcessor.getIndex().getName());
+		_deadLetterLog = entityResolver == null ? null : DeadLetterLog.open(settings, queuedTaskProcessor.getIndex()
+				.getName());
+		_indexedVersions = entityResolver == null ? null : IndexedVersions.open(settings);
+
+		_lanes = newLanes();
+		_scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
 
-		final ThreadFactory factory = new ThreadFactory() {
 			@Override
 			public Thread newThread(final Runnable r) {
-				return new ExecutorThread(r);
+				final Thread thread = new Thread(r, QueuedTaskProcessor.class.getSimpleName() + "-" + _executorNumber
+						+ "-scheduler");
+				thread.setDaemon(true);
+				return thread;
 			}
-		};
+		});
+
+		_metrics.open(this);
+	}
+
+	private Lane[] newLanes() {
+		log.info("creating new QueuedTaskExecutor with " + _poolSize + " lanes");
 
 		final RejectedExecutionHandler handler = new RejectedExecutionHandler() {
 
 			@Override
 			public void rejectedExecution(final Runnable r, final ThreadPoolExecutor executor) {
-				log.warn("executor rejected execution of bulk index task");
+				if (r instanceof BulkIndexRunnable) {
+					log.warn("executor rejected execution of bulk index task");
+					((BulkIndexRunnable) r).release(QueuedTaskExecutor.this);
+					((BulkIndexRunnable) r).indexed();
+				} else if (r instanceof LaneBarrier) {
+					// don't block operations after close
+					((LaneBarrier) r).arrive();
+				}
 			}
 		};
 
-		return new ThreadPoolExecutor(_poolSize, _poolSize, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), factory, handler);
+		final Lane[] lanes = new Lane[_poolSize];
+		for (int i = 0; i < lanes.length; i++) {
+			final String name = QueuedTaskProcessor.class.getSimpleName() + "-" + _executorNumber + "-" + (i + 1);
+			lanes[i] = new Lane(this, name, new LaneQueue(_backfillLanes, _backfillShare), handler, _inFlight,
+					_backfillInFlight, _bulkMaxItems, _bulkMaxBytes, _bulkLingerNanos);
+		}
+		return lanes;
 	}
 
 	public void execute(final Esi4JEntityTask[] tasks) {
 		if (!ArrayUtils.empty(tasks)) {
+			final int submitted = count(tasks);
 			if (_entityResolver != null) {
+				recover();
 				final ListMap<ObjectKey, Integer> taskIndices = replaceEntities(tasks);
 				resolveDuplicates(tasks, taskIndices);
+				final long[] seqs = _journal == null ? null : _journal.append(tasks, _entityResolver);
+				supersede(tasks, seqs);
+				_metrics.submitted(submitted, submitted - count(tasks));
+				lingerAndEnqueue(tasks, seqs, 0);
+			} else {
+				final Esi4JEntityTask[] compacted = compact(tasks);
+				_metrics.submitted(submitted, submitted - compacted.length);
+
+				final Esi4JTaskPriority current = Esi4JTaskPriority.current();
+				final ListMap<Esi4JTaskPriority, Esi4JEntityTask> byPriority = new ListMap<>();
+				for (final Esi4JEntityTask task : compacted) {
+					Esi4JTaskPriority priority = AbstractEntityTask.priority(task);
+					if (priority == null) {
+						priority = current == null ? Esi4JTaskPriority.REALTIME : current;
+					}
+					byPriority.add(priority, task);
+				}
+
+				for (final Map.Entry<Esi4JTaskPriority, List<Esi4JEntityTask>> e : byPriority.entrySet()) {
+					final Esi4JEntityTask[] priorityTasks = e.getValue().toArray(new Esi4JEntityTask[e.getValue().size()]);
+					final Lane lane = _lanes[(_nextLane.getAndIncrement() & Integer.MAX_VALUE) % _lanes.length];
+					enqueue(new BulkIndexRunnable(priorityTasks, null, 0, e.getKey(), estimateBytes(priorityTasks)), lane, 0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * submit unacknowledged tasks of {@link TaskJournal} again once type mappings are registered. Doesn't wait for
+	 * recovered tasks to be queued.
+	 */
+	public void start() {
+		if (_journal == null || _recovered) {
+			return;
+		}
+		try {
+			_scheduler.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					recover();
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			log.warn("can't recover journaled tasks after close. index might be out of sync");
+		}
+	}
+
+	/**
+	 * submit unacknowledged tasks of {@link TaskJournal} again. Called by {@link #start()} or the first
+	 * {@link #execute(Esi4JEntityTask[])} rather than on construction as lanes use the (not yet constructed)
+	 * {@link QueuedTaskProcessor} and type mappings might not be registered yet. Other callers wait until recovered
+	 * tasks are queued to keep their order.
+	 */
+	private void recover() {
+		if (_journal == null || _recovered) {
+			return;
+		}
+		synchronized (_recoveryLock) {
+			if (!_recovered) {
+				final TaskJournal.Recovery recovery = _journal.takeRecovery();
+				if (recovery != null && recovery._tasks.length > 0) {
+					coalesceAndEnqueue(recovery._tasks, recovery._seqs);
+				}
+				_recovered = true;
+			}
+		}
+	}
+
+	/**
+	 * @param tasks
+	 *            replaced tasks, might contain <code>null</code>
+	 * @param seqs
+	 *            {@link TaskJournal} sequence numbers of tasks, <code>null</code> without journal
+	 */
+	private void coalesceAndEnqueue(final Esi4JEntityTask[] tasks, final long[] seqs) {
+		supersede(tasks, seqs);
+		lingerAndEnqueue(tasks, seqs, 0);
+	}
+
+	/**
+	 * schedule tasks of failed bulk items for another attempt. Retried tasks never supersede queued tasks as they
+	 * might be outdated.
+	 *
+	 * @param tasks
+	 *            {@link ObjectKey} based tasks
+	 */
+	void retry(final Esi4JEntityTask[] tasks, final int attempt) {
+		final long[] seqs = _journal == null ? null : _journal.append(tasks, _entityResolver);
+
+		final long backoff = Math.min(_retryMaxBackoffMillis, _retryBackoffMillis << Math.min(attempt - 1, 30));
+		// equal jitter
+		final long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+
+		_retriedItems.addAndGet(tasks.length);
+		try {
+			_scheduler.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					lingerAndEnqueue(tasks, seqs, attempt);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (final RejectedExecutionException e) {
+			log.warn("can't retry " + tasks.length + " tasks after close. index might be out of sync");
+		}
+	}
+
+	/**
+	 * pass task to {@link DeadLetterLog}
+	 *
+	 * @param task
+	 *            resolved task
+	 * @param key
+	 *            key of task before its entity was resolved
+	 */
+	void deadLetter(final Esi4JEntityTask task, final ObjectKey key, final String reason) {
+		_deadLetters.incrementAndGet();
+		if (_deadLetterLog != null) {
+			_deadLetterLog.append(task, key, reason);
+		} else {
+			log.warn("failed to index " + key + ": " + reason + ". index might be out of sync");
+		}
+	}
+
+	/**
+	 * @return true if task should be dropped as its entity's version was indexed already
+	 */
+	boolean isIndexed(final Esi4JEntityTask task, final ObjectKey key) {
+		if (_indexedVersions == null || task instanceof DeleteEntityTask || !_indexedVersions.isIndexed(key)) {
+			return false;
+		}
+		_skippedVersions.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * find owners of changed entities according to {@link TypeMapping#getDependencies()} and submit index tasks for
+	 * them as {@link Esi4JTaskPriority#BACKFILL}. Requires a resolve session.
+	 *
+	 * @param keys
+	 *            keys of changed entities
+	 */
+	void propagate(final Collection<ObjectKey> keys) {
+		if (keys.isEmpty() || !(_entityResolver instanceof Esi4JDependencyResolver)) {
+			return;
+		}
+
+		final TypeDependencies dependencies = dependencies();
+		if (dependencies.isEmpty()) {
+			return;
+		}
+
+		final ListMap<Class<?>, Serializable> idsByType = new ListMap<>();
+		for (final ObjectKey key : keys) {
+			if (!dependencies.getOwners(key.getType()).isEmpty()) {
+				idsByType.add(key.getType(), key.getId());
+			}
+		}
+		if (idsByType.isEmpty()) {
+			return;
+		}
+
+		final long start = System.nanoTime();
+		final Esi4JDependencyResolver resolver = (Esi4JDependencyResolver) _entityResolver;
+
+		final Set<ObjectKey> owners = Sets.newLinkedHashSet();
+		for (final Map.Entry<Class<?>, List<Serializable>> e : idsByType.entrySet()) {
+			for (final TypeDependencies.Owner owner : dependencies.getOwners(e.getKey())) {
+				for (final List<Serializable> ids : Lists.partition(e.getValue(), _dependencyBatchSize)) {
+					for (final Serializable id : resolver.findOwnerIds(owner.getType(), owner.getDependency(), ids)) {
+						owners.add(new ObjectKey(owner.getType(), id));
+					}
+				}
+			}
+		}
+		_metrics.stage(Stage.PROPAGATE, owners.size(), System.nanoTime() - start);
+
+		if (owners.isEmpty()) {
+			return;
+		}
+
+		final Esi4JEntityTask[] tasks = new Esi4JEntityTask[owners.size()];
+		int i = 0;
+		for (final ObjectKey owner : owners) {
+			final IndexEntityTask task = new IndexEntityTask(owner);
+			task.setPriority(Esi4JTaskPriority.BACKFILL);
+			tasks[i++] = task;
+		}
+
+		_propagatedItems.addAndGet(tasks.length);
+		try {
+			// don't block executor thread if queue is full
+			_scheduler.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					execute(tasks);
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			log.warn("can't reindex " + tasks.length + " dependent entities after close. index might be out of sync");
+		}
+	}
+
+	/**
+	 * @return dependency graph for currently mapped types
+	 */
+	private TypeDependencies dependencies() {
+		final Esi4JIndex index = _queuedTaskProcessor.getIndex();
+		final Class<?>[] mappedTypes = index.getMappedTypes();
+
+		TypeDependencies dependencies = _dependencies;
+		if (!dependencies.isBuiltFor(mappedTypes)) {
+			if (index instanceof OperationContext) {
+				try {
+					dependencies = TypeDependencies.build(mappedTypes, (OperationContext) index);
+				} catch (final IllegalArgumentException e) {
+					log.error("ignoring dependencies of index " + index.getName() + ": " + e.getMessage());
+					dependencies = TypeDependencies.empty(mappedTypes);
+				}
+			} else {
+				dependencies = TypeDependencies.empty(mappedTypes);
+			}
+			_dependencies = dependencies;
+		}
+		return dependencies;
+	}
+
+	/**
+	 * submit all tasks from {@link DeadLetterLog} again
+	 *
+	 * @return number of submitted tasks
+	 */
+	public int replayDeadLetters() throws IOException {
+		if (_deadLetterLog == null) {
+			return 0;
+		}
+
+		recover();
+
+		final List<Esi4JEntityTask> list = _deadLetterLog.drain();
+		final Esi4JEntityTask[] tasks = list.toArray(new Esi4JEntityTask[list.size()]);
+		if (tasks.length > 0) {
+			final long[] seqs = _journal == null ? null : _journal.append(tasks, _entityResolver);
+			coalesceAndEnqueue(tasks, seqs);
+		}
+		return tasks.length;
+	}
+
+	/**
+	 * replace tasks queued by previous calls to {@link #execute(Esi4JEntityTask[])} that weren't dispatched yet. Tasks
+	 * that superseded a queued task are set to <code>null</code>, their new batch is remembered for
+	 * {@link #awaitIndexed()}
+	 */
+	private void supersede(final Esi4JEntityTask[] tasks, final long[] seqs) {
+		for (int i = 0; i < tasks.length; i++) {
+			final Esi4JEntityTask task = tasks[i];
+			if (task != null) {
+				final TaskCoalescer.Batch batch = _coalescer.supersede(task.toObjectKey(_entityResolver), task,
+						seqs == null ? TaskJournal.NO_SEQ : seqs[i]);
+				if (batch != null) {
+					tasks[i] = null;
+					// all queued batches are BulkIndexRunnables
+					submitted((BulkIndexRunnable) batch);
+				}
+			}
+		}
+	}
+
+	/**
+	 * enqueue tasks of types without linger delay immediately, all others in separate batches per linger delay. As all
+	 * tasks of a type use the same delay, tasks of an entity are still executed in order. Batches are split by
+	 * {@link Esi4JTaskPriority} too.
+	 */
+	private void lingerAndEnqueue(final Esi4JEntityTask[] tasks, final long[] seqs, final int attempt) {
+		final Esi4JTaskPriority current = Esi4JTaskPriority.current();
+
+		final ListMap<Long, Integer> byLinger = new ListMap<>();
+		for (int i = 0; i < tasks.length; i++) {
+			if (tasks[i] != null) {
+				byLinger.add(_coalescer.getLingerMillis(tasks[i].toObjectKey(_entityResolver).getType()), i);
+			}
+		}
+
+		for (final Map.Entry<Long, List<Integer>> e : byLinger.entrySet()) {
+			final ListMap<Esi4JTaskPriority, Integer> byPriority = new ListMap<>();
+			for (final Integer i : e.getValue()) {
+				byPriority.add(priority(tasks[i], current), i);
+			}
+
+			for (final Map.Entry<Esi4JTaskPriority, List<Integer>> p : byPriority.entrySet()) {
+				final ListMap<Lane, Integer> byLane = new ListMap<>();
+				for (final Integer i : p.getValue()) {
+					byLane.add(lane(tasks[i].toObjectKey(_entityResolver)), i);
+				}
+
+				for (final Map.Entry<Lane, List<Integer>> l : byLane.entrySet()) {
+					final List<Integer> indices = l.getValue();
+					final Esi4JEntityTask[] laneTasks = new Esi4JEntityTask[indices.size()];
+					final long[] laneSeqs = seqs == null ? null : new long[indices.size()];
+					for (int i = 0; i < laneTasks.length; i++) {
+						laneTasks[i] = tasks[indices.get(i)];
+						if (laneSeqs != null) {
+							laneSeqs[i] = seqs[indices.get(i)];
+						}
+					}
+					enqueue(new BulkIndexRunnable(laneTasks, laneSeqs, attempt, p.getKey(), estimateBytes(laneTasks)), l
+							.getKey(), e.getKey());
+				}
+			}
+		}
+	}
 
+	/**
+	 * @param current
+	 *            priority of submitting thread, might be <code>null</code>
+	 * @return priority of a queued task for the same entity, the task's, the current or the type's priority
+	 */
+	private Esi4JTaskPriority priority(final Esi4JEntityTask task, final Esi4JTaskPriority current) {
+		final ObjectKey key = task.toObjectKey(_entityResolver);
+
+		final Esi4JTaskPriority pending = _coalescer.getPendingPriority(key);
+		final Esi4JTaskPriority priority = AbstractEntityTask.priority(task);
+		if (pending != null) {
+			// lanes reorder priorities, keep order of tasks for this entity
+			return pending;
+		} else if (priority != null) {
+			return priority;
+		} else if (current != null) {
+			return current;
+		} else {
+			return _coalescer.getPriority(key.getType());
+		}
+	}
+
+	/**
+	 * @return lane responsible for all tasks of this key
+	 */
+	private Lane lane(final ObjectKey key) {
+		return _lanes[(key.hashCode() & Integer.MAX_VALUE) % _lanes.length];
+	}
+
+	/**
+	 * submit runnable to lane, applying the {@link OverflowPolicy} if {@link TaskQueueBound} is reached
+	 *
+	 * @param linger
+	 *            milliseconds to wait before submitting runnable to lane
+	 */
+	private void enqueue(final BulkIndexRunnable runnable, final Lane lane, final long linger) {
+		final int size = runnable.size();
+		final long bytes = runnable.bytes();
+
+		if (!_queueBound.tryAcquire(size, bytes)) {
+			final OverflowPolicy policy = _queueBound.getPolicy();
+			if (policy == OverflowPolicy.COALESCE && linger == 0 && coalesce(runnable, lane)) {
+				return;
+			}
+			switch (policy) {
+			case COALESCE: // no luck, block instead
+			case BLOCK:
+				if (!block(runnable)) {
+					overflow(runnable);
+					return;
+				}
+				break;
+			case SINK:
+				overflow(runnable);
+				return;
+			default:
+				throw new IllegalStateException("unexpected overflow policy " + policy);
+			}
+		}
+
+		runnable.queued(this);
+		submitted(runnable);
+
+		if (linger > 0) {
+			_scheduler.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					lane.execute(runnable);
+				}
+			}, linger, TimeUnit.MILLISECONDS);
+		} else {
+			lane.executeTail(runnable);
+		}
+	}
+
+	/**
+	 * @return true if space was reserved for runnable
+	 */
+	private boolean block(final BulkIndexRunnable runnable) {
+		try {
+			if (_queueBound.acquire(runnable.size(), runnable.bytes())) {
+				return true;
+			} else {
+				log.warn("timeout while waiting for space in queue (" + _queueBound + ")");
+				return false;
+			}
+		} catch (final InterruptedException e) {
+			log.warn("interrupted while waiting for space in queue");
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * merge tasks of runnable into the last queued {@link BulkIndexRunnable} of its lane if it didn't start yet and if
+	 * resolving duplicates frees enough space
+	 *
+	 * @return true if tasks were merged
+	 */
+	private boolean coalesce(final BulkIndexRunnable runnable, final Lane lane) {
+		final BulkIndexRunnable tail = lane.getTail();
+		if (tail == null || _entityResolver == null || tail.getPriority() != runnable.getPriority()) {
+			return false;
+		}
+
+		final int size = runnable.size();
+		if (tail.merge(runnable, this)) {
+			_queueBound.coalesced(size);
+			submitted(tail);
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * pass tasks to {@link Esi4JOverflowSink} or drop them if there is none
+	 */
+	private void overflow(final BulkIndexRunnable runnable) {
+		final Esi4JEntityTask[] tasks = runnable.tasks();
+		acknowledge(runnable);
+		runnable.indexed();
+
+		final Esi4JOverflowSink sink = _overflowSink;
+		if (sink != null) {
+			_queueBound.overflow(tasks.length);
+			sink.overflow(tasks);
+		} else {
+			_queueBound.dropped(tasks.length);
+			log.warn("dropping " + tasks.length + " tasks, no overflow sink available. index might be out of sync");
+		}
+	}
+
+	/**
+	 * remember runnable for {@link #awaitIndexed()}
+	 */
+	private void submitted(final BulkIndexRunnable runnable) {
+		List<BulkIndexRunnable> submitted = _submitted.get();
+		if (submitted == null) {
+			_submitted.set(submitted = Lists.newArrayList());
+		} else {
+			// forget indexed runnables
+			final Iterator<BulkIndexRunnable> iter = submitted.iterator();
+			while (iter.hasNext()) {
+				if (iter.next().isIndexed()) {
+					iter.remove();
+				}
+			}
+		}
+		submitted.add(runnable);
+	}
+
+	/**
+	 * wait until all tasks previously submitted by the current thread were indexed (or failed). Doesn't block other
+	 * tasks.
+	 */
+	public void awaitIndexed() {
+		final List<BulkIndexRunnable> submitted = _submitted.get();
+		if (submitted != null) {
+			_submitted.remove();
+			try {
+				for (final BulkIndexRunnable runnable : submitted) {
+					runnable.awaitIndexed();
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * refresh index after all tasks previously submitted by the current thread were indexed. Concurrent calls share
+	 * a single refresh, see {@link CoalescedRefresh}
+	 */
+	public void refresh() {
+		awaitIndexed();
+		_refresh.refresh();
+	}
+
+	void bulkIndexed(final int items) {
+		_bulks.incrementAndGet();
+		_bulkItems.addAndGet(items);
+		synchronized (_bulkSizes) {
+			_bulkSizes.increment(items);
+		}
+	}
+
+	void failedItems(final int items) {
+		_failedItems.addAndGet(items);
+	}
+
+	void versionConflict() {
+		_versionConflicts.incrementAndGet();
+	}
+
+	int getRetryMaxAttempts() {
+		return _retryMaxAttempts;
+	}
+
+	boolean isPooledBuffers() {
+		return _pooledBuffers;
+	}
+
+	/**
+	 * @return <code>null</code> if not enabled or if there is no {@link Esi4JBatchedEntityResolver}
+	 */
+	IndexedVersions getIndexedVersions() {
+		return _indexedVersions;
+	}
+
+	/**
+	 * acknowledge runnable's tasks in {@link TaskJournal}
+	 */
+	void acknowledge(final BulkIndexRunnable runnable) {
+		if (_journal != null) {
+			_journal.acknowledge(runnable.seqs());
+		}
+	}
+
+	/**
+	 * @return tasks without <code>null</code> values, same array if there are none
+	 */
+	static Esi4JEntityTask[] compact(final Esi4JEntityTask[] tasks) {
+		final int size = count(tasks);
+		if (size == tasks.length) {
+			return tasks;
+		}
+
+		final Esi4JEntityTask[] compacted = new Esi4JEntityTask[size];
+		int i = 0;
+		for (final Esi4JEntityTask task : tasks) {
+			if (task != null) {
+				compacted[i++] = task;
+			}
+		}
+		return compacted;
+	}
+
+	/**
+	 * @return number of non-<code>null</code> tasks
+	 */
+	private static int count(final Esi4JEntityTask[] tasks) {
+		int size = 0;
+		for (final Esi4JEntityTask task : tasks) {
+			if (task != null) {
+				size++;
 			}
-			_executorService.execute(new BulkIndexRunnable(tasks));
 		}
+		return size;
+	}
+
+	/**
+	 * @return estimated bytes of non-<code>null</code> tasks
+	 */
+	long estimateBytes(final Esi4JEntityTask[] tasks) {
+		long bytes = 0;
+		for (final Esi4JEntityTask task : tasks) {
+			if (task != null) {
+				bytes += _entityResolver == null ? TaskQueueBound.estimateBytes(1) : TaskQueueBound.estimateBytes(task
+						.toObjectKey(_entityResolver));
+				if (task instanceof SerializedIndexEntityTask) {
+					bytes += ((SerializedIndexEntityTask) task).getSourceLength();
+				}
+			}
+		}
+		return bytes;
 	}
 
 	/**
@@ -124,8 +947,11 @@ public class QueuedTaskExecutor {
 		for (int i = 0; i < tasks.length; i++) {
 			final Esi4JEntityTask task = tasks[i];
 			if (task != null) {
+				final long start = System.nanoTime();
 				task.replaceEntity(_entityResolver);
-				map.add(task.toObjectKey(_entityResolver), i);
+				final ObjectKey key = task.toObjectKey(_entityResolver);
+				_metrics.type(Stage.REPLACE, key.getType(), System.nanoTime() - start);
+				map.add(key, i);
 			}
 		}
 		return map;
@@ -157,9 +983,47 @@ public class QueuedTaskExecutor {
 		}
 	}
 
+	/**
+	 * execute operation after all previously submitted tasks completed. Execution of tasks submitted afterwards waits
+	 * for the operation to complete.
+	 */
 	public <T> T submit(final SerializableEsi4JOperation<T> operation) {
+		return submit(operation, Arrays.asList(_lanes));
+	}
+
+	/**
+	 * execute operation after all previously submitted tasks for the given keys completed. Tasks for other entities
+	 * continue unaffected.
+	 */
+	public <T> T submit(final SerializableEsi4JOperation<T> operation, final Iterable<ObjectKey> dependencies) {
+		if (_entityResolver == null) {
+			// lanes don't depend on keys
+			return submit(operation);
+		}
+
+		final Set<Lane> lanes = Sets.newHashSet();
+		for (final ObjectKey key : dependencies) {
+			lanes.add(lane(key));
+		}
+		return submit(operation, lanes);
+	}
+
+	private <T> T submit(final SerializableEsi4JOperation<T> operation, final Collection<Lane> lanes) {
+		if (operation == null) {
+			throw new NullPointerException("operation");
+		}
+
+		final LaneBarrier barrier = new LaneBarrier(lanes.size());
 		try {
-			final T value = _executorService.submit(new OperationCallable<T>(operation)).get();
+			synchronized (_barrierLock) {
+				for (final Lane lane : lanes) {
+					lane.execute(barrier);
+				}
+			}
+
+			barrier.awaitArrival();
+
+			final T value = _queuedTaskProcessor.getIndex().execute(operation);
 
 			if (log.isDebugEnabled()) {
 				log.debug("finished submitted operation");
@@ -167,21 +1031,44 @@ public class QueuedTaskExecutor {
 
 			return value;
 		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
 			// TODO handle
 			throw new RuntimeException(e);
-		} catch (final ExecutionException e) {
-			// TODO handle
-			throw new RuntimeException(e);
+		} finally {
+			barrier.release();
 		}
 	}
 
 	public void close() {
-		_executorService.shutdown();
+		// submit lingering tasks now
+		for (final Runnable r : _scheduler.shutdownNow()) {
+			r.run();
+		}
+
+		for (final Lane lane : _lanes) {
+			lane.shutdown();
+		}
 		try {
-			_executorService.awaitTermination(60, TimeUnit.SECONDS);
+			final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(60);
+			for (final Lane lane : _lanes) {
+				lane.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+			}
+			for (final Lane lane : _lanes) {
+				if (!lane.awaitInFlight(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+					log.warn("bulk request still in flight after close");
+				}
+			}
 		} catch (final InterruptedException e) {
 			log.warn("waiting for termination of executor service interrupted", e);
 		}
+
+		if (_journal != null) {
+			_journal.close();
+		}
+		if (_deadLetterLog != null) {
+			_deadLetterLog.close();
+		}
+		_metrics.close();
 	}
 
 	public QueuedTaskProcessor getTaskProcessor() {
@@ -192,132 +1079,155 @@ public class QueuedTaskExecutor {
 		return _entityResolver;
 	}
 
+	public TaskQueueBound getQueueBound() {
+		return _queueBound;
+	}
+
 	/**
-	 * thread that references this {@link QueuedTaskExecutor}
+	 * @return <code>null</code> if there is no {@link Esi4JBatchedEntityResolver}
 	 */
-	private final class ExecutorThread extends Thread {
-
-		public ExecutorThread(final Runnable r) {
-			super(r, QueuedTaskProcessor.class.getSimpleName() + "-" + _executorNumber + "-"
-					+ _threadNumber.getAndIncrement());
-			setDaemon(true);
-		}
-
-		public QueuedTaskExecutor getQueuedTaskExecutor() {
-			return QueuedTaskExecutor.this;
-		}
+	public TaskCoalescer getCoalescer() {
+		return _coalescer;
 	}
 
-	private static final class OperationCallable<T> implements Callable<T>, Serializable {
+	/**
+	 * @return <code>null</code> if journaling isn't enabled
+	 */
+	public TaskJournal getJournal() {
+		return _journal;
+	}
 
-		private static final long serialVersionUID = 1L;
+	public Esi4JOverflowSink getOverflowSink() {
+		return _overflowSink;
+	}
 
-		// discard during serialization
-		private final SerializableEsi4JOperation<T> _operation;
+	/**
+	 * @param overflowSink
+	 *            receives tasks that can't be queued, might be <code>null</code> to drop such tasks
+	 */
+	public void setOverflowSink(final Esi4JOverflowSink overflowSink) {
+		_overflowSink = overflowSink;
+	}
 
-		private OperationCallable(final SerializableEsi4JOperation<T> operation) {
-			if (operation == null) {
-				throw new NullPointerException("operation");
-			}
-			_operation = operation;
-		}
+	public int getPoolSize() {
+		return _poolSize;
+	}
 
-		@Override
-		public T call() throws Exception {
-			if (_operation == null) {
-				return null;
-			}
+	public CoalescedRefresh getRefresh() {
+		return _refresh;
+	}
 
-			final QueuedTaskExecutor executor = ((ExecutorThread) Thread.currentThread()).getQueuedTaskExecutor();
+	public Esi4JExecutorMetrics getMetrics() {
+		return _metrics;
+	}
 
-			// wait for current tasks to complete
-			executor._executionOrderLock.writeLock().lock();
-			try {
-				return executor.getTaskProcessor().getIndex().execute(_operation);
-			} finally {
-				executor._executionOrderLock.writeLock().unlock();
-			}
+	/**
+	 * @return number of batches and barriers waiting in all lanes
+	 */
+	public int getQueuedBatches() {
+		int queued = 0;
+		for (final Lane lane : _lanes) {
+			queued += lane.getQueued();
 		}
+		return queued;
 	}
 
 	/**
-	 * execute a bulk of {@link Esi4JEntityTask}s
+	 * @return number of lanes currently executing a batch or barrier
 	 */
-	private static final class BulkIndexRunnable implements Runnable, Serializable {
-
-		private static final long serialVersionUID = 1L;
-
-		private final Esi4JEntityTask[] _tasks;
-
-		/**
-		 * @param tasks
-		 *            might contain <code>null</code>
-		 */
-		public BulkIndexRunnable(final Esi4JEntityTask[] tasks) {
-			_tasks = tasks;
+	public int getActiveThreads() {
+		int active = 0;
+		for (final Lane lane : _lanes) {
+			active += lane.getActiveCount();
 		}
+		return active;
+	}
 
-		@Override
-		public void run() {
-			final QueuedTaskExecutor executor = ((ExecutorThread) Thread.currentThread()).getQueuedTaskExecutor();
-
-			executor._executionOrderLock.readLock().lock();
-			try { // ensure unlock()
-
-				executor.getTaskProcessor().onBeforeBulkIndex();
-				try { // ensure onAfterBulkIndex()
-
-					index(executor);
+	/**
+	 * @return number of bulk requests waiting for a response
+	 */
+	public int getInFlightBulks() {
+		return _inFlightMax - _inFlight.availablePermits();
+	}
 
-				} finally {
-					executor.getTaskProcessor().onAfterBulkIndex();
-				}
-			} finally {
-				executor._executionOrderLock.readLock().unlock();
-			}
-		}
+	/**
+	 * @return <code>null</code> if dead-letter log isn't enabled
+	 */
+	public DeadLetterLog getDeadLetterLog() {
+		return _deadLetterLog;
+	}
 
-		private void index(final QueuedTaskExecutor executor) {
-			final Esi4JBatchedEntityResolver entityResolver = executor.getEntityResolver();
+	/**
+	 * @return number of failed bulk items
+	 */
+	public long getFailedItems() {
+		return _failedItems.get();
+	}
 
-			if (entityResolver != null) {
-				entityResolver.resolveEntities(_tasks);
-			}
+	/**
+	 * @return number of failed bulk items that were scheduled for another attempt
+	 */
+	public long getRetriedItems() {
+		return _retriedItems.get();
+	}
 
-			final BulkResponseWrapper response = executor.getTaskProcessor().getIndex()
-					.executeBulk(new Esi4JOperation<ListenableActionFuture<BulkResponse>>() {
+	/**
+	 * @return number of owners submitted for reindexing as entities they depend on changed
+	 */
+	public long getPropagatedItems() {
+		return _propagatedItems.get();
+	}
 
-						@Override
-						public ListenableActionFuture<BulkResponse> execute(final Client client, final String indexName, final OperationContext helper) {
-							final BulkRequestBuilder bulk = client.prepareBulk();
+	/**
+	 * @return number of tasks dropped as their entity's version was indexed already
+	 */
+	public long getSkippedVersions() {
+		return _skippedVersions.get();
+	}
 
-							for (final Esi4JEntityTask _task : _tasks) {
-								if (_task != null) {
-									_task.addToBulk(client, bulk, indexName, helper);
-								}
-							}
+	/**
+	 * @return number of bulk items dropped due to version conflicts
+	 */
+	public long getVersionConflicts() {
+		return _versionConflicts.get();
+	}
 
-							final ListenableActionFuture<BulkResponse> response = bulk.execute();
+	/**
+	 * @return number of bulk items that failed permanently
+	 */
+	public long getDeadLetters() {
+		return _deadLetters.get();
+	}
 
-							return response;
-						}
-					}).actionGet();
+	/**
+	 * @return number of executed bulk requests
+	 */
+	public long getBulks() {
+		return _bulks.get();
+	}
 
-			int failed = 0;
-			for (final BulkItemResponse item : response.getBulkResponse()) {
-				if (item.isFailed()) {
-					failed++;
-				}
-			}
+	/**
+	 * @return number of items in executed bulk requests
+	 */
+	public long getBulkItems() {
+		return _bulkItems.get();
+	}
 
-			if (failed > 0) {
-				log.warn("failed to index " + failed + " items. index might be out of sync");
-			}
+	/**
+	 * @return distribution of items per bulk request
+	 */
+	public List<Percentile> getBulkSizes() {
+		synchronized (_bulkSizes) {
+			return _bulkSizes.toList();
+		}
+	}
 
-			if (log.isDebugEnabled()) {
-				final int indexed = response.getBulkResponse().getItems().length - failed;
-				log.debug("finished bulk indexing " + indexed + " items");
-			}
+	/**
+	 * @return estimated number of items per bulk request for given percentile (e.g. 0.99)
+	 */
+	public int getBulkSizePercentile(final double percentile) {
+		synchronized (_bulkSizes) {
+			return _bulkSizes.estimatePercentile(percentile);
 		}
 	}
 
@@ -15,11 +15,16 @@
  */
 package at.molindo.esi4j.chain.impl;
 
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+
 import at.molindo.esi4j.chain.Esi4JBatchedEntityResolver;
 import at.molindo.esi4j.chain.Esi4JEntityTask;
 import at.molindo.esi4j.chain.Esi4JSessionEntityResolver;
 import at.molindo.esi4j.chain.Esi4JTaskProcessor;
 import at.molindo.esi4j.core.Esi4JIndex;
+import at.molindo.esi4j.core.internal.InternalIndex;
+import at.molindo.esi4j.mapping.ObjectKey;
 import at.molindo.utils.collections.ArrayUtils;
 
 /**
@@ -30,8 +35,33 @@ public class QueuedTaskProcessor extends AbstractTaskProcessor implements Esi4JT
 	private final QueuedTaskExecutor _executor;
 
 	public QueuedTaskProcessor(final Esi4JIndex index, final Esi4JBatchedEntityResolver entityResolver) {
+		this(index, entityResolver, getSettings(index));
+	}
+
+	/**
+	 * @param settings
+	 *            configuration of {@link QueuedTaskExecutor}
+	 */
+	public QueuedTaskProcessor(final Esi4JIndex index, final Esi4JBatchedEntityResolver entityResolver, final Settings settings) {
 		super(index);
-		_executor = new QueuedTaskExecutor(this, entityResolver);
+		_executor = new QueuedTaskExecutor(this, entityResolver, settings);
+	}
+
+	static Settings getSettings(final Esi4JIndex index) {
+		final Settings settings = index instanceof InternalIndex ? ((InternalIndex) index).getSettings() : null;
+		return settings == null ? ImmutableSettings.EMPTY : settings;
+	}
+
+	/**
+	 * start processing tasks that weren't indexed before a restart, see {@link QueuedTaskExecutor#start()}. Call once
+	 * all type mappings are registered.
+	 */
+	public void start() {
+		_executor.start();
+	}
+
+	public QueuedTaskExecutor getExecutor() {
+		return _executor;
 	}
 
 	public Esi4JBatchedEntityResolver getEntityResolver() {
@@ -53,6 +83,21 @@ public class QueuedTaskProcessor extends AbstractTaskProcessor implements Esi4JT
 		return _executor.submit(operation);
 	}
 
+	/**
+	 * same as {@link #execute(SerializableEsi4JOperation)} but only waits for tasks of the given keys
+	 */
+	public <T> T execute(final SerializableEsi4JOperation<T> operation, final Iterable<ObjectKey> dependencies) {
+		return _executor.submit(operation, dependencies);
+	}
+
+	/**
+	 * refresh index once all tasks submitted by the current thread were indexed, without blocking other tasks.
+	 * Concurrent calls share a single refresh.
+	 */
+	public void refresh() {
+		_executor.refresh();
+	}
+
 	/**
 	 * make sure to always call {@link #onAfterBulkIndex()} afterwards
 	 */
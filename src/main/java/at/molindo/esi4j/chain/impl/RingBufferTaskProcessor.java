@@ -0,0 +1,440 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+
+import at.molindo.esi4j.action.BulkResponseWrapper;
+import at.molindo.esi4j.chain.Esi4JBatchedEntityResolver;
+import at.molindo.esi4j.chain.Esi4JEntityTask;
+import at.molindo.esi4j.chain.Esi4JSessionEntityResolver;
+import at.molindo.esi4j.chain.Esi4JTaskProcessor;
+import at.molindo.esi4j.core.Esi4JIndex;
+import at.molindo.esi4j.core.Esi4JOperation;
+import at.molindo.esi4j.core.internal.InternalIndex;
+import at.molindo.esi4j.mapping.ObjectKey;
+import at.molindo.utils.collections.ArrayUtils;
+
+/**
+ * asynchronous {@link Esi4JTaskProcessor} backed by a preallocated ring buffer. Submitting threads replace entities,
+ * claim slots and publish tasks without locking. A single consumer thread collects published tasks into bulk requests,
+ * removing duplicates of the same entity. Compared to {@link QueuedTaskProcessor}, there is no per-transaction
+ * allocation of batches, queue nodes or maps but also no parallel processing, journaling or retries.
+ */
+public class RingBufferTaskProcessor extends AbstractTaskProcessor implements Esi4JTaskProcessor {
+
+	/**
+	 * number of slots, rounded up to a power of two, defaults to 8192. Submitting threads wait if the ring is full
+	 */
+	public static final String SETTING_RING_SIZE = "esi4j.index.executor.ring.size";
+
+	private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(RingBufferTaskProcessor.class);
+
+	private static final int DEFAULT_RING_SIZE = 8192;
+	private static final int DEFAULT_BULK_MAX_ITEMS = 1000;
+
+	/**
+	 * busy spins of consumer before yielding, yields before parking
+	 */
+	private static final int SPINS = 100;
+
+	private static final long PRODUCER_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+	private static final AtomicInteger PROCESSOR_NUMBER = new AtomicInteger();
+
+	private final Esi4JBatchedEntityResolver _entityResolver;
+
+	private final Object[] _entries;
+	/**
+	 * sequence published to each slot, written by producers, read by consumer
+	 */
+	private final AtomicLongArray _published;
+	private final int _mask;
+
+	private final AtomicLong _claimed = new AtomicLong(-1);
+	private final AtomicLong _consumed = new AtomicLong(-1);
+
+	private final Thread _consumer;
+	private volatile boolean _sleeping;
+	private volatile boolean _closed;
+
+	/*
+	 * consumer state, reused for every bulk request
+	 */
+	private final Esi4JEntityTask[] _batch;
+	private final Map<ObjectKey, Boolean> _overwritten = new HashMap<>();
+
+	public RingBufferTaskProcessor(final Esi4JIndex index, final Esi4JBatchedEntityResolver entityResolver) {
+		this(index, entityResolver, getSettings(index));
+	}
+
+	public RingBufferTaskProcessor(final Esi4JIndex index, final Esi4JBatchedEntityResolver entityResolver, final Settings settings) {
+		super(index);
+		_entityResolver = entityResolver;
+
+		final int size = settings.getAsInt(SETTING_RING_SIZE, DEFAULT_RING_SIZE);
+		if (size <= 0) {
+			throw new IllegalArgumentException(SETTING_RING_SIZE + " must be > 0, was " + size);
+		}
+		final int capacity = Integer.highestOneBit(size) == size ? size : Integer.highestOneBit(size) << 1;
+		_entries = new Object[capacity];
+		_published = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			_published.set(i, -1);
+		}
+		_mask = capacity - 1;
+
+		_batch = new Esi4JEntityTask[Math.min(capacity, settings.getAsInt(QueuedTaskExecutor.SETTING_BULK_MAX_ITEMS,
+				DEFAULT_BULK_MAX_ITEMS))];
+
+		_consumer = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				consume();
+			}
+		}, RingBufferTaskProcessor.class.getSimpleName() + "-" + PROCESSOR_NUMBER.getAndIncrement());
+		_consumer.setDaemon(true);
+		_consumer.start();
+	}
+
+	private static Settings getSettings(final Esi4JIndex index) {
+		final Settings settings = index instanceof InternalIndex ? ((InternalIndex) index).getSettings() : null;
+		return settings == null ? ImmutableSettings.EMPTY : settings;
+	}
+
+	public Esi4JBatchedEntityResolver getEntityResolver() {
+		return _entityResolver;
+	}
+
+	/**
+	 * @return number of slots
+	 */
+	public int getCapacity() {
+		return _entries.length;
+	}
+
+	/**
+	 * @return number of published entries waiting for the consumer
+	 */
+	public long getBacklog() {
+		return Math.max(0, _claimed.get() - _consumed.get());
+	}
+
+	@Override
+	public void processTasks(final Esi4JEntityTask[] tasks) {
+		if (ArrayUtils.empty(tasks)) {
+			return;
+		}
+
+		if (_entityResolver != null) {
+			for (final Esi4JEntityTask task : tasks) {
+				if (task != null) {
+					task.replaceEntity(_entityResolver);
+				}
+			}
+		}
+
+		for (int from = 0; from < tasks.length; from += _entries.length) {
+			publish(tasks, from, Math.min(tasks.length, from + _entries.length));
+		}
+	}
+
+	/**
+	 * publish non-<code>null</code> entries in range to consecutive slots
+	 */
+	private void publish(final Object[] entries, final int from, final int to) {
+		int count = 0;
+		for (int i = from; i < to; i++) {
+			if (entries[i] != null) {
+				count++;
+			}
+		}
+		if (count == 0) {
+			return;
+		}
+
+		if (_closed) {
+			throw new IllegalStateException("processor closed");
+		}
+
+		final long last = _claimed.addAndGet(count);
+		while (last - _entries.length > _consumed.get()) {
+			// ring full
+			wakeConsumer();
+			LockSupport.parkNanos(this, PRODUCER_PARK_NANOS);
+		}
+
+		long seq = last - count + 1;
+		for (int i = from; i < to; i++) {
+			if (entries[i] != null) {
+				final int slot = (int) seq & _mask;
+				_entries[slot] = entries[i];
+				_published.set(slot, seq++);
+			}
+		}
+
+		wakeConsumer();
+	}
+
+	private void wakeConsumer() {
+		if (_sleeping) {
+			LockSupport.unpark(_consumer);
+		}
+	}
+
+	private boolean isPublished(final long seq) {
+		return _published.get((int) seq & _mask) == seq;
+	}
+
+	@Override
+	public <T> T execute(final SerializableEsi4JOperation<T> operation) {
+		if (operation == null) {
+			throw new NullPointerException("operation");
+		}
+
+		final OperationEntry<T> entry = new OperationEntry<>(operation);
+		publish(new Object[] { entry }, 0, 1);
+		return entry.await();
+	}
+
+	private void consume() {
+		long next = _consumed.get() + 1;
+		while (await(next)) {
+			final Object first = _entries[(int) next & _mask];
+
+			if (first instanceof OperationEntry) {
+				release(next, next + 1);
+				next++;
+				((OperationEntry<?>) first).run(getIndex());
+			} else {
+				int size = 0;
+				long seq = next;
+				while (size < _batch.length && isPublished(seq) && _entries[(int) seq & _mask] instanceof Esi4JEntityTask) {
+					_batch[size++] = (Esi4JEntityTask) _entries[(int) seq & _mask];
+					seq++;
+				}
+				// tasks are copied, release slots before indexing
+				release(next, seq);
+				next = seq;
+
+				try {
+					index(_batch, size);
+				} catch (final RuntimeException e) {
+					log.warn("failed to index " + size + " tasks. index might be out of sync", e);
+				} finally {
+					Arrays.fill(_batch, 0, size, null);
+				}
+			}
+		}
+	}
+
+	/**
+	 * wait until seq is published
+	 *
+	 * @return false if processor was closed and all entries were consumed
+	 */
+	private boolean await(final long seq) {
+		int spins = 0;
+		while (!isPublished(seq)) {
+			if (_closed && seq > _claimed.get()) {
+				return false;
+			}
+
+			if (spins < SPINS) {
+				spins++;
+			} else if (spins < 2 * SPINS) {
+				spins++;
+				Thread.yield();
+			} else {
+				_sleeping = true;
+				if (!isPublished(seq) && !_closed) {
+					LockSupport.park(this);
+				}
+				_sleeping = false;
+			}
+		}
+		return true;
+	}
+
+	private void release(final long from, final long to) {
+		for (long seq = from; seq < to; seq++) {
+			_entries[(int) seq & _mask] = null;
+		}
+		_consumed.set(to - 1);
+	}
+
+	/**
+	 * remove duplicates, resolve entities and execute bulk request
+	 *
+	 * @param tasks
+	 *            reused array, only first size elements are valid
+	 */
+	void index(final Esi4JEntityTask[] tasks, final int size) {
+		if (_entityResolver != null) {
+			deduplicate(tasks, size);
+		}
+
+		final Esi4JSessionEntityResolver session = _entityResolver instanceof Esi4JSessionEntityResolver ? (Esi4JSessionEntityResolver) _entityResolver
+				: null;
+
+		final BulkRequestBuilder bulk;
+		if (session != null) {
+			session.startResolveSession();
+		}
+		try {
+			if (_entityResolver != null) {
+				_entityResolver.resolveEntities(tasks);
+			}
+
+			bulk = getIndex().execute(new Esi4JOperation<BulkRequestBuilder>() {
+
+				@Override
+				public BulkRequestBuilder execute(final Client client, final String indexName, final OperationContext helper) {
+					final BulkRequestBuilder bulk = client.prepareBulk();
+					for (int i = 0; i < size; i++) {
+						if (tasks[i] != null) {
+							tasks[i].addToBulk(client, bulk, indexName, helper);
+						}
+					}
+					return bulk;
+				}
+			});
+		} finally {
+			if (session != null) {
+				session.closeResolveSession();
+			}
+		}
+
+		if (bulk.numberOfActions() == 0) {
+			return;
+		}
+
+		final BulkResponseWrapper response = getIndex()
+				.executeBulk(new Esi4JOperation<ListenableActionFuture<BulkResponse>>() {
+
+					@Override
+					public ListenableActionFuture<BulkResponse> execute(final Client client, final String indexName, final OperationContext helper) {
+						return bulk.execute();
+					}
+				}).actionGet();
+
+		if (response.getBulkResponse().hasFailures()) {
+			for (final BulkItemResponse item : response.getBulkResponse()) {
+				if (item.isFailed() && BulkFailureType.classify(item.getFailure()) != BulkFailureType.VERSION_CONFLICT) {
+					log.warn("failed to index item " + item.getType() + "#" + item.getId() + ": "
+							+ item.getFailureMessage() + ". index might be out of sync");
+				}
+			}
+		}
+
+		if (log.isDebugEnabled()) {
+			log.debug("finished bulk indexing " + response.getBulkResponse().getItems().length + " items");
+		}
+	}
+
+	/**
+	 * same as {@link QueuedTaskExecutor#resolveDuplicates(Esi4JEntityTask[], at.molindo.utils.collections.ListMap)}
+	 * without allocating lists: every task before the last non-update task of an entity is removed
+	 */
+	void deduplicate(final Esi4JEntityTask[] tasks, final int size) {
+		try {
+			for (int i = size - 1; i >= 0; i--) {
+				final ObjectKey key = tasks[i].toObjectKey(_entityResolver);
+				final Boolean overwritten = _overwritten.get(key);
+				if (Boolean.TRUE.equals(overwritten)) {
+					tasks[i] = null;
+				} else if (!tasks[i].isUpdate()) {
+					_overwritten.put(key, Boolean.TRUE);
+				} else if (overwritten == null) {
+					_overwritten.put(key, Boolean.FALSE);
+				}
+			}
+		} finally {
+			_overwritten.clear();
+		}
+	}
+
+	@Override
+	public void close() {
+		_closed = true;
+		LockSupport.unpark(_consumer);
+		try {
+			_consumer.join(TimeUnit.SECONDS.toMillis(60));
+			if (_consumer.isAlive()) {
+				log.warn("consumer still running after close");
+			}
+		} catch (final InterruptedException e) {
+			log.warn("waiting for termination of consumer interrupted", e);
+		}
+		super.close();
+	}
+
+	/**
+	 * an operation waiting for its execution by the consumer
+	 */
+	private static final class OperationEntry<T> {
+
+		private final SerializableEsi4JOperation<T> _operation;
+		private final CountDownLatch _done = new CountDownLatch(1);
+
+		private T _value;
+		private RuntimeException _exception;
+
+		private OperationEntry(final SerializableEsi4JOperation<T> operation) {
+			_operation = operation;
+		}
+
+		private void run(final Esi4JIndex index) {
+			try {
+				_value = index.execute(_operation);
+			} catch (final RuntimeException e) {
+				_exception = e;
+			} finally {
+				_done.countDown();
+			}
+		}
+
+		private T await() {
+			try {
+				_done.await();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+			if (_exception != null) {
+				throw _exception;
+			}
+			return _value;
+		}
+	}
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesArray;
+
+import at.molindo.esi4j.chain.Esi4JEntityResolver;
+import at.molindo.esi4j.chain.Esi4JEntityTask;
+import at.molindo.esi4j.core.Esi4JOperation.OperationContext;
+import at.molindo.esi4j.ex.EntityNotResolveableException;
+import at.molindo.esi4j.mapping.ObjectKey;
+import at.molindo.esi4j.mapping.SourceBuffer;
+import at.molindo.esi4j.mapping.TypeMapping;
+
+/**
+ * indexes a source serialized on the committing thread, hence the entity doesn't need to be resolved again. Tasks that
+ * weren't serialized, e.g. after recovery from {@link TaskJournal}, resolve and index the entity like
+ * {@link IndexEntityTask}.
+ *
+ * @see DefaultBatchedEventProcessor#setEagerSerialization(Class, boolean)
+ */
+public final class SerializedIndexEntityTask extends AbstractEntityTask {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * entity kept by {@link #replaceEntity(Esi4JEntityResolver)} until {@link #serialize(OperationContext)}
+	 */
+	private transient Object _object;
+
+	private boolean _serialized;
+	private String _typeAlias;
+	private String _id;
+	private Long _version;
+
+	/**
+	 * <code>null</code> if entity is filtered
+	 */
+	private byte[] _source;
+
+	public SerializedIndexEntityTask(final Object entity) {
+		super(entity);
+	}
+
+	@Override
+	public boolean isUpdate() {
+		return false;
+	}
+
+	@Override
+	protected void initClone(final Esi4JEntityTask clone) {
+	}
+
+	@Override
+	public void replaceEntity(final Esi4JEntityResolver entityResolver) {
+		if (!(getEntity() instanceof ObjectKey)) {
+			_object = getEntity();
+			setEntity(entityResolver.replaceEntity(_object));
+		}
+	}
+
+	/**
+	 * serialize entity kept by {@link #replaceEntity(Esi4JEntityResolver)}, must be called on the committing thread
+	 *
+	 * @return <code>false</code> if there was no entity to serialize
+	 */
+	boolean serialize(final OperationContext context) {
+		final Object o = _object;
+		if (o == null) {
+			return false;
+		}
+
+		final TypeMapping mapping = context.findTypeMapping(o);
+		_typeAlias = mapping.getTypeAlias();
+		_id = mapping.getIdString(o);
+		_version = mapping.getVersion(o);
+		_source = mapping.isFiltered(o) ? null : mapping.getObjectSource(o).getSource().toBytes();
+		_serialized = true;
+		_object = null;
+
+		return true;
+	}
+
+	boolean isSerialized() {
+		return _serialized;
+	}
+
+	/**
+	 * @return length of serialized source, 0 if not serialized or filtered
+	 */
+	int getSourceLength() {
+		return _source == null ? 0 : _source.length;
+	}
+
+	@Override
+	public void resolveEntity(final Esi4JEntityResolver entityResolver) throws EntityNotResolveableException {
+		if (!_serialized) {
+			setEntity(entityResolver.resolveEntity(getEntity()));
+		}
+	}
+
+	@Override
+	public void addToBulk(final Client client, final BulkRequestBuilder bulk, final String indexName, final OperationContext context) {
+		addToBulk(client, bulk, indexName, context, null);
+	}
+
+	@Override
+	void addToBulk(final Client client, final BulkRequestBuilder bulk, final String indexName, final OperationContext context, final SourceBuffer buffer) {
+		if (_serialized) {
+			final TypeMapping mapping = context.findTypeMapping(indexName, _typeAlias);
+			if (_source != null) {
+				bulk.add(mapping.indexBuilderRequest(client, indexName, _id, _version, new BytesArray(_source)));
+			} else {
+				final DeleteRequest delete = mapping.deleteBuilderRequest(client, indexName, _id, _version);
+				if (delete != null) {
+					bulk.add(delete);
+				}
+			}
+		} else {
+			final Object entity = getEntity();
+			if (entity != null) {
+				IndexEntityTask.addToBulk(client, bulk, indexName, context.findTypeMapping(entity), entity, buffer);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import at.molindo.esi4j.chain.Esi4JEntityTask;
+import at.molindo.esi4j.chain.Esi4JTaskPriority;
+import at.molindo.esi4j.mapping.ObjectKey;
+
+/**
+ * compact, append-only buffer of tasks after {@link Esi4JEntityTask#replaceEntity(at.molindo.esi4j.chain.Esi4JEntityResolver)}
+ * was called. Plain index and delete tasks are encoded as type number and id, all other tasks are serialized. Once
+ * the encoded tasks exceed the threshold, the buffer spills to a temporary file. Not thread-safe.
+ */
+final class TaskBuffer implements Closeable {
+
+	private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TaskBuffer.class);
+
+	private static final byte OP_INDEX = 0;
+	private static final byte OP_DELETE = 1;
+	private static final byte OP_SERIALIZED = 2;
+
+	private static final byte NO_PRIORITY = -1;
+
+	private final long _threshold;
+	private final File _dir;
+
+	private final Map<Class<?>, Integer> _typeIds = Maps.newHashMap();
+	private final List<Class<?>> _types = Lists.newArrayList();
+
+	private ByteArrayOutputStream _bytes;
+	private File _file;
+	private DataOutputStream _out;
+
+	private int _size;
+
+	/**
+	 * @param threshold
+	 *            number of bytes to keep on heap, negative to never spill
+	 * @param dir
+	 *            directory for spill file or <code>null</code> to use the default temporary-file directory
+	 */
+	TaskBuffer(final long threshold, final File dir) {
+		_threshold = threshold;
+		_dir = dir;
+		clear();
+	}
+
+	void add(final Esi4JEntityTask task) throws IOException {
+		final Class<?> taskType = task.getClass();
+		final Object entity = taskType == IndexEntityTask.class || taskType == DeleteEntityTask.class ? ((AbstractEntityTask) task)
+				.getEntity() : null;
+
+		if (entity instanceof ObjectKey) {
+			final ObjectKey key = (ObjectKey) entity;
+			final Esi4JTaskPriority priority = ((AbstractEntityTask) task).getPriority();
+
+			_out.writeByte(taskType == DeleteEntityTask.class ? OP_DELETE : OP_INDEX);
+			_out.writeByte(priority == null ? NO_PRIORITY : priority.ordinal());
+			_out.writeInt(typeId(key.getType()));
+			ObjectKeyCodec.writeId(_out, key.getId());
+
+			final Long version = key.getVersion();
+			_out.writeBoolean(version != null);
+			if (version != null) {
+				_out.writeLong(version);
+			}
+		} else {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (ObjectOutputStream oout = new ObjectOutputStream(bytes)) {
+				oout.writeObject(task);
+			}
+			_out.writeByte(OP_SERIALIZED);
+			_out.writeInt(bytes.size());
+			bytes.writeTo(_out);
+		}
+		_size++;
+
+		if (_bytes != null && _threshold >= 0 && _bytes.size() > _threshold) {
+			spill();
+		}
+	}
+
+	private int typeId(final Class<?> type) {
+		Integer id = _typeIds.get(type);
+		if (id == null) {
+			_typeIds.put(type, id = _types.size());
+			_types.add(type);
+		}
+		return id;
+	}
+
+	private void spill() throws IOException {
+		_file = File.createTempFile("esi4j-session-", ".tasks", _dir);
+
+		_out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(_file)));
+		_bytes.writeTo(_out);
+		_bytes = null;
+	}
+
+	/**
+	 * @return all tasks in order of {@link #add(Esi4JEntityTask)}
+	 */
+	Esi4JEntityTask[] toArray() throws IOException {
+		_out.flush();
+
+		final Esi4JEntityTask[] tasks = new Esi4JEntityTask[_size];
+		try (DataInputStream in = new DataInputStream(open())) {
+			for (int i = 0; i < tasks.length; i++) {
+				tasks[i] = read(in);
+			}
+		}
+		return tasks;
+	}
+
+	private InputStream open() throws IOException {
+		return _bytes != null ? new ByteArrayInputStream(_bytes.toByteArray()) : new BufferedInputStream(new FileInputStream(_file));
+	}
+
+	private Esi4JEntityTask read(final DataInputStream in) throws IOException {
+		try {
+			final byte op = in.readByte();
+			if (op == OP_SERIALIZED) {
+				final byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				try (ObjectInputStream oin = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+					return (Esi4JEntityTask) oin.readObject();
+				}
+			}
+
+			final byte priority = in.readByte();
+			final Class<?> type = _types.get(in.readInt());
+			final ObjectKey key = new ObjectKey(type, ObjectKeyCodec.readId(in), in.readBoolean() ? in.readLong() : null);
+
+			final AbstractEntityTask task = op == OP_DELETE ? new DeleteEntityTask(key) : new IndexEntityTask(key);
+			if (priority != NO_PRIORITY) {
+				task.setPriority(Esi4JTaskPriority.values()[priority]);
+			}
+			return task;
+		} catch (final ClassNotFoundException e) {
+			// classes were loaded when writing tasks
+			throw new IOException("failed to read task", e);
+		}
+	}
+
+	/**
+	 * @return number of buffered tasks
+	 */
+	int size() {
+		return _size;
+	}
+
+	/**
+	 * @return <code>true</code> if tasks were spilled to a temporary file
+	 */
+	boolean isSpilled() {
+		return _file != null;
+	}
+
+	/**
+	 * remove all tasks and delete spill file if any
+	 */
+	void clear() {
+		close();
+		_bytes = new ByteArrayOutputStream();
+		_out = new DataOutputStream(_bytes);
+		_typeIds.clear();
+		_types.clear();
+		_size = 0;
+	}
+
+	@Override
+	public void close() {
+		if (_file != null) {
+			try {
+				_out.close();
+			} catch (final IOException e) {
+				// ignore, deleting anyway
+			}
+			if (!_file.delete()) {
+				log.warn("failed to delete task buffer " + _file);
+			}
+			_file = null;
+		}
+		_bytes = null;
+		_out = null;
+	}
+}
@@ -0,0 +1,277 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+
+import com.google.common.collect.Maps;
+
+import at.molindo.esi4j.chain.Esi4JEntityTask;
+import at.molindo.esi4j.chain.Esi4JTaskPriority;
+import at.molindo.esi4j.core.Esi4JIndex;
+import at.molindo.esi4j.core.Esi4JOperation;
+import at.molindo.esi4j.mapping.ObjectKey;
+
+/**
+ * keeps track of queued but not yet dispatched {@link Esi4JEntityTask}s by {@link ObjectKey}, spanning all queued
+ * batches of a {@link QueuedTaskExecutor}. A later task for the same key supersedes the pending one if it isn't an
+ * update (same semantics as {@link QueuedTaskExecutor#resolveDuplicates(Esi4JEntityTask[], at.molindo.utils.collections.ListMap)}
+ * but across transactions). Hot types might linger for a while before they are dispatched to improve the chance of
+ * coalescing. Types might also have a {@link Esi4JTaskPriority} other than {@link Esi4JTaskPriority#REALTIME}.
+ */
+public final class TaskCoalescer {
+
+	/**
+	 * linger delay per type alias, e.g. <code>esi4j.index.executor.linger.tweet: 500ms</code>
+	 */
+	public static final String SETTING_LINGER_PREFIX = "esi4j.index.executor.linger.";
+
+	/**
+	 * priority per type alias, e.g. <code>esi4j.index.executor.priority.logentry: backfill</code>
+	 */
+	public static final String SETTING_PRIORITY_PREFIX = "esi4j.index.executor.priority.";
+
+	private static final Long NO_LINGER = 0L;
+
+	/**
+	 * a queued batch of tasks
+	 */
+	interface Batch {
+
+		/**
+		 * replace the task at the given index unless batch was already dispatched
+		 *
+		 * @param seq
+		 *            {@link TaskJournal} sequence number of task or {@link TaskJournal#NO_SEQ}
+		 * @return true if task was replaced
+		 */
+		boolean replace(int index, Esi4JEntityTask task, long seq);
+
+		/**
+		 * @return priority of all tasks in this batch
+		 */
+		Esi4JTaskPriority getPriority();
+	}
+
+	private final Esi4JIndex _index;
+	private final Settings _settings;
+
+	private final ConcurrentMap<ObjectKey, Slot> _pending = Maps.newConcurrentMap();
+	private final ConcurrentMap<Class<?>, String> _typeAliases = Maps.newConcurrentMap();
+	private final ConcurrentMap<Class<?>, Long> _lingerMillis = Maps.newConcurrentMap();
+	private final ConcurrentMap<Class<?>, Esi4JTaskPriority> _priorities = Maps.newConcurrentMap();
+
+	private final AtomicLong _coalesced = new AtomicLong();
+
+	/**
+	 * false if no linger delay is configured at all, avoids looking up type aliases
+	 */
+	private volatile boolean _linger;
+
+	/**
+	 * false if no priority is configured at all
+	 */
+	private volatile boolean _priority;
+
+	public TaskCoalescer(final Esi4JIndex index, final Settings settings) {
+		if (index == null) {
+			throw new NullPointerException("index");
+		}
+		if (settings == null) {
+			throw new NullPointerException("settings");
+		}
+		_index = index;
+		_settings = settings;
+		_linger = !settings.getByPrefix(SETTING_LINGER_PREFIX).getAsMap().isEmpty();
+		_priority = !settings.getByPrefix(SETTING_PRIORITY_PREFIX).getAsMap().isEmpty();
+	}
+
+	/**
+	 * replace a pending task for the same key with this task
+	 *
+	 * @return batch now containing this task if a pending task was superseded (i.e. the task must not be queued
+	 *         again), <code>null</code> otherwise
+	 */
+	Batch supersede(final ObjectKey key, final Esi4JEntityTask task, final long seq) {
+		if (task.isUpdate()) {
+			// updates depend on previous state
+			return null;
+		}
+
+		final Slot slot = _pending.get(key);
+		if (slot != null && slot._batch.replace(slot._index, task, seq)) {
+			_coalesced.incrementAndGet();
+			return slot._batch;
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * register a queued task
+	 */
+	void queued(final ObjectKey key, final Batch batch, final int index) {
+		_pending.put(key, new Slot(batch, index));
+	}
+
+	/**
+	 * unregister a task that is about to be dispatched
+	 */
+	void dispatched(final ObjectKey key, final Batch batch, final int index) {
+		_pending.remove(key, new Slot(batch, index));
+	}
+
+	/**
+	 * @return priority of a queued task for this key, <code>null</code> if there is none. Tasks for this key must use
+	 *         the same priority to keep their order.
+	 */
+	Esi4JTaskPriority getPendingPriority(final ObjectKey key) {
+		final Slot slot = _pending.get(key);
+		return slot == null ? null : slot._batch.getPriority();
+	}
+
+	/**
+	 * @return linger delay in milliseconds for tasks of this type, 0 to dispatch immediately
+	 */
+	long getLingerMillis(final Class<?> type) {
+		if (!_linger) {
+			return NO_LINGER;
+		}
+
+		Long linger = _lingerMillis.get(type);
+		if (linger == null) {
+			final TimeValue value = _settings.getAsTime(SETTING_LINGER_PREFIX + getTypeAlias(type), null);
+			linger = value == null ? NO_LINGER : value.millis();
+
+			final Long prev = _lingerMillis.putIfAbsent(type, linger);
+			if (prev != null) {
+				linger = prev;
+			}
+		}
+		return linger;
+	}
+
+	/**
+	 * @return priority of tasks of this type
+	 */
+	Esi4JTaskPriority getPriority(final Class<?> type) {
+		if (!_priority) {
+			return Esi4JTaskPriority.REALTIME;
+		}
+
+		Esi4JTaskPriority priority = _priorities.get(type);
+		if (priority == null) {
+			final String value = _settings.get(SETTING_PRIORITY_PREFIX + getTypeAlias(type));
+			priority = value == null ? Esi4JTaskPriority.REALTIME : Esi4JTaskPriority.valueOf(value.toUpperCase());
+
+			final Esi4JTaskPriority prev = _priorities.putIfAbsent(type, priority);
+			if (prev != null) {
+				priority = prev;
+			}
+		}
+		return priority;
+	}
+
+	/**
+	 * @return alias of mapped type, class name of types that are only dependencies of mapped types
+	 */
+	private String getTypeAlias(final Class<?> type) {
+		String typeAlias = _typeAliases.get(type);
+		if (typeAlias == null) {
+			if (!_index.isMapped(type)) {
+				typeAlias = type.getName();
+			} else {
+				typeAlias = _index.execute(new Esi4JOperation<String>() {
+
+					@Override
+					public String execute(final Client client, final String indexName, final OperationContext helper) {
+						return helper.findTypeMapping(type).getTypeAlias();
+					}
+				});
+			}
+			_typeAliases.put(type, typeAlias);
+		}
+		return typeAlias;
+	}
+
+	/**
+	 * overrides priority configured in settings
+	 */
+	public void setPriority(final Class<?> type, final Esi4JTaskPriority priority) {
+		if (priority == null) {
+			throw new NullPointerException("priority");
+		}
+		_priorities.put(type, priority);
+		_priority = true;
+	}
+
+	/**
+	 * overrides linger delay configured in settings
+	 */
+	public void setLinger(final Class<?> type, final long linger, final TimeUnit unit) {
+		_lingerMillis.put(type, unit.toMillis(linger));
+		_linger = true;
+	}
+
+	/**
+	 * @return number of currently pending keys
+	 */
+	public int getPendingKeys() {
+		return _pending.size();
+	}
+
+	/**
+	 * @return number of tasks that superseded an already queued task
+	 */
+	public long getCoalesced() {
+		return _coalesced.get();
+	}
+
+	private static final class Slot {
+
+		private final Batch _batch;
+		private final int _index;
+
+		private Slot(final Batch batch, final int index) {
+			_batch = batch;
+			_index = index;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(_batch) + _index;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Slot)) {
+				return false;
+			}
+			final Slot other = (Slot) obj;
+			return _batch == other._batch && _index == other._index;
+		}
+
+	}
+}
@@ -0,0 +1,548 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+
+import at.molindo.esi4j.chain.Esi4JEntityResolver;
+import at.molindo.esi4j.chain.Esi4JEntityTask;
+import at.molindo.esi4j.mapping.ObjectKey;
+
+/**
+ * append-only journal of queued {@link Esi4JEntityTask}s, stored as {@link ObjectKey}s in memory-mapped segment files.
+ * Each entry gets a sequence number that is acknowledged once its task was indexed. Unacknowledged entries of a
+ * previous run are recovered when the journal is opened. Segments are deleted as soon as they and all older segments
+ * are fully acknowledged.
+ *
+ * Updates are journaled as index operations, i.e. they are replayed as full reindex of the entity.
+ */
+public final class TaskJournal implements Closeable {
+
+	/**
+	 * directory of journal, enables journaling. Each index uses a sub-directory named after the index
+	 */
+	public static final String SETTING_PATH = "esi4j.index.executor.journal.path";
+	public static final String SETTING_SEGMENT_SIZE = "esi4j.index.executor.journal.segment_size";
+	/**
+	 * force changes to disk after each write. Without, entries survive a crash of the JVM but not of the OS
+	 */
+	public static final String SETTING_SYNC = "esi4j.index.executor.journal.sync";
+
+	static final long NO_SEQ = -1;
+
+	private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TaskJournal.class);
+
+	private static final ByteSizeValue DEFAULT_SEGMENT_SIZE = new ByteSizeValue(16, ByteSizeUnit.MB);
+
+	private static final String SUFFIX = ".journal";
+	private static final String LOCK_FILE = "lock";
+
+	private static final byte OP_INDEX = 0;
+	private static final byte OP_DELETE = 1;
+	private static final byte OP_ACK = 2;
+	private static final byte OP_PROPAGATE = 3;
+
+	/**
+	 * maximum number of sequence numbers per ack record
+	 */
+	private static final int MAX_ACKS = 1024;
+
+	/**
+	 * length and checksum
+	 */
+	private static final int RECORD_HEADER = 8;
+
+	private final File _dir;
+	private final int _segmentSize;
+	private final boolean _sync;
+
+	private final RandomAccessFile _lockFile;
+	private final FileLock _lock;
+
+	/**
+	 * oldest first
+	 */
+	private final ArrayDeque<Segment> _segments = new ArrayDeque<>();
+	private Segment _current;
+	private long _segmentNumber;
+	private long _nextSeq;
+
+	private Recovery _recovery;
+
+	private final ByteArrayOutputStream _bytes = new ByteArrayOutputStream(256);
+	private final DataOutputStream _out = new DataOutputStream(_bytes);
+	private final CRC32 _crc = new CRC32();
+
+	private long _appended;
+	private long _acknowledged;
+	private long _pending;
+
+	/**
+	 * @return journal for this index or <code>null</code> if journaling isn't enabled
+	 */
+	static TaskJournal open(final Settings settings, final String indexName) {
+		final String path = settings.get(SETTING_PATH);
+		if (path == null) {
+			return null;
+		}
+
+		final File dir = new File(path, indexName);
+		final ByteSizeValue segmentSize = settings.getAsBytesSize(SETTING_SEGMENT_SIZE, DEFAULT_SEGMENT_SIZE);
+		try {
+			return new TaskJournal(dir, (int) Math.min(Integer.MAX_VALUE, segmentSize.bytes()), settings.getAsBoolean(SETTING_SYNC, false));
+		} catch (final IOException e) {
+			throw new RuntimeException("failed to open journal in " + dir, e);
+		}
+	}
+
+	public TaskJournal(final File dir, final int segmentSize, final boolean sync) throws IOException {
+		if (dir == null) {
+			throw new NullPointerException("dir");
+		}
+		if (segmentSize < 1024) {
+			throw new IllegalArgumentException("segmentSize must be >= 1024, was " + segmentSize);
+		}
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("failed to create directory " + dir);
+		}
+		_dir = dir;
+		_segmentSize = segmentSize;
+		_sync = sync;
+
+		_lockFile = new RandomAccessFile(new File(dir, LOCK_FILE), "rw");
+		_lock = _lockFile.getChannel().tryLock();
+		if (_lock == null) {
+			_lockFile.close();
+			throw new IOException("journal already in use: " + dir);
+		}
+
+		recover();
+		roll();
+	}
+
+	/**
+	 * read existing segments, keeping unacknowledged entries for {@link #takeRecovery()}
+	 */
+	private void recover() throws IOException {
+		final File[] files = _dir.listFiles(new FilenameFilter() {
+
+			@Override
+			public boolean accept(final File dir, final String name) {
+				return name.endsWith(SUFFIX);
+			}
+		});
+		Arrays.sort(files);
+
+		final Map<Long, Entry> entries = new LinkedHashMap<>();
+		for (final File file : files) {
+			final Segment segment = new Segment(file, _nextSeq);
+			_segments.add(segment);
+			_segmentNumber = Math.max(_segmentNumber, segmentNumber(file) + 1);
+
+			for (final byte[] record : readRecords(file)) {
+				final DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+				final byte op = in.readByte();
+				if (op == OP_ACK) {
+					final int count = in.readInt();
+					for (int i = 0; i < count; i++) {
+						entries.remove(in.readLong());
+					}
+				} else {
+					final long seq = in.readLong();
+					_nextSeq = Math.max(_nextSeq, seq + 1);
+					try {
+						entries.put(seq, new Entry(op, ObjectKeyCodec.read(in), segment));
+					} catch (final ClassNotFoundException e) {
+						log.warn("dropping journal entry of unknown class: " + e.getMessage());
+					}
+				}
+			}
+		}
+
+		final Esi4JEntityTask[] tasks = new Esi4JEntityTask[entries.size()];
+		final long[] seqs = new long[entries.size()];
+
+		int i = 0;
+		for (final Map.Entry<Long, Entry> e : entries.entrySet()) {
+			final Entry entry = e.getValue();
+			entry._segment._pending++;
+			seqs[i] = e.getKey();
+			tasks[i] = task(entry._op, entry._key);
+			i++;
+		}
+		_pending = entries.size();
+		_recovery = new Recovery(tasks, seqs);
+
+		if (entries.size() > 0) {
+			log.info("recovered " + entries.size() + " unacknowledged tasks from journal " + _dir);
+		}
+	}
+
+	/**
+	 * @return valid records of a segment, stops at the first empty or corrupt record
+	 */
+	private Iterable<byte[]> readRecords(final File file) throws IOException {
+		final List<byte[]> records = new ArrayList<>();
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			final MappedByteBuffer buffer = raf.getChannel().map(MapMode.READ_ONLY, 0, raf.length());
+			final CRC32 crc = new CRC32();
+
+			while (buffer.remaining() >= RECORD_HEADER) {
+				final int length = buffer.getInt();
+				final int checksum = buffer.getInt();
+				if (length <= 0 || length > buffer.remaining()) {
+					break;
+				}
+
+				final byte[] record = new byte[length];
+				buffer.get(record);
+
+				crc.reset();
+				crc.update(record, 0, length);
+				if ((int) crc.getValue() != checksum) {
+					log.warn("corrupt record in journal segment " + file + ", ignoring remainder");
+					break;
+				}
+				records.add(record);
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * tasks recovered from a previous run. Their sequence numbers must be acknowledged as usual.
+	 *
+	 * @return recovered tasks, <code>null</code> if already taken
+	 */
+	synchronized Recovery takeRecovery() {
+		final Recovery recovery = _recovery;
+		_recovery = null;
+		return recovery;
+	}
+
+	/**
+	 * append tasks after {@link Esi4JEntityTask#replaceEntity(Esi4JEntityResolver)} was called
+	 *
+	 * @return sequence numbers of tasks, {@link #NO_SEQ} for <code>null</code> tasks or if appending failed
+	 */
+	synchronized long[] append(final Esi4JEntityTask[] tasks, final Esi4JEntityResolver resolver) {
+		final long[] seqs = new long[tasks.length];
+		Arrays.fill(seqs, NO_SEQ);
+
+		for (int i = 0; i < tasks.length; i++) {
+			final Esi4JEntityTask task = tasks[i];
+			if (task != null) {
+				final long seq = _nextSeq;
+				try {
+					_bytes.reset();
+					_out.writeByte(op(task));
+					_out.writeLong(seq);
+					ObjectKeyCodec.write(_out, task.toObjectKey(resolver));
+
+					if (write()) {
+						_nextSeq++;
+						_current._pending++;
+						_pending++;
+						_appended++;
+						seqs[i] = seq;
+					}
+				} catch (final IOException e) {
+					log.warn("failed to append task to journal", e);
+				}
+			}
+		}
+		sync();
+		return seqs;
+	}
+
+	private static byte op(final Esi4JEntityTask task) {
+		if (task instanceof DeleteEntityTask) {
+			return OP_DELETE;
+		} else if (task instanceof PropagateEntityTask) {
+			return OP_PROPAGATE;
+		} else {
+			return OP_INDEX;
+		}
+	}
+
+	private static Esi4JEntityTask task(final byte op, final ObjectKey key) {
+		switch (op) {
+		case OP_DELETE:
+			return new DeleteEntityTask(key);
+		case OP_PROPAGATE:
+			return new PropagateEntityTask(key);
+		default:
+			return new IndexEntityTask(key);
+		}
+	}
+
+	/**
+	 * acknowledge indexed tasks, ignores {@link #NO_SEQ}
+	 */
+	synchronized void acknowledge(final long... seqs) {
+		final long[] acks = new long[seqs.length];
+		int count = 0;
+		for (final long seq : seqs) {
+			if (seq != NO_SEQ) {
+				acks[count++] = seq;
+			}
+		}
+		if (count == 0) {
+			return;
+		}
+
+		try {
+			for (int from = 0; from < count; from += MAX_ACKS) {
+				final int to = Math.min(count, from + MAX_ACKS);
+
+				_bytes.reset();
+				_out.writeByte(OP_ACK);
+				_out.writeInt(to - from);
+				for (int i = from; i < to; i++) {
+					_out.writeLong(acks[i]);
+				}
+				write();
+			}
+			sync();
+		} catch (final IOException e) {
+			log.warn("failed to append acknowledgement to journal", e);
+		}
+
+		for (int i = 0; i < count; i++) {
+			final Segment segment = segment(acks[i]);
+			if (segment != null) {
+				segment._pending--;
+				_pending--;
+				_acknowledged++;
+			}
+		}
+		deleteAcknowledged();
+	}
+
+	/**
+	 * @return segment containing the entry of this sequence number, <code>null</code> if already deleted
+	 */
+	private Segment segment(final long seq) {
+		final Iterator<Segment> iter = _segments.descendingIterator();
+		while (iter.hasNext()) {
+			final Segment segment = iter.next();
+			if (segment._firstSeq <= seq) {
+				return segment;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * write current record to current segment, rolling segments if necessary
+	 *
+	 * @return false if record exceeds segment size
+	 */
+	private boolean write() throws IOException {
+		final int length = _bytes.size();
+		if (length + RECORD_HEADER > _segmentSize) {
+			log.warn("journal record of " + length + " bytes exceeds segment size, not journaled");
+			return false;
+		}
+
+		if (_current._buffer.remaining() < length + RECORD_HEADER) {
+			roll();
+		}
+
+		final byte[] record = _bytes.toByteArray();
+		_crc.reset();
+		_crc.update(record, 0, length);
+
+		_current._buffer.putInt(length);
+		_current._buffer.putInt((int) _crc.getValue());
+		_current._buffer.put(record);
+		return true;
+	}
+
+	private void sync() {
+		if (_sync) {
+			_current._buffer.force();
+		}
+	}
+
+	/**
+	 * start a new segment
+	 */
+	private void roll() throws IOException {
+		if (_current != null) {
+			_current.close(true);
+		}
+
+		final File file = new File(_dir, String.format("%016d", _segmentNumber++) + SUFFIX);
+		_current = new Segment(file, _nextSeq);
+		_current.open(_segmentSize);
+		_segments.add(_current);
+
+		deleteAcknowledged();
+	}
+
+	/**
+	 * delete fully acknowledged segments, oldest first
+	 */
+	private void deleteAcknowledged() {
+		Segment segment;
+		while ((segment = _segments.peekFirst()) != null && segment != _current && segment._pending <= 0) {
+			_segments.removeFirst();
+			segment.close(false);
+			if (!segment._file.delete()) {
+				log.warn("failed to delete journal segment " + segment._file);
+			}
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		if (_current != null) {
+			_current.close(true);
+			_current = null;
+		}
+		try {
+			_lock.release();
+			_lockFile.close();
+		} catch (final IOException e) {
+			log.warn("failed to release journal lock", e);
+		}
+	}
+
+	private static long segmentNumber(final File file) {
+		final String name = file.getName();
+		try {
+			return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+		} catch (final NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	public File getDirectory() {
+		return _dir;
+	}
+
+	/**
+	 * @return number of segment files
+	 */
+	public synchronized int getSegments() {
+		return _segments.size();
+	}
+
+	/**
+	 * @return number of unacknowledged entries
+	 */
+	public synchronized long getPending() {
+		return _pending;
+	}
+
+	public synchronized long getAppended() {
+		return _appended;
+	}
+
+	public synchronized long getAcknowledged() {
+		return _acknowledged;
+	}
+
+	private static final class Segment {
+
+		private final File _file;
+
+		/**
+		 * entries in this segment have sequence numbers &gt;= firstSeq, entries of older segments &lt; firstSeq
+		 */
+		private final long _firstSeq;
+		private int _pending;
+
+		private RandomAccessFile _raf;
+		private MappedByteBuffer _buffer;
+
+		private Segment(final File file, final long firstSeq) {
+			_file = file;
+			_firstSeq = firstSeq;
+		}
+
+		private void open(final int size) throws IOException {
+			_raf = new RandomAccessFile(_file, "rw");
+			_raf.setLength(size);
+			_buffer = _raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+
+		private void close(final boolean force) {
+			if (_raf != null) {
+				if (force) {
+					_buffer.force();
+				}
+				try {
+					_raf.close();
+				} catch (final IOException e) {
+					log.warn("failed to close journal segment " + _file, e);
+				}
+				_raf = null;
+				_buffer = null;
+			}
+		}
+	}
+
+	static final class Recovery {
+
+		final Esi4JEntityTask[] _tasks;
+		final long[] _seqs;
+
+		private Recovery(final Esi4JEntityTask[] tasks, final long[] seqs) {
+			_tasks = tasks;
+			_seqs = seqs;
+		}
+	}
+
+	private static final class Entry {
+
+		private final byte _op;
+		private final ObjectKey _key;
+		private final Segment _segment;
+
+		private Entry(final byte op, final ObjectKey key, final Segment segment) {
+			_op = op;
+			_key = key;
+			_segment = segment;
+		}
+	}
+}
@@ -0,0 +1,338 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+
+import at.molindo.esi4j.chain.Esi4JEntityTask;
+import at.molindo.esi4j.chain.Esi4JOverflowSink;
+import at.molindo.esi4j.mapping.ObjectKey;
+
+/**
+ * bounds the number and estimated size of {@link Esi4JEntityTask}s queued by a {@link QueuedTaskExecutor}. What
+ * happens if the bound is reached is decided by the configured {@link OverflowPolicy}.
+ */
+public final class TaskQueueBound {
+
+	public static final String SETTING_MAX_TASKS = "esi4j.index.executor.queue.max_tasks";
+	public static final String SETTING_MAX_BYTES = "esi4j.index.executor.queue.max_bytes";
+	public static final String SETTING_OVERFLOW = "esi4j.index.executor.queue.overflow";
+	public static final String SETTING_BLOCK_TIMEOUT = "esi4j.index.executor.queue.block_timeout";
+
+	private static final TimeValue DEFAULT_BLOCK_TIMEOUT = TimeValue.timeValueSeconds(30);
+
+	/**
+	 * rough size of a replaced task: the task itself, an {@link ObjectKey}, its version and a boxed numeric id
+	 */
+	private static final long TASK_BYTES = 96;
+
+	/**
+	 * size assumed for tasks that still reference their entity (i.e. no entity resolver available)
+	 */
+	private static final long ENTITY_TASK_BYTES = 1024;
+
+	public enum OverflowPolicy {
+		/**
+		 * block the submitting thread until there is enough space or a timeout occurs
+		 */
+		BLOCK,
+		/**
+		 * merge tasks into the last queued batch, resolving duplicates. Falls back to {@link #BLOCK} if merging
+		 * doesn't free enough space
+		 */
+		COALESCE,
+		/**
+		 * pass tasks to an {@link Esi4JOverflowSink}
+		 */
+		SINK;
+	}
+
+	private final int _maxTasks;
+	private final long _maxBytes;
+	private final OverflowPolicy _policy;
+	private final long _blockTimeoutNanos;
+
+	private final ReentrantLock _lock = new ReentrantLock();
+	private final Condition _released = _lock.newCondition();
+
+	private int _tasks = 0;
+	private long _bytes = 0;
+
+	private final AtomicLong _blocked = new AtomicLong();
+	private final AtomicLong _blockedNanos = new AtomicLong();
+	private final AtomicLong _blockTimeouts = new AtomicLong();
+	private final AtomicLong _coalescedBatches = new AtomicLong();
+	private final AtomicLong _coalescedTasks = new AtomicLong();
+	private final AtomicLong _overflowBatches = new AtomicLong();
+	private final AtomicLong _overflowTasks = new AtomicLong();
+	private final AtomicLong _droppedTasks = new AtomicLong();
+
+	public TaskQueueBound(final Settings settings) {
+		this(settings.getAsInt(SETTING_MAX_TASKS, -1), settings.getAsBytesSize(SETTING_MAX_BYTES, new ByteSizeValue(-1))
+				.bytes(), OverflowPolicy.valueOf(settings.get(SETTING_OVERFLOW, OverflowPolicy.BLOCK.name())
+				.toUpperCase()), settings.getAsTime(SETTING_BLOCK_TIMEOUT, DEFAULT_BLOCK_TIMEOUT));
+	}
+
+	/**
+	 * @param maxTasks
+	 *            maximum number of queued tasks, &lt;= 0 for unbounded
+	 * @param maxBytes
+	 *            maximum estimated bytes of queued tasks, &lt;= 0 for unbounded
+	 */
+	public TaskQueueBound(final int maxTasks, final long maxBytes, final OverflowPolicy policy, final TimeValue blockTimeout) {
+		if (policy == null) {
+			throw new NullPointerException("policy");
+		}
+		if (blockTimeout == null) {
+			throw new NullPointerException("blockTimeout");
+		}
+		_maxTasks = maxTasks;
+		_maxBytes = maxBytes;
+		_policy = policy;
+		_blockTimeoutNanos = blockTimeout.nanos();
+	}
+
+	public boolean isBounded() {
+		return _maxTasks > 0 || _maxBytes > 0;
+	}
+
+	/**
+	 * reserves space without blocking
+	 *
+	 * @return true if space was reserved
+	 */
+	public boolean tryAcquire(final int tasks, final long bytes) {
+		_lock.lock();
+		try {
+			if (fits(tasks, bytes)) {
+				add(tasks, bytes);
+				return true;
+			} else {
+				return false;
+			}
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * reserves space, waiting up to the configured block timeout
+	 *
+	 * @return true if space was reserved, false on timeout
+	 */
+	public boolean acquire(final int tasks, final long bytes) throws InterruptedException {
+		_lock.lock();
+		try {
+			if (fits(tasks, bytes)) {
+				add(tasks, bytes);
+				return true;
+			}
+
+			_blocked.incrementAndGet();
+			final long start = System.nanoTime();
+			try {
+				long nanos = _blockTimeoutNanos;
+				while (!fits(tasks, bytes)) {
+					if (nanos <= 0) {
+						_blockTimeouts.incrementAndGet();
+						return false;
+					}
+					nanos = _released.awaitNanos(nanos);
+				}
+				add(tasks, bytes);
+				return true;
+			} finally {
+				_blockedNanos.addAndGet(System.nanoTime() - start);
+			}
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * releases previously reserved space
+	 */
+	public void release(final int tasks, final long bytes) {
+		if (tasks == 0 && bytes == 0) {
+			return;
+		}
+		_lock.lock();
+		try {
+			_tasks -= tasks;
+			_bytes -= bytes;
+			_released.signalAll();
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	private boolean fits(final int tasks, final long bytes) {
+		if (_tasks == 0 && _bytes == 0) {
+			// always accept a single batch, no matter how big
+			return true;
+		}
+		return (_maxTasks <= 0 || _tasks + tasks <= _maxTasks) && (_maxBytes <= 0 || _bytes + bytes <= _maxBytes);
+	}
+
+	private void add(final int tasks, final long bytes) {
+		_tasks += tasks;
+		_bytes += bytes;
+	}
+
+	void coalesced(final int tasks) {
+		_coalescedBatches.incrementAndGet();
+		_coalescedTasks.addAndGet(tasks);
+	}
+
+	void overflow(final int tasks) {
+		_overflowBatches.incrementAndGet();
+		_overflowTasks.addAndGet(tasks);
+	}
+
+	void dropped(final int tasks) {
+		_droppedTasks.addAndGet(tasks);
+	}
+
+	/**
+	 * @return estimated heap usage of a queued task for this {@link ObjectKey}
+	 */
+	static long estimateBytes(final ObjectKey key) {
+		final Object id = key.getId();
+		if (id instanceof String) {
+			// header, hash, length, char array
+			return TASK_BYTES + 40 + 2 * ((String) id).length();
+		} else {
+			return TASK_BYTES;
+		}
+	}
+
+	/**
+	 * @return estimated heap usage of queued tasks still referencing their entities
+	 */
+	static long estimateBytes(final int entityTasks) {
+		return entityTasks * ENTITY_TASK_BYTES;
+	}
+
+	public OverflowPolicy getPolicy() {
+		return _policy;
+	}
+
+	public int getMaxTasks() {
+		return _maxTasks;
+	}
+
+	public long getMaxBytes() {
+		return _maxBytes;
+	}
+
+	public long getBlockTimeout(final TimeUnit unit) {
+		return unit.convert(_blockTimeoutNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return number of currently queued tasks
+	 */
+	public int getQueuedTasks() {
+		_lock.lock();
+		try {
+			return _tasks;
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * @return estimated bytes of currently queued tasks
+	 */
+	public long getQueuedBytes() {
+		_lock.lock();
+		try {
+			return _bytes;
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of times a submitting thread had to wait for space
+	 */
+	public long getBlocked() {
+		return _blocked.get();
+	}
+
+	/**
+	 * @return total time submitting threads waited for space
+	 */
+	public long getBlockedTime(final TimeUnit unit) {
+		return unit.convert(_blockedNanos.get(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return number of times waiting for space timed out
+	 */
+	public long getBlockTimeouts() {
+		return _blockTimeouts.get();
+	}
+
+	/**
+	 * @return number of batches merged into already queued batches
+	 */
+	public long getCoalescedBatches() {
+		return _coalescedBatches.get();
+	}
+
+	/**
+	 * @return number of tasks saved by merging into already queued batches
+	 */
+	public long getCoalescedTasks() {
+		return _coalescedTasks.get();
+	}
+
+	/**
+	 * @return number of batches passed to an {@link Esi4JOverflowSink}
+	 */
+	public long getOverflowBatches() {
+		return _overflowBatches.get();
+	}
+
+	/**
+	 * @return number of tasks passed to an {@link Esi4JOverflowSink}
+	 */
+	public long getOverflowTasks() {
+		return _overflowTasks.get();
+	}
+
+	/**
+	 * @return number of tasks dropped as neither space nor an {@link Esi4JOverflowSink} was available
+	 */
+	public long getDroppedTasks() {
+		return _droppedTasks.get();
+	}
+
+	@Override
+	public String toString() {
+		return "TaskQueueBound [policy=" + _policy + ", maxTasks=" + _maxTasks + ", maxBytes=" + _maxBytes
+				+ ", queuedTasks=" + getQueuedTasks() + ", queuedBytes=" + getQueuedBytes() + "]";
+	}
+
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import at.molindo.esi4j.core.Esi4JOperation.OperationContext;
+import at.molindo.esi4j.mapping.TypeDependency;
+import at.molindo.esi4j.mapping.TypeMapping;
+import at.molindo.utils.collections.ListMap;
+
+/**
+ * reverse graph of {@link TypeMapping#getDependencies()}, i.e. owners per embedded type. Immutable.
+ */
+final class TypeDependencies {
+
+	static final TypeDependencies EMPTY = empty(new Class<?>[0]);
+
+	private final Class<?>[] _mappedTypes;
+	private final Map<Class<?>, List<Owner>> _owners = Maps.newHashMap();
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if dependencies are cyclic
+	 */
+	static TypeDependencies build(final Class<?>[] mappedTypes, final OperationContext context) {
+		final ListMap<Class<?>, Owner> owners = new ListMap<>();
+		for (final Class<?> type : mappedTypes) {
+			for (final TypeDependency dependency : context.findTypeMapping(type).getDependencies()) {
+				owners.add(dependency.getType(), new Owner(type, dependency));
+			}
+		}
+		return new TypeDependencies(mappedTypes, owners);
+	}
+
+	/**
+	 * @return graph without dependencies for given types
+	 */
+	static TypeDependencies empty(final Class<?>[] mappedTypes) {
+		return new TypeDependencies(mappedTypes, new ListMap<Class<?>, Owner>());
+	}
+
+	private TypeDependencies(final Class<?>[] mappedTypes, final ListMap<Class<?>, Owner> owners) {
+		_mappedTypes = mappedTypes;
+		for (final Class<?> type : owners.keySet()) {
+			_owners.put(type, Collections.unmodifiableList(owners.get(type)));
+		}
+
+		for (final Class<?> type : owners.keySet()) {
+			checkCycle(type, Sets.<Class<?>> newHashSet());
+		}
+	}
+
+	private void checkCycle(final Class<?> type, final Set<Class<?>> path) {
+		if (!path.add(type)) {
+			throw new IllegalArgumentException("cyclic dependency of " + type.getName() + " on itself");
+		}
+		for (final Owner owner : getOwners(type)) {
+			checkCycle(owner.getType(), path);
+		}
+		path.remove(type);
+	}
+
+	/**
+	 * @return true if this graph was built for the given mapped types
+	 */
+	boolean isBuiltFor(final Class<?>[] mappedTypes) {
+		return Sets.newHashSet(_mappedTypes).equals(Sets.newHashSet(mappedTypes));
+	}
+
+	/**
+	 * @return owners depending on entities of this type or one of its super types, never null
+	 */
+	List<Owner> getOwners(final Class<?> type) {
+		for (Class<?> cls = type; cls != null; cls = cls.getSuperclass()) {
+			final List<Owner> owners = _owners.get(cls);
+			if (owners != null) {
+				return owners;
+			}
+		}
+		return Collections.emptyList();
+	}
+
+	boolean isEmpty() {
+		return _owners.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "TypeDependencies [" + Arrays.toString(_mappedTypes) + "]";
+	}
+
+	static final class Owner {
+
+		private final Class<?> _type;
+		private final TypeDependency _dependency;
+
+		private Owner(final Class<?> type, final TypeDependency dependency) {
+			_type = type;
+			_dependency = dependency;
+		}
+
+		/**
+		 * @return owner type
+		 */
+		Class<?> getType() {
+			return _type;
+		}
+
+		TypeDependency getDependency() {
+			return _dependency;
+		}
+	}
+}
@@ -23,6 +23,7 @@ import at.molindo.esi4j.chain.Esi4JEntityResolver;
 import at.molindo.esi4j.chain.Esi4JEntityTask;
 import at.molindo.esi4j.core.Esi4JOperation.OperationContext;
 import at.molindo.esi4j.ex.EntityNotResolveableException;
+import at.molindo.esi4j.mapping.ObjectKey;
 
 /**
  * TODO unused
@@ -46,7 +47,10 @@ public abstract class UpdateEntityTask extends AbstractEntityTask {
 
 	@Override
 	public void replaceEntity(final Esi4JEntityResolver entityResolver) {
-		setEntity(entityResolver.replaceEntity(getEntity()));
+		// might have been replaced by event session already
+		if (!(getEntity() instanceof ObjectKey)) {
+			setEntity(entityResolver.replaceEntity(getEntity()));
+		}
 	}
 
 	@Override
@@ -66,7 +70,6 @@ public abstract class UpdateEntityTask extends AbstractEntityTask {
 		}
 	}
 
-	// TODO should TypeMapping support updates?
 	protected abstract UpdateRequest updateRequest(Object entity);
 
 }
@@ -32,7 +32,9 @@ public interface Esi4JIndexManager {
 	void rebuild(Class<?>... types);
 
 	/**
-	 * submits a refresh operation to the underlying processing chain and waits for it to complete
+	 * submits a refresh operation to the underlying processing chain and waits for it to complete. Asynchronous
+	 * processing chains might only wait for tasks submitted by the current thread and share a refresh between
+	 * concurrent callers.
 	 */
 	void refresh();
 
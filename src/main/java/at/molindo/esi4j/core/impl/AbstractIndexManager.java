@@ -22,10 +22,14 @@ import java.util.Set;
 import com.google.common.collect.Sets;
 
 import at.molindo.esi4j.chain.Esi4JProcessingChain;
+import at.molindo.esi4j.chain.Esi4JTaskProcessor;
 import at.molindo.esi4j.chain.impl.DefaultTaskSource;
+import at.molindo.esi4j.chain.impl.DependencyTaskSource;
+import at.molindo.esi4j.chain.impl.QueuedTaskProcessor;
 import at.molindo.esi4j.core.Esi4JIndex;
 import at.molindo.esi4j.core.Esi4JIndexManager;
 import at.molindo.esi4j.core.internal.InternalIndex;
+import at.molindo.esi4j.mapping.TypeDependency;
 import at.molindo.esi4j.module.Esi4JModule;
 import at.molindo.esi4j.operation.RefreshOperation;
 import at.molindo.esi4j.rebuild.Esi4JRebuildManager;
@@ -73,6 +77,23 @@ public class AbstractIndexManager implements Esi4JIndexManager {
 				processingChain.getEventProcessor().putTaskSource(type, new DefaultTaskSource());
 			}
 		}
+
+		// changes of embedded types trigger reindexing of their owners
+		for (final Class<?> type : _types) {
+			for (final TypeDependency dependency : _index.findTypeMapping(type).getDependencies()) {
+				final Class<?> dependencyType = dependency.getType();
+				if (!_index.isMapped(dependencyType)
+						&& !processingChain.getEventProcessor().isProcessing(dependencyType)) {
+					processingChain.getEventProcessor().putTaskSource(dependencyType, new DependencyTaskSource());
+				}
+			}
+		}
+
+		final Esi4JTaskProcessor taskProcessor = processingChain.getTaksProcessor();
+		if (taskProcessor instanceof QueuedTaskProcessor) {
+			// mappings are registered, replay journal without waiting for new tasks
+			((QueuedTaskProcessor) taskProcessor).start();
+		}
 	}
 
 	@Override
@@ -97,7 +118,13 @@ public class AbstractIndexManager implements Esi4JIndexManager {
 
 	@Override
 	public void refresh() {
-		_processingChain.getTaksProcessor().execute(new RefreshOperation());
+		final Esi4JTaskProcessor taskProcessor = _processingChain.getTaksProcessor();
+		if (taskProcessor instanceof QueuedTaskProcessor) {
+			// don't stop indexing, coalesce concurrent refreshes
+			((QueuedTaskProcessor) taskProcessor).refresh();
+		} else {
+			taskProcessor.execute(new RefreshOperation());
+		}
 	}
 
 	@Override
@@ -15,9 +15,18 @@
  */
 package at.molindo.esi4j.core.impl;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
 import javax.annotation.Nonnull;
 
 import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.admin.indices.mapping.get.GetMappingsResponse;
 import org.elasticsearch.action.admin.indices.mapping.put.PutMappingRequestBuilder;
 import org.elasticsearch.action.admin.indices.mapping.put.PutMappingResponse;
 import org.elasticsearch.action.admin.indices.refresh.RefreshResponse;
@@ -28,7 +37,13 @@ import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.index.IndexRequestBuilder;
 import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.indices.IndexMissingException;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import at.molindo.esi4j.action.BulkResponseWrapper;
 import at.molindo.esi4j.action.DeleteResponseWrapper;
@@ -44,6 +59,8 @@ import at.molindo.esi4j.core.Esi4JStore;
 import at.molindo.esi4j.core.Esi4JStore.StoreOperation;
 import at.molindo.esi4j.core.internal.InternalIndex;
 import at.molindo.esi4j.ex.Esi4JObjectFilteredException;
+import at.molindo.esi4j.mapping.ConvertibleMappingSource;
+import at.molindo.esi4j.mapping.MappingSource;
 import at.molindo.esi4j.mapping.ObjectReadSource;
 import at.molindo.esi4j.mapping.TypeMapping;
 import at.molindo.esi4j.mapping.TypeMappings;
@@ -53,6 +70,8 @@ import edu.umd.cs.findbugs.annotations.SuppressWarnings;
 
 public class DefaultIndex extends AbstractIndex implements InternalIndex {
 
+	private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(DefaultIndex.class);
+
 	private final String _name;
 	private final Settings _settings;
 
@@ -61,7 +80,7 @@ public class DefaultIndex extends AbstractIndex implements InternalIndex {
 	private Esi4JIndexManager _indexManager;
 
 	@Nonnull
-	private Esi4JStore _store;
+	private volatile Esi4JStore _store;
 
 	public DefaultIndex(final String name, final Settings settings, final Esi4JStore store) {
 		if (name == null) {
@@ -95,11 +114,10 @@ public class DefaultIndex extends AbstractIndex implements InternalIndex {
 			throw new NullPointerException("store");
 		}
 		store.setIndex(this);
+
 		_store = store;
 
-		for (final TypeMapping typeMapping : _mappings.getTypeMappings()) {
-			putMapping(typeMapping);
-		}
+		putMappings(Lists.newArrayList(_mappings.getTypeMappings()), false);
 	}
 
 	@Override
@@ -140,7 +158,16 @@ public class DefaultIndex extends AbstractIndex implements InternalIndex {
 	@Override
 	public DefaultIndex addTypeMapping(final TypeMapping typeMapping) {
 		_mappings.addMapping(typeMapping);
-		putMapping(typeMapping);
+		putMappings(Collections.singletonList(typeMapping), false);
+		return this;
+	}
+
+	@Override
+	public DefaultIndex addTypeMappings(final TypeMapping... typeMappings) {
+		for (final TypeMapping typeMapping : typeMappings) {
+			_mappings.addMapping(typeMapping);
+		}
+		putMappings(Arrays.asList(typeMappings), false);
 		return this;
 	}
 
@@ -170,21 +197,114 @@ public class DefaultIndex extends AbstractIndex implements InternalIndex {
 	}
 
 	protected void putMapping(final TypeMapping typeMapping) {
-		final ListenableActionFuture<PutMappingResponse> future = _store
-				.execute(new StoreOperation<ListenableActionFuture<PutMappingResponse>>() {
+		putMappings(Collections.singletonList(typeMapping), true);
+	}
+
+	/**
+	 * put mappings concurrently and await responses. Unless forced, mappings are skipped if the hash recorded in
+	 * their <code>_meta</code> didn't change. Recorded hashes are read for each call as mappings might have been
+	 * deleted in the meantime, e.g. by a rebuild or along with the index. No lock is held while waiting for the
+	 * store, mappings are added to the concurrent {@link TypeMappings} by callers beforehand.
+	 */
+	protected void putMappings(final Collection<TypeMapping> typeMappings, final boolean force) {
+		if (typeMappings.isEmpty()) {
+			return;
+		}
 
-					@Override
-					public ListenableActionFuture<PutMappingResponse> execute(final Client client, final String indexName) {
-						final PutMappingRequestBuilder request = client.admin().indices().preparePutMapping(indexName);
-						request.setType(typeMapping.getTypeAlias());
-						typeMapping.getMappingSource(getSettings()).setSource(request);
-						return request.execute();
+		// fetch and put against the same store even if replaced concurrently
+		final Esi4JStore store = _store;
+
+		final Map<String, String> existing = force ? Collections.<String, String> emptyMap() : getMappingHashes(
+				store, typeMappings);
+
+		final List<ListenableActionFuture<PutMappingResponse>> futures = Lists.newArrayListWithCapacity(typeMappings
+				.size());
+
+		for (final TypeMapping typeMapping : typeMappings) {
+			final String typeAlias = typeMapping.getTypeAlias();
+
+			final MappingSource mappingSource = typeMapping.getMappingSource(getSettings());
+			final Map<String, Object> source;
+			if (mappingSource instanceof ConvertibleMappingSource) {
+				source = ((ConvertibleMappingSource) mappingSource).map();
+				final Map<String, Object> body = MappingHashes.body(source, typeAlias);
+				final String hash = MappingHashes.hash(body);
+
+				if (hash.equals(existing.get(typeAlias))) {
+					log.debug("skipping unchanged mapping of type " + typeAlias);
+					continue;
+				}
+				MappingHashes.setHash(body, hash);
+			} else {
+				// can't hash, always put
+				source = null;
+			}
+
+			futures.add(store.execute(new StoreOperation<ListenableActionFuture<PutMappingResponse>>() {
+
+				@Override
+				public ListenableActionFuture<PutMappingResponse> execute(final Client client, final String indexName) {
+					final PutMappingRequestBuilder request = client.admin().indices().preparePutMapping(indexName);
+					request.setType(typeAlias);
+					if (source != null) {
+						request.setSource(source);
+					} else {
+						mappingSource.setSource(request);
 					}
+					return request.execute();
+				}
 
-				});
+			}));
+		}
 
-		// TODO handle response
-		future.actionGet();
+		for (final ListenableActionFuture<PutMappingResponse> future : futures) {
+			// TODO handle response
+			future.actionGet();
+		}
+	}
+
+	/**
+	 * @return hashes recorded in mappings of given types in store's index
+	 */
+	private static Map<String, String> getMappingHashes(final Esi4JStore store, final Collection<TypeMapping> typeMappings) {
+		final String[] typeAliases = new String[typeMappings.size()];
+		int i = 0;
+		for (final TypeMapping typeMapping : typeMappings) {
+			typeAliases[i++] = typeMapping.getTypeAlias();
+		}
+
+		final GetMappingsResponse response;
+		try {
+			response = store.execute(new StoreOperation<GetMappingsResponse>() {
+
+				@Override
+				public GetMappingsResponse execute(final Client client, final String indexName) {
+					return client.admin().indices().prepareGetMappings(indexName).setTypes(typeAliases).execute()
+							.actionGet();
+				}
+			});
+		} catch (final IndexMissingException e) {
+			return Collections.emptyMap();
+		}
+
+		final Map<String, String> hashes = Maps.newHashMap();
+		// index name might be an alias
+		final Iterator<ImmutableOpenMap<String, MappingMetaData>> indices = response.getMappings().valuesIt();
+		while (indices.hasNext()) {
+			final Iterator<MappingMetaData> types = indices.next().valuesIt();
+			while (types.hasNext()) {
+				final MappingMetaData mapping = types.next();
+				try {
+					final String hash = MappingHashes.getHash(mapping.sourceAsMap());
+					if (hash != null) {
+						hashes.put(mapping.type(), hash);
+					}
+				} catch (final IOException e) {
+					log.warn("failed to parse mapping of type " + mapping.type(), e);
+				}
+			}
+		}
+		return hashes;
 	}
 
 	@Override
@@ -0,0 +1,118 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.core.impl;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+
+/**
+ * canonical hashes of mappings, recorded in a mapping's <code>_meta</code> to detect unchanged mappings
+ */
+final class MappingHashes {
+
+	static final String META = "_meta";
+	static final String META_HASH = "esi4j_mapping_hash";
+
+	private MappingHashes() {
+	}
+
+	/**
+	 * @param source
+	 *            mapping source, either rooted by type alias or not
+	 * @return mutable mapping of type without root
+	 */
+	@SuppressWarnings("unchecked")
+	static Map<String, Object> body(final Map<String, Object> source, final String typeAlias) {
+		if (source.size() == 1 && source.get(typeAlias) instanceof Map) {
+			return (Map<String, Object>) source.get(typeAlias);
+		}
+		return source;
+	}
+
+	/**
+	 * @return hash of mapping, independent of key order and ignoring a recorded hash
+	 */
+	static String hash(final Map<String, Object> body) {
+		try (XContentBuilder builder = XContentFactory.smileBuilder()) {
+			builder.map(canonical(body, true));
+			return Hashing.sha1().hashBytes(builder.bytes().toBytes()).toString();
+		} catch (final IOException e) {
+			throw new RuntimeException("failed to hash mapping", e);
+		}
+	}
+
+	/**
+	 * @return hash recorded in mapping or <code>null</code>
+	 */
+	static String getHash(final Map<String, Object> body) {
+		final Object meta = body.get(META);
+		if (meta instanceof Map) {
+			final Object hash = ((Map<?, ?>) meta).get(META_HASH);
+			return hash == null ? null : hash.toString();
+		}
+		return null;
+	}
+
+	static void setHash(final Map<String, Object> body, final String hash) {
+		final Map<String, Object> meta = Maps.newLinkedHashMap();
+		final Object existing = body.get(META);
+		if (existing instanceof Map) {
+			for (final Map.Entry<?, ?> e : ((Map<?, ?>) existing).entrySet()) {
+				meta.put(e.getKey().toString(), e.getValue());
+			}
+		}
+		meta.put(META_HASH, hash);
+		body.put(META, meta);
+	}
+
+	private static Map<String, Object> canonical(final Map<?, ?> map, final boolean root) {
+		final TreeMap<String, Object> sorted = new TreeMap<>();
+		for (final Map.Entry<?, ?> e : map.entrySet()) {
+			final String key = e.getKey().toString();
+			Object value = e.getValue();
+			if (root && META.equals(key) && value instanceof Map) {
+				final Map<String, Object> meta = canonical((Map<?, ?>) value, false);
+				meta.remove(META_HASH);
+				value = meta;
+			}
+			sorted.put(key, canonical(value));
+		}
+		return sorted;
+	}
+
+	private static Object canonical(final Object value) {
+		if (value instanceof Map) {
+			return canonical((Map<?, ?>) value, false);
+		} else if (value instanceof List) {
+			final List<Object> list = Lists.newArrayListWithCapacity(((List<?>) value).size());
+			for (final Object o : (List<?>) value) {
+				list.add(canonical(o));
+			}
+			return list;
+		} else {
+			return value;
+		}
+	}
+}
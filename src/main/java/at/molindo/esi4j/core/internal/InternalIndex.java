@@ -31,6 +31,11 @@ public interface InternalIndex extends Esi4JIndex, OperationContext, SearchHitRe
 
 	InternalIndex addTypeMapping(TypeMapping typeMapping);
 
+	/**
+	 * adds mappings and puts changed mappings concurrently
+	 */
+	InternalIndex addTypeMappings(TypeMapping... typeMappings);
+
 	void updateMapping(Class<?> type);
 
 	void updateMapping(String typeAlias);
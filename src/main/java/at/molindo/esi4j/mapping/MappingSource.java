@@ -15,10 +15,14 @@
  */
 package at.molindo.esi4j.mapping;
 
+import java.io.IOException;
 import java.util.Map;
 
 import org.elasticsearch.action.admin.indices.mapping.put.PutMappingRequestBuilder;
+import org.elasticsearch.common.bytes.BytesArray;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
 
 /**
  * generator for elasticsearch mappings
@@ -38,32 +42,53 @@ public interface MappingSource {
 		}
 
 		public static MappingSource builder(final XContentBuilder source) {
-			return new MappingSource() {
+			return new ConvertibleMappingSource() {
 
 				@Override
 				public void setSource(final PutMappingRequestBuilder request) {
 					request.setSource(source);
 				}
+
+				@Override
+				public Map<String, Object> map() {
+					return XContentHelper.convertToMap(source.bytes(), true).v2();
+				}
 			};
 		}
 
 		public static MappingSource string(final String source) {
-			return new MappingSource() {
+			return new ConvertibleMappingSource() {
 
 				@Override
 				public void setSource(final PutMappingRequestBuilder request) {
 					request.setSource(source);
 				}
+
+				@Override
+				public Map<String, Object> map() {
+					return XContentHelper.convertToMap(new BytesArray(source), true).v2();
+				}
 			};
 		}
 
 		public static MappingSource map(final Map<?, ?> source) {
-			return new MappingSource() {
+			return new ConvertibleMappingSource() {
 
 				@Override
 				public void setSource(final PutMappingRequestBuilder request) {
 					request.setSource(source);
 				}
+
+				@Override
+				@SuppressWarnings("unchecked")
+				public Map<String, Object> map() {
+					// deep copy
+					try (XContentBuilder builder = XContentFactory.jsonBuilder()) {
+						return XContentHelper.convertToMap(builder.map((Map<String, Object>) source).bytes(), true).v2();
+					} catch (final IOException e) {
+						throw new RuntimeException("failed to copy mapping", e);
+					}
+				}
 			};
 		}
 	}
@@ -25,7 +25,9 @@ import java.util.Map.Entry;
 
 import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.client.Requests;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.index.get.GetField;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHitField;
@@ -50,7 +52,7 @@ public interface ObjectReadSource {
 		}
 
 		public static ObjectReadSource search(final SearchHit hit) {
-			return new ObjectReadSource() {
+			return new ParsableObjectReadSource() {
 
 				@Override
 				public Map<String, Object> map() {
@@ -78,6 +80,21 @@ public interface ObjectReadSource {
 					return hit.sourceAsString();
 				}
 
+				@Override
+				public XContentParser parser() throws IOException {
+					return sourceParser(hit.sourceRef());
+				}
+
+				@Override
+				public String id() {
+					return hit.getId();
+				}
+
+				@Override
+				public long version() {
+					return hit.getVersion();
+				}
+
 				@Override
 				public String toString() {
 					return string();
@@ -87,7 +104,7 @@ public interface ObjectReadSource {
 		}
 
 		public static ObjectReadSource get(final GetResponse response) {
-			return new ObjectReadSource() {
+			return new ParsableObjectReadSource() {
 
 				@Override
 				public Map<String, Object> map() {
@@ -119,6 +136,21 @@ public interface ObjectReadSource {
 					return response.getSourceAsString();
 				}
 
+				@Override
+				public XContentParser parser() throws IOException {
+					return response.isExists() ? sourceParser(response.getSourceAsBytesRef()) : null;
+				}
+
+				@Override
+				public String id() {
+					return response.getId();
+				}
+
+				@Override
+				public long version() {
+					return response.getVersion();
+				}
+
 				@Override
 				public String toString() {
 					return string();
@@ -136,7 +168,9 @@ public interface ObjectReadSource {
 						return null;
 					}
 					final HashMap<String, Object> m = new HashMap<>(map);
-					m.put(FIELD_ID, id);
+					if (id != null) {
+						m.put(FIELD_ID, id);
+					}
 					if (version != -1) {
 						m.put(FIELD_VERSION, version);
 					}
@@ -162,5 +196,9 @@ public interface ObjectReadSource {
 
 			};
 		}
+
+		private static XContentParser sourceParser(final BytesReference source) throws IOException {
+			return source == null || source.length() == 0 ? null : XContentFactory.xContent(source).createParser(source);
+		}
 	}
 }
@@ -39,7 +39,8 @@ public interface ObjectWriteSource {
 	void setSource(IndexRequest request);
 
 	/**
-	 * get source as {@link Requests#INDEX_CONTENT_TYPE} ({@link XContentType#JSON JSON}) bytes
+	 * get source bytes, {@link Requests#INDEX_CONTENT_TYPE} ({@link XContentType#JSON JSON}) unless created with a
+	 * different {@link XContentType}
 	 */
 	BytesReference getSource();
 
@@ -0,0 +1,47 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.mapping;
+
+import java.io.IOException;
+
+import javax.annotation.CheckForNull;
+
+import org.elasticsearch.common.xcontent.XContentParser;
+
+/**
+ * an {@link ObjectReadSource} that is able to parse its raw source, see {@link TypeMapping#read(XContentParser)}
+ */
+public interface ParsableObjectReadSource extends ObjectReadSource {
+
+	/**
+	 * @return a new parser over raw source bytes that must be closed by the caller or <code>null</code> if no source
+	 *         is available, e.g. if only fields were loaded
+	 * @see TypeMapping#read(XContentParser)
+	 */
+	@CheckForNull
+	XContentParser parser() throws IOException;
+
+	/**
+	 * @return the document's id or <code>null</code> if unknown
+	 */
+	@CheckForNull
+	String id();
+
+	/**
+	 * @return the document's version or -1 if unknown
+	 */
+	long version();
+}
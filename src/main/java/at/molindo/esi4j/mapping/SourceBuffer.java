@@ -0,0 +1,188 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.mapping;
+
+import java.io.Closeable;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+
+import com.google.common.collect.Lists;
+
+/**
+ * buffer of document sources belonging to a single bulk request. Sources are written to pooled pages and referenced by
+ * requests as slices of these pages, i.e. without copying. A source never spans multiple pages, pages are enlarged for
+ * large sources. Pages are returned to the pool on {@link #close()} which must not happen before the bulk request
+ * completed.
+ */
+public final class SourceBuffer implements Closeable {
+
+	public static final int PAGE_SIZE = 64 * 1024;
+
+	private static final Pool DEFAULT_POOL = new Pool(256);
+
+	private final Pool _pool;
+	private final List<byte[]> _pages = Lists.newArrayList();
+
+	private byte[] _page;
+	private int _start;
+	private int _pos;
+
+	private final OutputStream _out = new OutputStream() {
+
+		@Override
+		public void write(final int b) {
+			ensureCapacity(1);
+			_page[_pos++] = (byte) b;
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) {
+			ensureCapacity(len);
+			System.arraycopy(b, off, _page, _pos, len);
+			_pos += len;
+		}
+
+		@Override
+		public void close() {
+			// source completed using slice()
+		}
+	};
+
+	/**
+	 * buffer using a shared pool of up to 256 pages
+	 */
+	public SourceBuffer() {
+		this(DEFAULT_POOL);
+	}
+
+	public SourceBuffer(final Pool pool) {
+		if (pool == null) {
+			throw new NullPointerException("pool");
+		}
+		_pool = pool;
+	}
+
+	/**
+	 * @return stream to write next source to, followed by {@link #slice()} or {@link #discard()}
+	 */
+	public OutputStream out() {
+		return _out;
+	}
+
+	/**
+	 * @return bytes written since last slice
+	 */
+	public BytesReference slice() {
+		final BytesReference slice = new BytesArray(_page == null ? new byte[0] : _page, _start, _pos - _start);
+		_start = _pos;
+		return slice;
+	}
+
+	/**
+	 * discard bytes written since last slice
+	 */
+	public void discard() {
+		_pos = _start;
+	}
+
+	/**
+	 * @return number of bytes of all pages
+	 */
+	public long getCapacity() {
+		long capacity = 0;
+		for (final byte[] page : _pages) {
+			capacity += page.length;
+		}
+		return capacity;
+	}
+
+	private void ensureCapacity(final int len) {
+		if (_page != null && _pos + len <= _page.length) {
+			return;
+		}
+
+		// keep current source in a single page
+		final int current = _pos - _start;
+		final int required = current + len;
+		final byte[] page = required <= PAGE_SIZE ? _pool.take() : new byte[Math.max(required, 2 * current)];
+		if (current > 0) {
+			System.arraycopy(_page, _start, page, 0, current);
+		}
+		_pages.add(page);
+		_page = page;
+		_start = 0;
+		_pos = current;
+	}
+
+	/**
+	 * return pages to pool, previous slices must not be used anymore
+	 */
+	@Override
+	public void close() {
+		for (final byte[] page : _pages) {
+			_pool.release(page);
+		}
+		_pages.clear();
+		_page = null;
+		_start = _pos = 0;
+	}
+
+	/**
+	 * bounded pool of pages with {@link SourceBuffer#PAGE_SIZE} bytes
+	 */
+	public static final class Pool {
+
+		private final ConcurrentLinkedQueue<byte[]> _pages = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger _size = new AtomicInteger();
+		private final int _maxPages;
+
+		public Pool(final int maxPages) {
+			if (maxPages < 0) {
+				throw new IllegalArgumentException("maxPages must be >= 0, was " + maxPages);
+			}
+			_maxPages = maxPages;
+		}
+
+		private byte[] take() {
+			final byte[] page = _pages.poll();
+			if (page == null) {
+				return new byte[PAGE_SIZE];
+			}
+			_size.decrementAndGet();
+			return page;
+		}
+
+		private void release(final byte[] page) {
+			if (page.length == PAGE_SIZE && _size.incrementAndGet() <= _maxPages) {
+				_pages.offer(page);
+			} else if (page.length == PAGE_SIZE) {
+				_size.decrementAndGet();
+			}
+		}
+
+		/**
+		 * @return number of pooled pages
+		 */
+		public int getSize() {
+			return _size.get();
+		}
+	}
+}
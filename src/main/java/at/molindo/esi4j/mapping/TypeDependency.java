@@ -0,0 +1,71 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.mapping;
+
+import at.molindo.utils.data.StringUtils;
+
+/**
+ * declares that documents of a mapped type embed data of another type, e.g. a product embedding its category's name.
+ * Owners need to be reindexed whenever an entity they depend on changes. The embedded type doesn't need to be mapped
+ * itself, changes of unmapped types only trigger reindexing of owners.
+ *
+ * @see TypeMapping#getDependencies()
+ */
+public final class TypeDependency {
+
+	private final Class<?> _type;
+	private final String _path;
+
+	/**
+	 * @param type
+	 *            type of embedded entities
+	 * @param path
+	 *            property path from owner to embedded entities, e.g. "category" or "tags"
+	 */
+	public static TypeDependency on(final Class<?> type, final String path) {
+		return new TypeDependency(type, path);
+	}
+
+	private TypeDependency(final Class<?> type, final String path) {
+		if (type == null) {
+			throw new NullPointerException("type");
+		}
+		if (StringUtils.empty(path)) {
+			throw new IllegalArgumentException("path must not be empty");
+		}
+		_type = type;
+		_path = path;
+	}
+
+	/**
+	 * @return type of embedded entities
+	 */
+	public Class<?> getType() {
+		return _type;
+	}
+
+	/**
+	 * @return property path from owner to embedded entities
+	 */
+	public String getPath() {
+		return _path;
+	}
+
+	@Override
+	public String toString() {
+		return _type.getName() + " via " + _path;
+	}
+}
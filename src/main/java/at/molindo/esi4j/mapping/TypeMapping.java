@@ -15,6 +15,12 @@
  */
 package at.molindo.esi4j.mapping;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -23,8 +29,17 @@ import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.delete.DeleteRequestBuilder;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateRequestBuilder;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.client.Requests;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentParser.Token;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.VersionType;
 
 import at.molindo.utils.data.StringUtils;
@@ -72,6 +87,35 @@ public abstract class TypeMapping {
 		return false;
 	}
 
+	/**
+	 * @return <code>true</code> if {@link #isFiltered(Object)} is cheap and only depends on state available when the
+	 *         object changes, i.e. it may be evaluated as soon as events occur. Updates of filtered objects are then
+	 *         processed as deletes, without loading the object again.
+	 */
+	public boolean isFilterCheap() {
+		return false;
+	}
+
+	/**
+	 * Properties of mapped type that are used to build documents, including properties used by task sources to
+	 * index related entities. Modules may use this to skip updates that didn't change any of these properties.
+	 *
+	 * @return names of properties or <code>null</code> if documents might depend on any property
+	 */
+	@CheckForNull
+	public Set<String> getIndexedProperties() {
+		return null;
+	}
+
+	/**
+	 * Reindexed owners trigger reindexing of their own owners, hence dependencies must not be cyclic.
+	 *
+	 * @return types embedded into documents of this type, never null
+	 */
+	public List<TypeDependency> getDependencies() {
+		return Collections.emptyList();
+	}
+
 	/**
 	 * @return <code>true</code> if all object's of mapped type are supposed to be versioned. Note that it isn't
 	 *         required to call this method before {@link #getVersion(Object)}
@@ -116,17 +160,85 @@ public abstract class TypeMapping {
 	 */
 	public abstract MappingSource getMappingSource(Settings indexSettings);
 
+	/**
+	 * @return content type of sources written by this mapping, e.g. {@link XContentType#SMILE SMILE} to reduce bytes
+	 *         on the wire. Defaults to {@link Requests#INDEX_CONTENT_TYPE}
+	 */
+	public XContentType getContentType() {
+		return Requests.INDEX_CONTENT_TYPE;
+	}
+
 	/**
 	 * @return a new {@link ObjectWriteSource} for this object
+	 * @see #getContentType()
 	 */
 	public abstract ObjectWriteSource getObjectSource(Object o);
 
+	/**
+	 * default implementation converts the source returned by {@link #getObjectSource(Object)} if necessary
+	 *
+	 * @return a new {@link ObjectWriteSource} for this object using given content type
+	 */
+	public ObjectWriteSource getObjectSource(final Object o, final XContentType contentType) {
+		final ObjectWriteSource source = getObjectSource(o);
+		if (source == null) {
+			return null;
+		}
+
+		final BytesReference bytes = source.getSource();
+		if (bytes == null || bytes.length() == 0 || XContentFactory.xContentType(bytes) == contentType) {
+			return source;
+		}
+		return ObjectWriteSource.Builder.map(XContentHelper.convertToMap(bytes, false).v2(), contentType);
+	}
+
+	/**
+	 * write object's source as returned by {@link #getObjectSource(Object)} to out
+	 *
+	 * @return <code>false</code> if not supported
+	 */
+	protected boolean writeObjectSource(final Object o, final OutputStream out) throws IOException {
+		return false;
+	}
+
+	/**
+	 * @param properties
+	 *            changed properties, a subset of {@link #getIndexedProperties()}
+	 * @return a new {@link ObjectWriteSource} containing only fields depending on given properties or
+	 *         <code>null</code> if partial updates aren't supported
+	 */
+	@CheckForNull
+	public ObjectWriteSource getPartialObjectSource(final Object o, final Set<String> properties) {
+		return null;
+	}
+
 	/**
 	 * @return the object returned by a {@link ObjectReadSource} or null if not applicable or doc doesn't exist
 	 */
 	@CheckForNull
 	public abstract Object read(ObjectReadSource source);
 
+	/**
+	 * read object from a parser over a document's source. Id and version might not be part of the source. Parses the
+	 * source into a map and reads it using {@link #read(ObjectReadSource)} by default, mappings should override it to
+	 * read in a single pass, decoding only required fields.
+	 *
+	 * @param parser
+	 *            parser positioned before or at the start of the source object
+	 * @see ParsableObjectReadSource#parser()
+	 */
+	@CheckForNull
+	public Object read(final XContentParser parser) throws IOException {
+		Token token = parser.currentToken();
+		if (token == null) {
+			token = parser.nextToken();
+		}
+		if (token == null || token == Token.VALUE_NULL) {
+			return null;
+		}
+		return read(ObjectReadSource.Builder.map(null, -1, parser.map()));
+	}
+
 	/**
 	 * @return null if object is filtered
 	 */
@@ -144,7 +256,46 @@ public abstract class TypeMapping {
 		return builder == null ? null : builder.request();
 	}
 
+	/**
+	 * @param buffer
+	 *            buffer of the bulk request this request is added to, might be <code>null</code>
+	 * @return null if object is filtered
+	 */
+	@CheckForNull
+	public final IndexRequest indexBuilderRequest(final Client client, final String indexName, final Object o, @Nullable final SourceBuffer buffer) {
+		final IndexRequestBuilder builder = populate(new IndexRequestBuilder(client), indexName, o, buffer);
+		return builder == null ? null : builder.request();
+	}
+
+	/**
+	 * @param buffer
+	 *            buffer of the bulk request this request is added to, might be <code>null</code>
+	 * @return null if object is filtered
+	 */
+	@CheckForNull
+	public final IndexRequestBuilder indexRequest(final Client client, final String indexName, final Object o, @Nullable final SourceBuffer buffer) {
+		return populate(client.prepareIndex(), indexName, o, buffer);
+	}
+
+	/**
+	 * @param source
+	 *            source as returned by {@link ObjectWriteSource#getSource()}, e.g. serialized earlier
+	 * @return request indexing given source
+	 */
+	public final IndexRequest indexBuilderRequest(final Client client, final String indexName, @Nonnull final String id, @Nullable final Long version, @Nonnull final BytesReference source) {
+		final IndexRequestBuilder builder = new IndexRequestBuilder(client).setIndex(indexName).setType(getTypeAlias())
+				.setId(id).setSource(source);
+		if (version != null) {
+			builder.setVersion(version).setVersionType(VersionType.EXTERNAL);
+		}
+		return builder.request();
+	}
+
 	private IndexRequestBuilder populate(final IndexRequestBuilder builder, final String indexName, @Nullable final Object o) {
+		return populate(builder, indexName, o, null);
+	}
+
+	private IndexRequestBuilder populate(final IndexRequestBuilder builder, final String indexName, @Nullable final Object o, @Nullable final SourceBuffer buffer) {
 		if (o != null && !isFiltered(o)) {
 			builder.setIndex(indexName).setType(getTypeAlias()).setId(getIdString(o));
 
@@ -153,7 +304,11 @@ public abstract class TypeMapping {
 				builder.setVersion(version).setVersionType(VersionType.EXTERNAL);
 			}
 
-			getObjectSource(o).setSource(builder);
+			if (!writeObjectSource(o, buffer)) {
+				getObjectSource(o).setSource(builder);
+			} else {
+				builder.setSource(buffer.slice());
+			}
 
 			return builder;
 		} else {
@@ -161,6 +316,48 @@ public abstract class TypeMapping {
 		}
 	}
 
+	private boolean writeObjectSource(final Object o, @Nullable final SourceBuffer buffer) {
+		if (buffer == null) {
+			return false;
+		}
+		boolean written = false;
+		try {
+			written = writeObjectSource(o, buffer.out());
+			return written;
+		} catch (final IOException e) {
+			throw new RuntimeException("writing source failed", e);
+		} finally {
+			if (!written) {
+				buffer.discard();
+			}
+		}
+	}
+
+	/**
+	 * Partial updates are only supported for unversioned objects as external versions can't be used with updates.
+	 *
+	 * @return null if object is filtered, versioned or partial updates aren't supported. Use
+	 *         {@link #indexBuilderRequest(Client, String, Object)} instead.
+	 * @see #getPartialObjectSource(Object, Set)
+	 */
+	@CheckForNull
+	public final UpdateRequest updateBuilderRequest(final Client client, final String indexName, final Object o, final Set<String> properties) {
+		if (o == null || isFiltered(o) || getVersion(o) != null) {
+			return null;
+		}
+
+		final ObjectWriteSource source = getPartialObjectSource(o, properties);
+		if (source == null) {
+			return null;
+		}
+
+		final IndexRequest doc = new IndexRequest();
+		source.setSource(doc);
+
+		return new UpdateRequestBuilder(client).setIndex(indexName).setType(getTypeAlias()).setId(getIdString(o))
+				.setDoc(doc).request();
+	}
+
 	/**
 	 * @return null if object doesn't have an id
 	 */
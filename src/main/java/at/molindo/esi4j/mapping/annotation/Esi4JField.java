@@ -0,0 +1,43 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.mapping.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import at.molindo.esi4j.mapping.impl.AnnotatedTypeMapping;
+
+/**
+ * marks a field of an entity mapped by {@link AnnotatedTypeMapping} that is written to documents
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Esi4JField {
+
+	/**
+	 * @return name of document field, defaults to name of annotated field
+	 */
+	String value() default "";
+
+	/**
+	 * @return <code>false</code> if string values should be indexed as is
+	 */
+	boolean analyzed() default true;
+}
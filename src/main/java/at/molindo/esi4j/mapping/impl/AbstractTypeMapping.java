@@ -15,19 +15,63 @@
  */
 package at.molindo.esi4j.mapping.impl;
 
+import java.io.IOException;
 import java.util.Map;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
+import org.elasticsearch.common.xcontent.XContentParser;
+
+import at.molindo.esi4j.mapping.ObjectReadSource;
+import at.molindo.esi4j.mapping.ParsableObjectReadSource;
+import at.molindo.esi4j.mapping.TypeMapping;
+
 /**
  * basic extension of {@link GenericTypeMapping} that adds setters for ID and version and a read method implementation
  * that takes care of ID and version setting
  */
 public abstract class AbstractTypeMapping<Type, Id> extends GenericTypeMapping<Type, Id> {
 
+	/**
+	 * true if {@link #read(XContentParser)} is overridden. Otherwise sources are read as maps by
+	 * {@link #readObject(Map)}, including index, type, id and version
+	 */
+	private final boolean _parserRead;
+
 	public AbstractTypeMapping(final String typeAlias, final Class<Type> typeClass, final Class<Id> idClass) {
 		super(typeAlias, typeClass, idClass);
+		_parserRead = isOverridden(TypeMapping.class, "read", XContentParser.class);
+	}
+
+	/**
+	 * reads {@link ParsableObjectReadSource}s using {@link #read(XContentParser)} if overridden and source is available
+	 */
+	@Override
+	public Object read(final ObjectReadSource source) {
+		if (_parserRead && source instanceof ParsableObjectReadSource) {
+			final ParsableObjectReadSource parsable = (ParsableObjectReadSource) source;
+			try (XContentParser parser = parsable.parser()) {
+				if (parser != null) {
+					final Type object = cast(read(parser));
+					if (object != null) {
+						final String id = parsable.id();
+						if (id != null) {
+							setId(object, toId(id));
+						}
+
+						final long version = parsable.version();
+						if (version != -1) {
+							setVersion(object, version);
+						}
+					}
+					return object;
+				}
+			} catch (final IOException e) {
+				throw new RuntimeException("failed to read source", e);
+			}
+		}
+		return super.read(source);
 	}
 
 	/**
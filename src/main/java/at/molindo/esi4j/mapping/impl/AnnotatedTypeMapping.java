@@ -0,0 +1,533 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.mapping.impl;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+
+import org.elasticsearch.common.joda.FormatDateTimeFormatter;
+import org.elasticsearch.common.joda.Joda;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentParser.Token;
+import org.elasticsearch.index.mapper.Mapper;
+import org.elasticsearch.index.mapper.MapperBuilders;
+import org.elasticsearch.index.mapper.object.RootObjectMapper;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Primitives;
+
+import at.molindo.esi4j.mapping.TypeMapping;
+import at.molindo.esi4j.mapping.annotation.Esi4JField;
+import at.molindo.esi4j.mapping.annotation.Esi4JId;
+import at.molindo.esi4j.mapping.annotation.Esi4JVersion;
+
+/**
+ * {@link TypeMapping} of entities annotated with {@link Esi4JId}, {@link Esi4JVersion} and {@link Esi4JField}. Field
+ * accessors are resolved once, documents are written with typed {@link XContentBuilder} calls and objects are read
+ * from an {@link XContentParser} without an intermediate map.
+ *
+ * Supported field types are {@link String}, int, long, float, double, boolean (and their wrappers), {@link Date} and
+ * enums. Entities require a no-arg constructor.
+ *
+ * @param <Type>
+ *            class of mapped type
+ * @param <Id>
+ *            class of mapped type's ID, one of {@link String}, {@link Integer} or {@link Long}
+ */
+public class AnnotatedTypeMapping<Type, Id> extends AbstractTypeMapping<Type, Id> {
+
+	private static final FormatDateTimeFormatter DATE_FORMAT = Joda.forPattern("dateOptionalTime");
+
+	private final MethodHandle _constructor;
+	private final Property _id;
+	private final Property _version;
+	private final Property[] _properties;
+	private final ImmutableMap<String, Property> _propertiesByName;
+
+	public AnnotatedTypeMapping(final String typeAlias, final Class<Type> typeClass, final Class<Id> idClass) {
+		super(typeAlias, typeClass, idClass);
+		if (idClass != String.class && idClass != Integer.class && idClass != Long.class) {
+			throw new IllegalArgumentException("unsupported id class " + idClass.getName());
+		}
+
+		final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+		try {
+			final Constructor<Type> constructor = typeClass.getDeclaredConstructor();
+			constructor.setAccessible(true);
+			_constructor = lookup.unreflectConstructor(constructor).asType(MethodType.methodType(Object.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			throw new IllegalArgumentException("no-arg constructor required for " + typeClass.getName(), e);
+		}
+
+		Property id = null;
+		Property version = null;
+		final List<Property> properties = Lists.newArrayList();
+		final ImmutableMap.Builder<String, Property> propertiesByName = ImmutableMap.builder();
+
+		for (Class<?> cls = typeClass; cls != null && cls != Object.class; cls = cls.getSuperclass()) {
+			for (final Field field : cls.getDeclaredFields()) {
+				if (Modifier.isStatic(field.getModifiers())) {
+					continue;
+				}
+
+				if (field.isAnnotationPresent(Esi4JId.class)) {
+					if (id != null) {
+						throw new IllegalArgumentException("multiple id fields in " + typeClass.getName());
+					}
+					if (Primitives.wrap(field.getType()) != idClass) {
+						throw new IllegalArgumentException("id field " + field.getName() + " is not of type "
+								+ idClass.getName());
+					}
+					id = property(lookup, field, FIELD_ID, true);
+				}
+
+				if (field.isAnnotationPresent(Esi4JVersion.class)) {
+					if (version != null) {
+						throw new IllegalArgumentException("multiple version fields in " + typeClass.getName());
+					}
+					if (Primitives.wrap(field.getType()) != Long.class) {
+						throw new IllegalArgumentException("version field " + field.getName() + " is not of type "
+								+ Long.class.getName());
+					}
+					version = property(lookup, field, FIELD_VERSION, true);
+				}
+
+				final Esi4JField annotation = field.getAnnotation(Esi4JField.class);
+				if (annotation != null) {
+					final String name = annotation.value().isEmpty() ? field.getName() : annotation.value();
+					final Property property = property(lookup, field, name, annotation.analyzed());
+					properties.add(property);
+					propertiesByName.put(name, property);
+				}
+			}
+		}
+
+		if (id == null) {
+			throw new IllegalArgumentException("no id field in " + typeClass.getName());
+		}
+
+		_id = id;
+		_version = version;
+		_properties = properties.toArray(new Property[properties.size()]);
+		_propertiesByName = propertiesByName.build();
+	}
+
+	@Override
+	protected void buildMapping(final RootObjectMapper.Builder mapperBuilder) throws IOException {
+		for (final Property property : _properties) {
+			mapperBuilder.add(property.mapping());
+		}
+	}
+
+	@Override
+	protected void writeObject(final XContentBuilder contentBuilder, final Type o) throws IOException {
+		for (final Property property : _properties) {
+			property.write(contentBuilder, o);
+		}
+	}
+
+	@Override
+	protected Type readObject(final Map<String, Object> source) {
+		final Type o = newInstance();
+		for (final Property property : _properties) {
+			if (source.containsKey(property._name)) {
+				property.set(o, property.convert(source.get(property._name)));
+			}
+		}
+		return o;
+	}
+
+	/**
+	 * read object from parser positioned before or at the start of an object. Unknown fields are skipped.
+	 */
+	@Override
+	@CheckForNull
+	public Type read(final XContentParser parser) throws IOException {
+		Token token = parser.currentToken();
+		if (token == null) {
+			token = parser.nextToken();
+		}
+		if (token == null || token == Token.VALUE_NULL) {
+			return null;
+		} else if (token != Token.START_OBJECT) {
+			throw new IOException("expected start of object, was " + token);
+		}
+
+		final Type o = newInstance();
+		while ((token = parser.nextToken()) == Token.FIELD_NAME) {
+			final String name = parser.currentName();
+			token = parser.nextToken();
+
+			if (FIELD_ID.equals(name)) {
+				setId(o, toId(parser.text()));
+			} else if (FIELD_VERSION.equals(name) && _version != null) {
+				setVersion(o, parser.longValue());
+			} else {
+				final Property property = _propertiesByName.get(name);
+				if (property == null) {
+					parser.skipChildren();
+				} else {
+					property.read(parser, o);
+				}
+			}
+		}
+		return o;
+	}
+
+	@Override
+	public boolean isVersioned() {
+		return _version != null;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	protected Id id(final Type o) {
+		return (Id) _id.get(o);
+	}
+
+	@Override
+	protected void setId(final Type o, final Id id) {
+		_id.set(o, id);
+	}
+
+	@Override
+	protected Long version(final Type o) {
+		return _version == null ? null : (Long) _version.get(o);
+	}
+
+	@Override
+	protected void setVersion(final Type o, final Long version) {
+		if (_version != null) {
+			_version.set(o, version);
+		}
+	}
+
+	@Override
+	public String toString(final Id id) {
+		return id.toString();
+	}
+
+	@Override
+	public Id toId(final String id) {
+		final Class<Id> idClass = getIdClass();
+		if (idClass == Long.class) {
+			return idClass.cast(Long.valueOf(id));
+		} else if (idClass == Integer.class) {
+			return idClass.cast(Integer.valueOf(id));
+		} else {
+			return idClass.cast(id);
+		}
+	}
+
+	private Type newInstance() {
+		try {
+			return cast(_constructor.invokeExact());
+		} catch (final RuntimeException | Error e) {
+			throw e;
+		} catch (final Throwable e) {
+			throw new RuntimeException("failed to create instance of " + getTypeClass().getName(), e);
+		}
+	}
+
+	private static Property property(final MethodHandles.Lookup lookup, final Field field, final String name, final boolean analyzed) {
+		field.setAccessible(true);
+
+		final MethodHandle getter;
+		final MethodHandle setter;
+		try {
+			getter = lookup.unreflectGetter(field).asType(MethodType.methodType(Object.class, Object.class));
+			setter = lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, Object.class));
+		} catch (final IllegalAccessException e) {
+			throw new IllegalArgumentException("failed to access field " + field.getName(), e);
+		}
+
+		final Class<?> type = Primitives.wrap(field.getType());
+		final boolean primitive = field.getType().isPrimitive();
+
+		if (type == String.class) {
+			return new Property(name, getter, setter, primitive) {
+
+				@Override
+				void writeValue(final XContentBuilder builder, final Object value) throws IOException {
+					builder.field(_name, (String) value);
+				}
+
+				@Override
+				Object readValue(final XContentParser parser) throws IOException {
+					return parser.text();
+				}
+
+				@Override
+				Object convertValue(final Object value) {
+					return value.toString();
+				}
+
+				@Override
+				Mapper.Builder<?, ?> mapping() {
+					return MapperBuilders.stringField(_name).tokenized(analyzed);
+				}
+			};
+		} else if (type == Integer.class) {
+			return new Property(name, getter, setter, primitive) {
+
+				@Override
+				void writeValue(final XContentBuilder builder, final Object value) throws IOException {
+					builder.field(_name, ((Integer) value).intValue());
+				}
+
+				@Override
+				Object readValue(final XContentParser parser) throws IOException {
+					return parser.intValue();
+				}
+
+				@Override
+				Object convertValue(final Object value) {
+					return value instanceof Number ? ((Number) value).intValue() : Integer.valueOf(value.toString());
+				}
+
+				@Override
+				Mapper.Builder<?, ?> mapping() {
+					return MapperBuilders.integerField(_name);
+				}
+			};
+		} else if (type == Long.class) {
+			return new Property(name, getter, setter, primitive) {
+
+				@Override
+				void writeValue(final XContentBuilder builder, final Object value) throws IOException {
+					builder.field(_name, ((Long) value).longValue());
+				}
+
+				@Override
+				Object readValue(final XContentParser parser) throws IOException {
+					return parser.longValue();
+				}
+
+				@Override
+				Object convertValue(final Object value) {
+					return value instanceof Number ? ((Number) value).longValue() : Long.valueOf(value.toString());
+				}
+
+				@Override
+				Mapper.Builder<?, ?> mapping() {
+					return MapperBuilders.longField(_name);
+				}
+			};
+		} else if (type == Float.class) {
+			return new Property(name, getter, setter, primitive) {
+
+				@Override
+				void writeValue(final XContentBuilder builder, final Object value) throws IOException {
+					builder.field(_name, ((Float) value).floatValue());
+				}
+
+				@Override
+				Object readValue(final XContentParser parser) throws IOException {
+					return parser.floatValue();
+				}
+
+				@Override
+				Object convertValue(final Object value) {
+					return value instanceof Number ? ((Number) value).floatValue() : Float.valueOf(value.toString());
+				}
+
+				@Override
+				Mapper.Builder<?, ?> mapping() {
+					return MapperBuilders.floatField(_name);
+				}
+			};
+		} else if (type == Double.class) {
+			return new Property(name, getter, setter, primitive) {
+
+				@Override
+				void writeValue(final XContentBuilder builder, final Object value) throws IOException {
+					builder.field(_name, ((Double) value).doubleValue());
+				}
+
+				@Override
+				Object readValue(final XContentParser parser) throws IOException {
+					return parser.doubleValue();
+				}
+
+				@Override
+				Object convertValue(final Object value) {
+					return value instanceof Number ? ((Number) value).doubleValue() : Double.valueOf(value.toString());
+				}
+
+				@Override
+				Mapper.Builder<?, ?> mapping() {
+					return MapperBuilders.doubleField(_name);
+				}
+			};
+		} else if (type == Boolean.class) {
+			return new Property(name, getter, setter, primitive) {
+
+				@Override
+				void writeValue(final XContentBuilder builder, final Object value) throws IOException {
+					builder.field(_name, ((Boolean) value).booleanValue());
+				}
+
+				@Override
+				Object readValue(final XContentParser parser) throws IOException {
+					return parser.booleanValue();
+				}
+
+				@Override
+				Object convertValue(final Object value) {
+					return value instanceof Boolean ? value : Boolean.valueOf(value.toString());
+				}
+
+				@Override
+				Mapper.Builder<?, ?> mapping() {
+					return MapperBuilders.booleanField(_name);
+				}
+			};
+		} else if (type == Date.class) {
+			return new Property(name, getter, setter, primitive) {
+
+				@Override
+				void writeValue(final XContentBuilder builder, final Object value) throws IOException {
+					builder.field(_name, (Date) value);
+				}
+
+				@Override
+				Object readValue(final XContentParser parser) throws IOException {
+					return parser.currentToken() == Token.VALUE_NUMBER ? new Date(parser.longValue()) : convertValue(parser
+							.text());
+				}
+
+				@Override
+				Object convertValue(final Object value) {
+					return value instanceof Number ? new Date(((Number) value).longValue()) : new Date(DATE_FORMAT
+							.parser().parseMillis(value.toString()));
+				}
+
+				@Override
+				Mapper.Builder<?, ?> mapping() {
+					return MapperBuilders.dateField(_name);
+				}
+			};
+		} else if (type.isEnum()) {
+			@SuppressWarnings({ "unchecked", "rawtypes" })
+			final Class<? extends Enum> enumType = (Class<? extends Enum>) type;
+			return new Property(name, getter, setter, primitive) {
+
+				@Override
+				void writeValue(final XContentBuilder builder, final Object value) throws IOException {
+					builder.field(_name, ((Enum<?>) value).name());
+				}
+
+				@Override
+				Object readValue(final XContentParser parser) throws IOException {
+					return convertValue(parser.text());
+				}
+
+				@Override
+				@SuppressWarnings("unchecked")
+				Object convertValue(final Object value) {
+					return Enum.valueOf(enumType, value.toString());
+				}
+
+				@Override
+				Mapper.Builder<?, ?> mapping() {
+					return MapperBuilders.stringField(_name).tokenized(false);
+				}
+			};
+		} else {
+			throw new IllegalArgumentException("unsupported type " + type.getName() + " of field " + field.getName());
+		}
+	}
+
+	/**
+	 * accessor and codec of a single field
+	 */
+	private abstract static class Property {
+
+		final String _name;
+		private final MethodHandle _getter;
+		private final MethodHandle _setter;
+		private final boolean _primitive;
+
+		private Property(final String name, final MethodHandle getter, final MethodHandle setter, final boolean primitive) {
+			_name = name;
+			_getter = getter;
+			_setter = setter;
+			_primitive = primitive;
+		}
+
+		final Object get(final Object o) {
+			try {
+				return (Object) _getter.invokeExact(o);
+			} catch (final RuntimeException | Error e) {
+				throw e;
+			} catch (final Throwable e) {
+				throw new RuntimeException("failed to get " + _name, e);
+			}
+		}
+
+		final void set(final Object o, final Object value) {
+			if (value == null && _primitive) {
+				// keep default value
+				return;
+			}
+			try {
+				_setter.invokeExact(o, value);
+			} catch (final RuntimeException | Error e) {
+				throw e;
+			} catch (final Throwable e) {
+				throw new RuntimeException("failed to set " + _name, e);
+			}
+		}
+
+		final void write(final XContentBuilder builder, final Object o) throws IOException {
+			final Object value = get(o);
+			if (value == null) {
+				builder.nullField(_name);
+			} else {
+				writeValue(builder, value);
+			}
+		}
+
+		final void read(final XContentParser parser, final Object o) throws IOException {
+			set(o, parser.currentToken() == Token.VALUE_NULL ? null : readValue(parser));
+		}
+
+		final Object convert(final Object value) {
+			return value == null ? null : convertValue(value);
+		}
+
+		abstract void writeValue(XContentBuilder builder, Object value) throws IOException;
+
+		abstract Object readValue(XContentParser parser) throws IOException;
+
+		abstract Object convertValue(Object value);
+
+		abstract Mapper.Builder<?, ?> mapping();
+	}
+}
@@ -18,11 +18,15 @@ package at.molindo.esi4j.mapping.impl;
 import static org.elasticsearch.common.xcontent.ToXContent.*;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Map;
+import java.util.Set;
 
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.ToXContent;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.common.xcontent.json.JsonXContent;
 import org.elasticsearch.index.mapper.ContentPath;
 import org.elasticsearch.index.mapper.Mapper.BuilderContext;
@@ -50,6 +54,12 @@ public abstract class GenericTypeMapping<Type, Id> extends TypeMapping {
 	private final Class<Type> _typeClass;
 	private final Class<Id> _idClass;
 
+	/**
+	 * true if sources are written by {@link #write(XContentBuilder, Object)} only, i.e. they might be written directly
+	 * to buffers
+	 */
+	private final boolean _defaultObjectSource;
+
 	private String _mapping;
 
 	public GenericTypeMapping(final String typeAlias, final Class<Type> typeClass, final Class<Id> idClass) {
@@ -62,6 +72,19 @@ public abstract class GenericTypeMapping<Type, Id> extends TypeMapping {
 		}
 		_typeClass = typeClass;
 		_idClass = idClass;
+		_defaultObjectSource = !isOverridden(GenericTypeMapping.class, "getObjectSource", Object.class)
+				&& !isOverridden(GenericTypeMapping.class, "getObjectSource", Object.class, XContentType.class);
+	}
+
+	/**
+	 * @return true if public method declared by given class is overridden by this mapping
+	 */
+	final boolean isOverridden(final Class<?> declaringClass, final String name, final Class<?>... parameterTypes) {
+		try {
+			return getClass().getMethod(name, parameterTypes).getDeclaringClass() != declaringClass;
+		} catch (final NoSuchMethodException e) {
+			throw new IllegalStateException("method " + name + " not found", e);
+		}
 	}
 
 	@Override
@@ -112,8 +135,40 @@ public abstract class GenericTypeMapping<Type, Id> extends TypeMapping {
 
 	@Override
 	public ObjectWriteSource getObjectSource(final Object o) {
+		return getObjectSource(o, getContentType());
+	}
+
+	@Override
+	public ObjectWriteSource getObjectSource(final Object o, final XContentType contentType) {
 		try {
-			return ObjectWriteSource.Builder.builder(getContentBuilder(o));
+			return ObjectWriteSource.Builder.builder(getContentBuilder(o, contentType));
+		} catch (final IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	protected boolean writeObjectSource(final Object o, final OutputStream out) throws IOException {
+		if (!_defaultObjectSource) {
+			// use overridden getObjectSource(Object) instead
+			return false;
+		}
+		final XContentBuilder contentBuilder = XContentFactory.contentBuilder(getContentType(), out);
+		write(contentBuilder, o);
+		contentBuilder.close();
+		return true;
+	}
+
+	@Override
+	public ObjectWriteSource getPartialObjectSource(final Object o, final Set<String> properties) {
+		try {
+			final XContentBuilder contentBuilder = XContentFactory.contentBuilder(getContentType());
+			contentBuilder.startObject();
+			if (!writeProperties(contentBuilder, cast(o), properties)) {
+				return null;
+			}
+			contentBuilder.endObject();
+			return ObjectWriteSource.Builder.builder(contentBuilder);
 		} catch (final IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -122,10 +177,14 @@ public abstract class GenericTypeMapping<Type, Id> extends TypeMapping {
 	/**
 	 * public for testing.
 	 *
-	 * @return a JsonXContent builder
+	 * @return a builder of {@link #getContentType()}
 	 */
 	public final XContentBuilder getContentBuilder(final Object o) throws IOException {
-		final XContentBuilder contentBuilder = JsonXContent.contentBuilder();
+		return getContentBuilder(o, getContentType());
+	}
+
+	public final XContentBuilder getContentBuilder(final Object o, final XContentType contentType) throws IOException {
+		final XContentBuilder contentBuilder = XContentFactory.contentBuilder(contentType);
 		write(contentBuilder, o);
 		return contentBuilder;
 	}
@@ -209,6 +268,17 @@ public abstract class GenericTypeMapping<Type, Id> extends TypeMapping {
 
 	protected abstract void writeObject(XContentBuilder contentBuilder, Type o) throws IOException;
 
+	/**
+	 * write all fields depending on given properties for a partial update. Written fields are merged into the
+	 * existing document.
+	 *
+	 * @return <code>false</code> if partial updates aren't supported for given properties
+	 * @see #getIndexedProperties()
+	 */
+	protected boolean writeProperties(final XContentBuilder contentBuilder, final Type o, final Set<String> properties) throws IOException {
+		return false;
+	}
+
 	@Override
 	public Object read(final ObjectReadSource source) {
 		final Map<String, Object> map = source.map();
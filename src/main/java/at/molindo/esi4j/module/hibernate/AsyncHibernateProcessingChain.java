@@ -42,7 +42,7 @@ public class AsyncHibernateProcessingChain implements Esi4JBatchedProcessingChai
 
 		_taksProcessor = new QueuedTaskProcessor(index, entityResolver);
 
-		_batchedEventProcessor = new DefaultBatchedEventProcessor(_taksProcessor, taskSources);
+		_batchedEventProcessor = new DefaultBatchedEventProcessor(_taksProcessor, taskSources, entityResolver);
 	}
 
 	@Override
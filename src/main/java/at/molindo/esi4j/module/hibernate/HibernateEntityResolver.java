@@ -16,41 +16,57 @@
 package at.molindo.esi4j.module.hibernate;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.Date;
-import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentMap;
 
 import org.hibernate.CacheMode;
 import org.hibernate.FlushMode;
-import org.hibernate.ObjectNotFoundException;
+import org.hibernate.Query;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.SharedSessionContract;
+import org.hibernate.StatelessSession;
 import org.hibernate.engine.spi.SessionImplementor;
 import org.hibernate.metadata.ClassMetadata;
-import org.hibernate.proxy.HibernateProxy;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 import at.molindo.esi4j.chain.Esi4JBatchedEntityResolver;
+import at.molindo.esi4j.chain.Esi4JDependencyResolver;
 import at.molindo.esi4j.chain.Esi4JEntityTask;
 import at.molindo.esi4j.chain.Esi4JSessionEntityResolver;
 import at.molindo.esi4j.ex.EntityNotResolveableException;
 import at.molindo.esi4j.mapping.ObjectKey;
+import at.molindo.esi4j.mapping.TypeDependency;
 import at.molindo.utils.collections.ArrayUtils;
 import at.molindo.utils.collections.ClassMap;
+import at.molindo.utils.collections.ListMap;
 
-public class HibernateEntityResolver implements Esi4JBatchedEntityResolver, Esi4JSessionEntityResolver {
+public class HibernateEntityResolver implements Esi4JBatchedEntityResolver, Esi4JSessionEntityResolver, Esi4JDependencyResolver {
 
 	private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(HibernateEntityResolver.class);
 
+	public static final int DEFAULT_BATCH_SIZE = 500;
+
 	private final SessionFactory _sessionFactory;
 	private final ClassMap<String> _entityNames = ClassMap.create();
-	private final ThreadLocal<Session> _localSession = new ThreadLocal<>();
+	private final ThreadLocal<SharedSessionContract> _localSession = new ThreadLocal<>();
 
 	/**
-	 * this is an optimization while bulk resolving. Use {@link Session#load(Class, Serializable)} to resolve and fetch
-	 * later using configured bulk fetching.
+	 * this is an optimization while bulk resolving. Collect keys of all tasks and load them using batched queries.
 	 */
 	private final ThreadLocal<EntityBatchResolve> _batchResolve = new ThreadLocal<>();
 
+	private final ConcurrentMap<Class<?>, String[]> _fetchJoins = Maps.newConcurrentMap();
+	private final ConcurrentMap<Class<?>, String> _fetchProfiles = Maps.newConcurrentMap();
+	private volatile int _batchSize = DEFAULT_BATCH_SIZE;
+
 	public HibernateEntityResolver(final SessionFactory sessionFactory) {
 		if (sessionFactory == null) {
 			throw new NullPointerException("sessionFactory");
@@ -110,7 +126,7 @@ public class HibernateEntityResolver implements Esi4JBatchedEntityResolver, Esi4
 
 	@Override
 	public void startResolveSession() {
-		Session session = _localSession.get();
+		Session session = (Session) _localSession.get();
 
 		if (session != null) {
 			log.warn("session already open, now closing first");
@@ -128,7 +144,7 @@ public class HibernateEntityResolver implements Esi4JBatchedEntityResolver, Esi4
 
 	@Override
 	public void closeResolveSession() {
-		final Session session = _localSession.get();
+		final Session session = (Session) _localSession.get();
 		if (session != null) {
 			session.getTransaction().commit();
 			session.clear();
@@ -140,26 +156,20 @@ public class HibernateEntityResolver implements Esi4JBatchedEntityResolver, Esi4
 	}
 
 	@Override
-	public Object resolveEntity(final Object replacedEntity) {
+	public Object resolveEntity(final Object replacedEntity) throws EntityNotResolveableException {
 		if (replacedEntity instanceof ObjectKey) {
 			final ObjectKey key = (ObjectKey) replacedEntity;
 
-			final Session session = _localSession.get();
-			if (session == null) {
-				throw new IllegalStateException("no session available");
-			}
+			final SharedSessionContract session = getResolveSession();
 
 			final EntityBatchResolve batchResolve = _batchResolve.get();
-
-			// ignore version, use latest, use load for batch fetching
-			Object resolvedEntity;
 			if (batchResolve != null) {
-				resolvedEntity = session.load(key.getType(), key.getId());
-				batchResolve.resolved(resolvedEntity);
-			} else {
-				resolvedEntity = session.get(key.getType(), key.getId());
+				return batchResolve.resolve(key);
 			}
 
+			// ignore version, use latest
+			final Object resolvedEntity = get(session, key.getType(), key.getId());
+
 			if (resolvedEntity == null) {
 				log.error("can't resolve object " + key);
 			}
@@ -172,35 +182,176 @@ public class HibernateEntityResolver implements Esi4JBatchedEntityResolver, Esi4
 
 	}
 
+	/**
+	 * collects keys of all tasks first, then loads entities per type using chunked <code>id in (...)</code> queries
+	 * including configured fetch joins and fetch profiles. Tasks of entities that don't exist anymore are removed.
+	 */
 	@Override
 	public void resolveEntities(final Esi4JEntityTask[] tasks) {
 		if (!ArrayUtils.empty(tasks)) {
+			final SharedSessionContract session = getResolveSession();
 
-			final EntityBatchResolve batchResolve = new EntityBatchResolve(tasks.length);
+			final EntityBatchResolve batchResolve = new EntityBatchResolve();
 			_batchResolve.set(batchResolve);
 			try {
+				// collect keys, entities remain replaced
+				for (final Esi4JEntityTask task : tasks) {
+					if (task != null) {
+						try {
+							task.resolveEntity(this);
+						} catch (final EntityNotResolveableException e) {
+							throw new IllegalStateException("unexpected exception while collecting keys", e);
+						}
+					}
+				}
+
+				batchResolve.load(session);
+
 				for (int i = 0; i < tasks.length; i++) {
 					final Esi4JEntityTask task = tasks[i];
 					if (task != null) {
-						batchResolve.task(task);
 						try {
 							task.resolveEntity(this);
 						} catch (final EntityNotResolveableException e) {
-							// this should never happen or something is wrong
-							log.warn("can't resolve entity although proxy expected");
+							log.debug("can't resolve entity, removing task");
 							tasks[i] = null;
 						}
 					}
-
 				}
 			} finally {
 				_batchResolve.remove();
 			}
+		}
+	}
+
+	/**
+	 * associations to fetch while resolving entities of this type, e.g. those written by the type's mapping
+	 *
+	 * @param paths
+	 *            property paths relative to entity, e.g. "category" or "tags"
+	 */
+	public void setFetchJoins(final Class<?> type, final String... paths) {
+		if (type == null) {
+			throw new NullPointerException("type");
+		}
+		if (ArrayUtils.empty(paths)) {
+			_fetchJoins.remove(type);
+		} else {
+			_fetchJoins.put(type, paths.clone());
+		}
+	}
+
+	/**
+	 * Hibernate fetch profile to enable while resolving entities of this type
+	 *
+	 * @param profile
+	 *            name of fetch profile or <code>null</code> to disable
+	 */
+	public void setFetchProfile(final Class<?> type, final String profile) {
+		if (type == null) {
+			throw new NullPointerException("type");
+		}
+		if (profile == null) {
+			_fetchProfiles.remove(type);
+		} else {
+			_fetchProfiles.put(type, profile);
+		}
+	}
+
+	/**
+	 * @param batchSize
+	 *            maximum number of ids per query, defaults to {@value #DEFAULT_BATCH_SIZE}
+	 */
+	public void setBatchSize(final int batchSize) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("batchSize must be > 0, was " + batchSize);
+		}
+		_batchSize = batchSize;
+	}
+
+	public int getBatchSize() {
+		return _batchSize;
+	}
+
+	/**
+	 * must be called within resolve session. Uses a single id projection query joining owners with changed entities.
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Serializable> findOwnerIds(final Class<?> ownerType, final TypeDependency dependency, final Collection<Serializable> ids) {
+		final SharedSessionContract session = getResolveSession();
+
+		final ClassMetadata ownerMeta = getClassMetadata(ownerType);
+		final ClassMetadata meta = getClassMetadata(dependency.getType());
+
+		final Query query = session.createQuery("select distinct o." + getIdentifierPropertyName(ownerMeta) + " from "
+				+ ownerMeta.getEntityName() + " o join o." + dependency.getPath() + " d where d."
+				+ getIdentifierPropertyName(meta) + " in (:ids)");
+		query.setParameterList("ids", ids);
+		return query.list();
+	}
+
+	/**
+	 * @return session of current resolve session
+	 * @throws IllegalStateException
+	 *             if there is no resolve session
+	 */
+	protected final SharedSessionContract getResolveSession() {
+		final SharedSessionContract session = _localSession.get();
+		if (session == null) {
+			throw new IllegalStateException("no session available");
+		}
+		return session;
+	}
+
+	/**
+	 * @param session
+	 *            session used for resolving in current thread or <code>null</code>
+	 */
+	protected final void setResolveSession(final SharedSessionContract session) {
+		if (session == null) {
+			_localSession.remove();
+		} else {
+			_localSession.set(session);
+		}
+	}
 
-			batchResolve.resolve(tasks);
+	private static Object get(final SharedSessionContract session, final Class<?> type, final Serializable id) {
+		if (session instanceof StatelessSession) {
+			return ((StatelessSession) session).get(type, id);
+		} else {
+			return ((Session) session).get(type, id);
 		}
 	}
 
+	ClassMetadata getClassMetadata(final Class<?> type) {
+		final String entityName = _entityNames.find(type);
+		if (entityName == null) {
+			throw new IllegalArgumentException("unmapped type " + type.getName());
+		}
+		return getSessionFactory().getClassMetadata(entityName);
+	}
+
+	static String getIdentifierPropertyName(final ClassMetadata meta) {
+		final String name = meta.getIdentifierPropertyName();
+		// special property for identifier
+		return name == null ? "id" : name;
+	}
+
+	/**
+	 * @return HQL query loading entities by <code>:ids</code> including fetch joins
+	 */
+	static String loadQuery(final ClassMetadata meta, final String[] fetchJoins) {
+		final StringBuilder buf = new StringBuilder("select distinct e from ").append(meta.getEntityName())
+				.append(" e");
+		if (fetchJoins != null) {
+			for (final String path : fetchJoins) {
+				buf.append(" left join fetch e.").append(path);
+			}
+		}
+		return buf.append(" where e.").append(getIdentifierPropertyName(meta)).append(" in (:ids)").toString();
+	}
+
 	protected Session getCurrentSession(final SessionFactory factory) {
 		return factory.getCurrentSession();
 	}
@@ -214,47 +365,64 @@ public class HibernateEntityResolver implements Esi4JBatchedEntityResolver, Esi4
 	}
 
 	/**
-	 * collect entities created by {@link Session#load(Class, Serializable)} and load them, giving Hibernate a change to
-	 * use it's bulk configuration to reduce number of queries.
+	 * collects keys while resolving tasks the first time and loads them in batches before resolving tasks again
 	 */
 	private final class EntityBatchResolve {
 
-		private final IdentityHashMap<Esi4JEntityTask, Object> _resolved;
-		private Esi4JEntityTask _task;
-
-		private EntityBatchResolve(final int expectedMaxSize) {
-			_resolved = new IdentityHashMap<>(expectedMaxSize);
-		}
+		private final ListMap<Class<?>, Serializable> _keys = new ListMap<>();
+		private Map<ObjectKey, Object> _resolved;
 
-		public void resolve(final Esi4JEntityTask tasks[]) {
-			for (int i = 0; i < tasks.length; i++) {
-				final Esi4JEntityTask task = tasks[i];
-				if (task != null) {
-					final Object resolved = _resolved.get(task);
-					if (resolved instanceof HibernateProxy) {
-						try {
-							((HibernateProxy) resolved).getHibernateLazyInitializer().initialize();
-						} catch (final ObjectNotFoundException e) {
-							log.debug("can't initialize proxy, removing task");
-							tasks[i] = null;
-						}
-					}
-				}
+		private Object resolve(final ObjectKey key) throws EntityNotResolveableException {
+			if (_resolved == null) {
+				_keys.add(key.getType(), key.getId());
+				// keep replaced entity until loaded
+				return key;
+			}
 
+			// versions are ignored by equals, use latest
+			final Object resolved = _resolved.get(key);
+			if (resolved == null) {
+				throw new EntityNotResolveableException();
 			}
+			return resolved;
 		}
 
-		private void task(final Esi4JEntityTask task) {
-			_task = task;
-		}
+		private void load(final SharedSessionContract session) {
+			_resolved = Maps.newHashMap();
+			for (final Map.Entry<Class<?>, List<Serializable>> e : _keys.entrySet()) {
+				final Class<?> type = e.getKey();
+				final ClassMetadata meta = getClassMetadata(type);
+
+				final List<Serializable> ids = Lists.newArrayList(Sets.newLinkedHashSet(e.getValue()));
 
-		private void resolved(final Object resolvedEntity) {
-			if (_task == null) {
-				throw new IllegalStateException("no entity expected");
+				// fetch profiles aren't supported by stateless sessions
+				final String profile = session instanceof Session ? _fetchProfiles.get(type) : null;
+				if (profile != null) {
+					((Session) session).enableFetchProfile(profile);
+				}
+				try {
+					if (meta.getIdentifierType().isComponentType()) {
+						// no in-queries for composite ids
+						for (final Serializable id : ids) {
+							final Object entity = get(session, type, id);
+							if (entity != null) {
+								_resolved.put(new ObjectKey(type, id), entity);
+							}
+						}
+					} else {
+						final String hql = loadQuery(meta, _fetchJoins.get(type));
+						for (final List<Serializable> chunk : Lists.partition(ids, _batchSize)) {
+							for (final Object entity : session.createQuery(hql).setParameterList("ids", chunk).list()) {
+								_resolved.put(new ObjectKey(type, meta.getIdentifier(entity, (SessionImplementor) session)), entity);
+							}
+						}
+					}
+				} finally {
+					if (profile != null) {
+						((Session) session).disableFetchProfile(profile);
+					}
+				}
 			}
-			_resolved.put(_task, resolvedEntity);
-			_task = null;
 		}
-
 	}
 }
@@ -17,7 +17,10 @@ package at.molindo.esi4j.module.hibernate;
 
 import java.io.NotSerializableException;
 import java.io.ObjectStreamException;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.transaction.Status;
 import javax.transaction.Synchronization;
@@ -31,10 +34,20 @@ import org.hibernate.event.spi.PostInsertEventListener;
 import org.hibernate.event.spi.PostUpdateEvent;
 import org.hibernate.event.spi.PostUpdateEventListener;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 import at.molindo.esi4j.chain.Esi4JBatchedEventProcessor;
+import at.molindo.esi4j.chain.Esi4JBatchedEventProcessor.DiscardableEventSession;
 import at.molindo.esi4j.chain.Esi4JBatchedEventProcessor.EventSession;
+import at.molindo.esi4j.chain.Esi4JEventListener;
+import at.molindo.esi4j.chain.Esi4JPartialUpdateEventListener;
+import at.molindo.esi4j.core.Esi4JIndex;
+import at.molindo.esi4j.core.Esi4JOperation.OperationContext;
+import at.molindo.esi4j.mapping.TypeMapping;
 
 public class HibernateEventListener implements PostDeleteEventListener, PostInsertEventListener, PostUpdateEventListener {
 
@@ -44,8 +57,14 @@ public class HibernateEventListener implements PostDeleteEventListener, PostInse
 
 	private transient final Esi4JBatchedEventProcessor _batchedEventProcessor;
 
-	// TODO make weak for uncompleted transactions??
-	private final ConcurrentMap<Transaction, EventSession> _map = Maps.newConcurrentMap();
+	/**
+	 * weak keys to evict sessions of transactions that never complete, e.g. if a session is closed without commit or
+	 * rollback
+	 */
+	private final ConcurrentMap<Transaction, EventSession> _map = CacheBuilder.newBuilder().weakKeys()
+			.removalListener(new AbandonedSessionListener()).<Transaction, EventSession> build().asMap();
+
+	private final ConcurrentMap<Class<?>, AtomicLong> _skippedUpdates = Maps.newConcurrentMap();
 
 	public HibernateEventListener(final Esi4JBatchedEventProcessor batchedEventProcessor) {
 		if (batchedEventProcessor == null) {
@@ -57,6 +76,9 @@ public class HibernateEventListener implements PostDeleteEventListener, PostInse
 
 	@Override
 	public void onPostInsert(final PostInsertEvent event) {
+		if (!isProcessing(event.getEntity())) {
+			return;
+		}
 		final EventSession eventSession = findEventSession(event.getSession());
 		if (eventSession != null) {
 			eventSession.onPostInsert(event.getEntity());
@@ -67,16 +89,31 @@ public class HibernateEventListener implements PostDeleteEventListener, PostInse
 
 	@Override
 	public void onPostUpdate(final PostUpdateEvent event) {
+		if (!isProcessing(event.getEntity())) {
+			return;
+		}
+		final Set<String> dirtyProperties = getDirtyIndexedProperties(event);
+		if (dirtyProperties != null && dirtyProperties.isEmpty()) {
+			skippedUpdate(event.getEntity().getClass());
+			return;
+		}
+
 		final EventSession eventSession = findEventSession(event.getSession());
-		if (eventSession != null) {
-			eventSession.onPostUpdate(event.getEntity());
+		final Esi4JEventListener listener = eventSession != null ? eventSession : _batchedEventProcessor;
+		if (dirtyProperties != null && listener instanceof Esi4JPartialUpdateEventListener) {
+			// partial update
+			((Esi4JPartialUpdateEventListener) listener).onPostUpdate(event.getEntity(), dirtyProperties);
 		} else {
-			_batchedEventProcessor.onPostUpdate(event.getEntity());
+			// reindex
+			listener.onPostUpdate(event.getEntity());
 		}
 	}
 
 	@Override
 	public void onPostDelete(final PostDeleteEvent event) {
+		if (!isProcessing(event.getEntity())) {
+			return;
+		}
 		final EventSession eventSession = findEventSession(event.getSession());
 		if (eventSession != null) {
 			eventSession.onPostDelete(event.getEntity());
@@ -85,6 +122,75 @@ public class HibernateEventListener implements PostDeleteEventListener, PostInse
 		}
 	}
 
+	/**
+	 * unprocessed entities exit before an {@link EventSession} is started for their transaction
+	 */
+	private boolean isProcessing(final Object entity) {
+		return _batchedEventProcessor.isProcessing(entity.getClass());
+	}
+
+	/**
+	 * @return dirty properties that are indexed according to the entity's {@link TypeMapping#getIndexedProperties()},
+	 *         <code>null</code> if unknown or all indexed properties are dirty
+	 */
+	private Set<String> getDirtyIndexedProperties(final PostUpdateEvent event) {
+		final int[] dirty = event.getDirtyProperties();
+		if (dirty == null) {
+			// unknown, e.g. for detached entities without snapshot
+			return null;
+		}
+
+		final Object entity = event.getEntity();
+		final Esi4JIndex index = _batchedEventProcessor.getTaskProcessor().getIndex();
+		if (!(index instanceof OperationContext) || !index.isMapped(entity)) {
+			return null;
+		}
+
+		final Set<String> indexed = ((OperationContext) index).findTypeMapping(entity).getIndexedProperties();
+		if (indexed == null) {
+			return null;
+		}
+
+		final String[] names = event.getPersister().getPropertyNames();
+		final Set<String> dirtyIndexed = Sets.newHashSet();
+		for (final int i : dirty) {
+			if (indexed.contains(names[i])) {
+				dirtyIndexed.add(names[i]);
+			}
+		}
+		return dirtyIndexed.size() == indexed.size() ? null : dirtyIndexed;
+	}
+
+	private void skippedUpdate(final Class<?> type) {
+		AtomicLong counter = _skippedUpdates.get(type);
+		if (counter == null) {
+			final AtomicLong prev = _skippedUpdates.putIfAbsent(type, counter = new AtomicLong());
+			if (prev != null) {
+				counter = prev;
+			}
+		}
+		counter.incrementAndGet();
+	}
+
+	/**
+	 * @return number of updates skipped as no indexed property was dirty
+	 */
+	public long getSkippedUpdates(final Class<?> type) {
+		final AtomicLong counter = _skippedUpdates.get(type);
+		return counter == null ? 0 : counter.get();
+	}
+
+	/**
+	 * @return number of updates skipped per type as no indexed property was dirty
+	 */
+	public Map<Class<?>, Long> getSkippedUpdates() {
+		final Map<Class<?>, Long> map = Maps.newHashMap();
+		for (final Map.Entry<Class<?>, AtomicLong> e : _skippedUpdates.entrySet()) {
+			map.put(e.getKey(), e.getValue().get());
+		}
+		return map;
+	}
+
 	private EventSession findEventSession(final EventSource hibernateSession) {
 		if (hibernateSession.isTransactionInProgress()) {
 			final Transaction transaction = hibernateSession.getTransaction();
@@ -107,6 +213,15 @@ public class HibernateEventListener implements PostDeleteEventListener, PostInse
 		throw new NotSerializableException(HibernateEventListener.class.getName());
 	}
 
+	/**
+	 * drops tasks of sessions that support it, others are dropped with the session
+	 */
+	private static void discard(final EventSession session) {
+		if (session instanceof DiscardableEventSession) {
+			((DiscardableEventSession) session).discard();
+		}
+	}
+
 	private final class Esi4JHibernateSynchronization implements Synchronization {
 
 		private final Transaction _transaction;
@@ -130,7 +245,21 @@ public class HibernateEventListener implements PostDeleteEventListener, PostInse
 			if (session == null) {
 				log.error("no session registered for transaction");
 			} else if (status == Status.STATUS_COMMITTED) {
+				// entities are still attached, i.e. eager serialization happens here
 				session.flush();
+			} else {
+				discard(session);
+			}
+		}
+	}
+
+	private static final class AbandonedSessionListener implements RemovalListener<Transaction, EventSession> {
+
+		@Override
+		public void onRemoval(final RemovalNotification<Transaction, EventSession> notification) {
+			if (notification.wasEvicted()) {
+				log.warn("discarding events of abandoned transaction");
+				discard(notification.getValue());
 			}
 		}
 	}
@@ -44,6 +44,9 @@ public class HibernateModule implements Esi4JModule {
 
 	private final ConcurrentMap<Class<?>, ScrollingSessionProvider> _scrollingProviders = Maps.newConcurrentMap();
 
+	private final ConcurrentMap<Class<?>, String[]> _fetchJoins = Maps.newConcurrentMap();
+	private volatile boolean _stateless;
+
 	public HibernateModule(final SessionFactory sessionFactory) {
 		if (sessionFactory == null) {
 			throw new NullPointerException("sessionFactory");
@@ -68,8 +71,26 @@ public class HibernateModule implements Esi4JModule {
 		} else if (!_rebuilding.add(type)) {
 			throw new IllegalStateException("already indexing " + type.getName());
 		} else {
-			return new HibernateRebuildSession(type, _sessionFactory, this, newScrollingSession(type));
+			try {
+				if (isStatelessRebuild(type)) {
+					return new StatelessHibernateRebuildSession(type, _sessionFactory, this, _fetchJoins.get(type));
+				} else {
+					return new HibernateRebuildSession(type, _sessionFactory, this, newScrollingSession(type));
+				}
+			} catch (final RuntimeException e) {
+				_rebuilding.remove(type);
+				throw e;
+			}
+		}
+	}
+
+	private boolean isStatelessRebuild(final Class<?> type) {
+		if (!_stateless || _scrollingProviders.containsKey(type)) {
+			// custom scrolling requires a session
+			return false;
 		}
+		final ClassMetadata meta = _sessionFactory.getClassMetadata(type);
+		return meta != null && !meta.getIdentifierType().isComponentType();
 	}
 
 	private ScrollingSession newScrollingSession(final Class<?> type) {
@@ -92,6 +113,36 @@ public class HibernateModule implements Esi4JModule {
 		_scrollingProviders.put(scrollingProvider.getType(), scrollingProvider);
 	}
 
+	/**
+	 * rebuild types using {@link StatelessHibernateRebuildSession} unless there is a custom
+	 * {@link ScrollingSessionProvider} or a composite id
+	 */
+	public void setStatelessRebuild(final boolean stateless) {
+		_stateless = stateless;
+	}
+
+	public boolean isStatelessRebuild() {
+		return _stateless;
+	}
+
+	/**
+	 * associations to fetch during stateless rebuilds of this type
+	 *
+	 * @param paths
+	 *            property paths relative to entity, e.g. "category" or "tags"
+	 * @see #setStatelessRebuild(boolean)
+	 */
+	public void setFetchJoins(final Class<?> type, final String... paths) {
+		if (type == null) {
+			throw new NullPointerException("type");
+		}
+		if (paths == null || paths.length == 0) {
+			_fetchJoins.remove(type);
+		} else {
+			_fetchJoins.put(type, paths.clone());
+		}
+	}
+
 	@Override
 	public Class<?>[] getTypes() {
 		return _types.toArray(new Class<?>[_types.size()]);
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.module.hibernate;
+
+import java.io.Closeable;
+import java.util.Set;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.engine.spi.SessionImplementor;
+
+import com.google.common.collect.Sets;
+
+/**
+ * {@link HibernateEntityResolver} resolving entities using a {@link StatelessSession}. There is no persistence context
+ * to maintain and each executor thread reuses its session across batches, only a transaction is started per batch.
+ * Lazy associations can't be initialized on entities loaded by stateless sessions, use
+ * {@link #setFetchJoins(Class, String...)} to fetch everything required by a type's mapping. Fetch profiles aren't
+ * supported.
+ *
+ * {@link #close()} closes sessions of all threads and must be called after processing chains using this resolver were
+ * closed.
+ */
+public class StatelessHibernateEntityResolver extends HibernateEntityResolver implements Closeable {
+
+	private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(StatelessHibernateEntityResolver.class);
+
+	private final ThreadLocal<StatelessSession> _threadSession = new ThreadLocal<>();
+	private final Set<StatelessSession> _sessions = Sets.newConcurrentHashSet();
+
+	public StatelessHibernateEntityResolver(final SessionFactory sessionFactory) {
+		super(sessionFactory);
+	}
+
+	@Override
+	public void startResolveSession() {
+		StatelessSession session = _threadSession.get();
+
+		if (session == null || ((SessionImplementor) session).isClosed()) {
+			session = getNewStatelessSession(getSessionFactory());
+			_threadSession.set(session);
+			_sessions.add(session);
+		} else if (session.getTransaction().isActive()) {
+			log.warn("session already open, now closing first");
+			closeResolveSession();
+		}
+
+		session.beginTransaction();
+		setResolveSession(session);
+	}
+
+	/**
+	 * commits transaction but keeps session open for next batch of current thread
+	 */
+	@Override
+	public void closeResolveSession() {
+		final StatelessSession session = _threadSession.get();
+		if (session != null && session.getTransaction().isActive()) {
+			session.getTransaction().commit();
+		} else {
+			log.warn("session not open");
+		}
+		setResolveSession(null);
+	}
+
+	/**
+	 * @throws UnsupportedOperationException
+	 *             always, use {@link #setFetchJoins(Class, String...)} instead
+	 */
+	@Override
+	public void setFetchProfile(final Class<?> type, final String profile) {
+		throw new UnsupportedOperationException("fetch profiles not supported by stateless sessions");
+	}
+
+	protected StatelessSession getNewStatelessSession(final SessionFactory factory) {
+		return factory.openStatelessSession();
+	}
+
+	/**
+	 * @return number of open sessions, i.e. threads that used this resolver
+	 */
+	public int getOpenSessions() {
+		return _sessions.size();
+	}
+
+	/**
+	 * close sessions of all threads
+	 */
+	@Override
+	public void close() {
+		for (final StatelessSession session : _sessions) {
+			try {
+				if (session.getTransaction().isActive()) {
+					session.getTransaction().rollback();
+				}
+				session.close();
+			} catch (final RuntimeException e) {
+				log.warn("failed to close stateless session", e);
+			}
+		}
+		_sessions.clear();
+	}
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.module.hibernate;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.metadata.ClassMetadata;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import at.molindo.esi4j.rebuild.Esi4JRebuildSession;
+
+/**
+ * {@link Esi4JRebuildSession} using a {@link StatelessSession}. Each batch is fetched using an ordered id query
+ * followed by an <code>id in (...)</code> query including configured fetch joins, i.e. associations don't affect the
+ * size of a batch. Lazy associations can't be initialized on entities loaded by stateless sessions, hence fetch joins
+ * must cover everything required by the type's mapping.
+ */
+public final class StatelessHibernateRebuildSession implements Esi4JRebuildSession {
+
+	private final Transaction _tx;
+	private final StatelessSession _session;
+	private final Class<?> _type;
+	private final HibernateModule _module;
+	private final ClassMetadata _meta;
+	private final String _firstIdQuery;
+	private final String _idQuery;
+	private final String _loadQuery;
+
+	private Serializable _lastId;
+
+	/**
+	 * @param fetchJoins
+	 *            property paths to fetch, might be <code>null</code>
+	 */
+	public StatelessHibernateRebuildSession(final Class<?> type, final SessionFactory sessionFactory, final HibernateModule module, final String[] fetchJoins) {
+		if (type == null) {
+			throw new NullPointerException("type");
+		}
+		if (sessionFactory == null) {
+			throw new NullPointerException("sessionFactory");
+		}
+		if (module == null) {
+			throw new NullPointerException("module");
+		}
+
+		_meta = sessionFactory.getClassMetadata(type);
+		if (_meta == null) {
+			throw new IllegalArgumentException("unmapped type " + type.getName());
+		}
+		if (_meta.getIdentifierType().isComponentType()) {
+			throw new IllegalArgumentException("composite ids not supported, type " + type.getName());
+		}
+
+		_type = type;
+		_module = module;
+
+		final String id = HibernateEntityResolver.getIdentifierPropertyName(_meta);
+		final String from = "select e." + id + " from " + _meta.getEntityName() + " e";
+		_firstIdQuery = from + " order by e." + id;
+		_idQuery = from + " where e." + id + " > :last order by e." + id;
+		_loadQuery = HibernateEntityResolver.loadQuery(_meta, fetchJoins);
+
+		_session = sessionFactory.openStatelessSession();
+		_tx = _session.beginTransaction();
+	}
+
+	@Override
+	public boolean isOrdered() {
+		return true;
+	}
+
+	@Override
+	public Class<?> getType() {
+		return _type;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<?> getNext(final int batchSize) {
+		final List<Serializable> ids;
+		if (_lastId == null) {
+			ids = _session.createQuery(_firstIdQuery).setMaxResults(batchSize).list();
+		} else {
+			ids = _session.createQuery(_idQuery).setParameter("last", _lastId).setMaxResults(batchSize).list();
+		}
+
+		if (ids.isEmpty()) {
+			return Collections.emptyList();
+		}
+		_lastId = ids.get(ids.size() - 1);
+
+		final Map<Serializable, Object> entities = Maps.newHashMapWithExpectedSize(ids.size());
+		for (final Object entity : _session.createQuery(_loadQuery).setParameterList("ids", ids).list()) {
+			entities.put(_meta.getIdentifier(entity, (SessionImplementor) _session), entity);
+		}
+
+		// keep id order
+		final List<Object> list = Lists.newArrayListWithCapacity(entities.size());
+		for (final Serializable id : ids) {
+			final Object entity = entities.get(id);
+			if (entity != null) {
+				list.add(entity);
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public Object getMetadata() {
+		return null;
+	}
+
+	@Override
+	public void close() {
+		_module.unsetRebuilding(_type);
+		_tx.commit();
+		_session.close();
+	}
+
+}
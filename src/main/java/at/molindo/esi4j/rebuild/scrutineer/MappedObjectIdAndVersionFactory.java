@@ -20,8 +20,8 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.Map;
 
-import org.elasticsearch.client.Requests;
 import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentType;
 
 import at.molindo.esi4j.mapping.ObjectReadSource;
 import at.molindo.esi4j.mapping.ObjectWriteSource;
@@ -31,6 +31,11 @@ import at.molindo.scrutineer.IdAndVersionFactory;
 
 public class MappedObjectIdAndVersionFactory implements IdAndVersionFactory {
 
+	/**
+	 * content type of objects spilled to disk while sorting
+	 */
+	private static final XContentType SPILL_CONTENT_TYPE = XContentType.SMILE;
+
 	private final TypeMapping _mapping;
 	private final boolean _convertIds;
 
@@ -68,7 +73,7 @@ public class MappedObjectIdAndVersionFactory implements IdAndVersionFactory {
 			final byte[] bytes = new byte[length];
 			inputStream.readFully(bytes);
 
-			final Map<String, Object> map = Requests.INDEX_CONTENT_TYPE.xContent().createParser(bytes).map();
+			final Map<String, Object> map = SPILL_CONTENT_TYPE.xContent().createParser(bytes).map();
 			final Object object = _mapping
 					.read(ObjectReadSource.Builder.map(ObjectIdAndVersion.toId(id), version, map));
 			return new ObjectIdAndVersion(id, version, object);
@@ -96,7 +101,7 @@ public class MappedObjectIdAndVersionFactory implements IdAndVersionFactory {
 		if (object == null) {
 			objectOutputStream.writeInt(0);
 		} else {
-			final ObjectWriteSource src = _mapping.getObjectSource(object);
+			final ObjectWriteSource src = _mapping.getObjectSource(object, SPILL_CONTENT_TYPE);
 			final BytesReference bytes = src.getSource();
 			if (bytes == null || bytes.length() == 0) {
 				objectOutputStream.writeInt(0);
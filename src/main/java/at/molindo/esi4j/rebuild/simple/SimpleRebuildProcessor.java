@@ -38,6 +38,7 @@ public class SimpleRebuildProcessor implements Esi4JRebuildProcessor {
 
 	private int _batchSize = DEFAULT_BATCH_SIZE;
 	private int _maxRunning = DEFAULT_MAX_RUNNING;
+	private boolean _pooledBuffers = false;
 
 	public SimpleRebuildProcessor() {
 	}
@@ -75,7 +76,8 @@ public class SimpleRebuildProcessor implements Esi4JRebuildProcessor {
 
 		try {
 
-			final BulkIndexHelper h = new BulkIndexHelper().setMaxRunning(getMaxRunning());
+			final BulkIndexHelper h = new BulkIndexHelper().setMaxRunning(getMaxRunning()).setPooledBuffers(
+					isPooledBuffers());
 
 			List<?> list;
 			while ((list = rebuildSession.getNext(_batchSize)).size() > 0) {
@@ -127,4 +129,16 @@ public class SimpleRebuildProcessor implements Esi4JRebuildProcessor {
 		return this;
 	}
 
+	public boolean isPooledBuffers() {
+		return _pooledBuffers;
+	}
+
+	/**
+	 * @see BulkIndexHelper#setPooledBuffers(boolean)
+	 */
+	public SimpleRebuildProcessor setPooledBuffers(final boolean pooledBuffers) {
+		_pooledBuffers = pooledBuffers;
+		return this;
+	}
+
 }
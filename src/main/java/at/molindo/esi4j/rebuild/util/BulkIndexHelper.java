@@ -33,6 +33,7 @@ import com.google.common.collect.Lists;
 import at.molindo.esi4j.core.Esi4JIndex;
 import at.molindo.esi4j.core.Esi4JOperation;
 import at.molindo.esi4j.core.Esi4JOperation.OperationContext;
+import at.molindo.esi4j.mapping.SourceBuffer;
 import at.molindo.esi4j.mapping.TypeMapping;
 
 /**
@@ -49,6 +50,7 @@ public class BulkIndexHelper {
 	private final Condition _nextCompleted = _lock.newCondition();
 
 	private int _maxRunning = DEFAULT_MAX_RUNNING;
+	private boolean _pooledBuffers = false;
 
 	private int _running = 0;
 	private int _succeeded = 0;
@@ -84,9 +86,20 @@ public class BulkIndexHelper {
 	}
 
 	public void bulkIndex(final BulkRequestBuilder request) {
+		bulkIndex(request, null);
+	}
+
+	/**
+	 * @param buffer
+	 *            buffer holding sources of request, closed once request completed
+	 */
+	private void bulkIndex(final BulkRequestBuilder request, final SourceBuffer buffer) {
 		final int items = request.numberOfActions();
 		if (items == 0) {
 			// nothing to do
+			if (buffer != null) {
+				buffer.close();
+			}
 			return;
 		}
 
@@ -100,6 +113,11 @@ public class BulkIndexHelper {
 				}
 			}
 			_running++;
+		} catch (final RuntimeException e) {
+			if (buffer != null) {
+				buffer.close();
+			}
+			throw e;
 		} finally {
 			_lock.unlock();
 		}
@@ -135,6 +153,10 @@ public class BulkIndexHelper {
 			}
 
 			private void end(final int succeeded, final int failed) {
+				if (buffer != null) {
+					buffer.close();
+				}
+
 				_lock.lock();
 				try {
 					_failed += failed;
@@ -201,6 +223,18 @@ public class BulkIndexHelper {
 		return this;
 	}
 
+	public boolean isPooledBuffers() {
+		return _pooledBuffers;
+	}
+
+	/**
+	 * write sources of indexed objects to pooled {@link SourceBuffer}s that are released once a bulk request completed
+	 */
+	public BulkIndexHelper setPooledBuffers(final boolean pooledBuffers) {
+		_pooledBuffers = pooledBuffers;
+		return this;
+	}
+
 	public BulkIndexHelper setResponseHandler(final IResponseHandler responseHandler) {
 		_responseHandler = responseHandler;
 		return this;
@@ -219,6 +253,11 @@ public class BulkIndexHelper {
 
 		private final List<ActionRequestBuilder<?, ?, ?, ?>> _requests;
 
+		/**
+		 * sources of current batch, <code>null</code> if not pooled
+		 */
+		private SourceBuffer _buffer;
+
 		public Session(final Client client, final String indexName, final OperationContext context, final int batchSize) {
 			_client = client;
 			_indexName = indexName;
@@ -232,9 +271,15 @@ public class BulkIndexHelper {
 			return this;
 		}
 
+		/**
+		 * if pooled buffers are used, the returned request must be submitted with this session's current batch
+		 */
 		public IndexRequestBuilder toIndexRequest(final Object object) {
 			final TypeMapping mapping = _context.findTypeMapping(object);
-			return mapping.indexRequest(_client, _indexName, object);
+			if (_pooledBuffers && _buffer == null) {
+				_buffer = new SourceBuffer();
+			}
+			return mapping.indexRequest(_client, _indexName, object, _buffer);
 		}
 
 		public Session delete(final Object o) {
@@ -261,6 +306,8 @@ public class BulkIndexHelper {
 		}
 
 		public BulkIndexHelper submit() {
+			final SourceBuffer buffer = _buffer;
+			_buffer = null;
 			try {
 				// build BulkRequestBuilder and clear operations
 				bulkIndex(new Esi4JOperation<BulkRequestBuilder>() {
@@ -282,7 +329,7 @@ public class BulkIndexHelper {
 						return bulk;
 					}
 
-				}.execute(_client, _indexName, _context));
+				}.execute(_client, _indexName, _context), buffer);
 			} finally {
 				_requests.clear();
 			}
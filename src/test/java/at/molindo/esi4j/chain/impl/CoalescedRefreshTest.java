@@ -0,0 +1,120 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.junit.Test;
+
+import at.molindo.esi4j.chain.Esi4JEntityTask;
+import at.molindo.esi4j.core.Esi4JIndex;
+import at.molindo.esi4j.test.util.Tweet;
+
+import com.google.common.collect.Lists;
+
+public class CoalescedRefreshTest {
+
+	@Test
+	public void coalesce() throws InterruptedException {
+		final AtomicInteger refreshes = new AtomicInteger();
+		final CoalescedRefresh refresh = new CoalescedRefresh(slowIndex(refreshes), 0, TimeUnit.MILLISECONDS);
+
+		final List<Thread> threads = Lists.newArrayList();
+		for (int i = 0; i < 10; i++) {
+			threads.add(new Thread() {
+
+				@Override
+				public void run() {
+					refresh.refresh();
+				}
+			});
+		}
+		for (final Thread thread : threads) {
+			thread.start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(10, refresh.getRequested());
+		assertEquals(refreshes.get(), refresh.getExecuted());
+		// first refresh and at most one for all callers arriving while it was running
+		assertTrue(refreshes.get() <= 3);
+	}
+
+	@Test
+	public void interval() {
+		final AtomicInteger refreshes = new AtomicInteger();
+		final CoalescedRefresh refresh = new CoalescedRefresh(slowIndex(refreshes), 200, TimeUnit.MILLISECONDS);
+
+		final long start = System.nanoTime();
+		refresh.refresh();
+		refresh.refresh();
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+		assertEquals(2, refreshes.get());
+	}
+
+	@Test
+	public void awaitSuperseded() throws InterruptedException {
+		final RecordingIndex index = new RecordingIndex();
+		final QueuedTaskProcessor processor = index.processor(ImmutableSettings.EMPTY);
+		try {
+			// keep first batch queued
+			processor.getExecutor().getCoalescer().setLinger(Tweet.class, 200, TimeUnit.MILLISECONDS);
+			processor.processTasks(new Esi4JEntityTask[] { RecordingIndex.task(1, 1) });
+
+			final Thread thread = new Thread() {
+
+				@Override
+				public void run() {
+					processor.processTasks(new Esi4JEntityTask[] { RecordingIndex.task(1, 2) });
+					processor.refresh();
+				}
+			};
+			thread.start();
+			thread.join();
+
+			assertEquals(1, processor.getExecutor().getCoalescer().getCoalesced());
+			// refresh waited for batch of superseded task
+			assertEquals(Arrays.asList("1:2"), index.refreshed());
+		} finally {
+			processor.close();
+		}
+	}
+
+	private static Esi4JIndex slowIndex(final AtomicInteger refreshes) {
+		return (Esi4JIndex) Proxy.newProxyInstance(Esi4JIndex.class.getClassLoader(), new Class<?>[] { Esi4JIndex.class }, new InvocationHandler() {
+
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) throws InterruptedException {
+				if ("refresh".equals(method.getName())) {
+					refreshes.incrementAndGet();
+					Thread.sleep(50);
+				}
+				return null;
+			}
+		});
+	}
+}
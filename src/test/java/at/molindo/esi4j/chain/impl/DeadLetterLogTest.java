@@ -0,0 +1,64 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.elasticsearch.rest.RestStatus;
+import org.junit.Test;
+
+import at.molindo.esi4j.chain.Esi4JEntityTask;
+import at.molindo.esi4j.mapping.ObjectKey;
+
+public class DeadLetterLogTest {
+
+	@Test
+	public void classify() {
+		assertEquals(BulkFailureType.VERSION_CONFLICT, BulkFailureType.classify(RestStatus.CONFLICT, "VersionConflictEngineException"));
+		assertEquals(BulkFailureType.MAPPING, BulkFailureType.classify(RestStatus.BAD_REQUEST, null));
+		assertEquals(BulkFailureType.MAPPING, BulkFailureType.classify(RestStatus.INTERNAL_SERVER_ERROR, "MapperParsingException[failed to parse]"));
+		assertEquals(BulkFailureType.RETRY, BulkFailureType.classify(RestStatus.TOO_MANY_REQUESTS, "EsRejectedExecutionException"));
+		assertEquals(BulkFailureType.RETRY, BulkFailureType.classify(RestStatus.SERVICE_UNAVAILABLE, null));
+	}
+
+	@Test
+	public void drain() throws IOException {
+		final File file = Files.createTempFile("esi4j", ".dead").toFile();
+		file.delete();
+
+		final DeadLetterLog deadLetters = new DeadLetterLog(file);
+		assertEquals(0, deadLetters.drain().size());
+
+		final ObjectKey index = new ObjectKey(Long.class, 1L);
+		final ObjectKey delete = new ObjectKey(String.class, "foo");
+		deadLetters.append(new IndexEntityTask(index), index, "MapperParsingException");
+		deadLetters.append(new DeleteEntityTask(delete), delete, null);
+		assertEquals(2, deadLetters.getAppended());
+
+		final List<Esi4JEntityTask> tasks = deadLetters.drain();
+		assertEquals(2, tasks.size());
+		assertTrue(tasks.get(0) instanceof IndexEntityTask);
+		assertEquals(index, tasks.get(0).toObjectKey(null));
+		assertTrue(tasks.get(1) instanceof DeleteEntityTask);
+		assertEquals(delete, tasks.get(1).toObjectKey(null));
+		assertFalse(file.exists());
+	}
+}
@@ -18,14 +18,26 @@ package at.molindo.esi4j.chain.impl;
 import static org.easymock.EasyMock.*;
 import static org.junit.Assert.*;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map.Entry;
 
 import org.easymock.EasyMock;
 import org.junit.Test;
 
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
 import at.molindo.esi4j.chain.Esi4JEntityTask;
 import at.molindo.esi4j.chain.Esi4JTaskProcessor;
 import at.molindo.esi4j.chain.Esi4JTaskSource;
+import at.molindo.esi4j.core.internal.InternalIndex;
+import at.molindo.esi4j.mapping.TypeMapping;
+import at.molindo.esi4j.test.util.Tweet;
+import at.molindo.esi4j.test.util.TweetTypeMapping;
 
 public class DefaultEventProcessorTest {
 
@@ -85,6 +97,100 @@ public class DefaultEventProcessorTest {
 		verify(processor);
 	}
 
+	@Test
+	public void dispatchInvalidation() {
+		final List<String> sources = Lists.newArrayList();
+		final DefaultEventProcessor processor = new DefaultEventProcessor(recordingProcessor(null,
+				Lists.<Esi4JEntityTask> newArrayList()));
+
+		// cache misses as well
+		assertFalse(processor.isProcessing(Integer.class));
+
+		processor.putTaskSource(Number.class, new NamedSource("number", sources));
+		processor.onPostInsert(4711);
+
+		// more specific source replaces dispatched one
+		processor.putTaskSource(Integer.class, new NamedSource("integer", sources));
+		processor.onPostInsert(4711);
+
+		processor.removeTaskSource(Integer.class);
+		processor.onPostInsert(4711);
+
+		processor.removeTaskSource(Number.class);
+		processor.onPostInsert(4711);
+		assertFalse(processor.isProcessing(Integer.class));
+
+		assertEquals(Arrays.asList("number", "integer", "number"), sources);
+	}
+
+	@Test
+	public void filteredEarly() {
+		final List<Esi4JEntityTask> tasks = Lists.newArrayList();
+		final DefaultEventProcessor processor = new DefaultEventProcessor(recordingProcessor(new SpamTypeMapping(true),
+				tasks));
+		processor.putTaskSource(Tweet.class, new DefaultTaskSource());
+
+		processor.onPostUpdate(new Tweet(1, "esi4j", "hello"));
+		processor.onPostUpdate(new Tweet(2, "spam", "hello"));
+		processor.onPostUpdate(new Tweet(3, "spam", "hello"), ImmutableSet.of("message"));
+		processor.onPostInsert(new Tweet(4, "spam", "hello"));
+
+		assertTrue(tasks.get(0) instanceof IndexEntityTask);
+		// filtered updates deleted without loading entity again
+		assertTrue(tasks.get(1) instanceof DeleteEntityTask);
+		assertTrue(tasks.get(2) instanceof DeleteEntityTask);
+		// nothing to delete for filtered inserts
+		assertEquals(3, tasks.size());
+	}
+
+	@Test
+	public void filteredLate() {
+		final List<Esi4JEntityTask> tasks = Lists.newArrayList();
+		final DefaultEventProcessor processor = new DefaultEventProcessor(recordingProcessor(new SpamTypeMapping(false),
+				tasks));
+		processor.putTaskSource(Tweet.class, new DefaultTaskSource());
+
+		// filter isn't cheap, entity might change before indexing
+		processor.onPostUpdate(new Tweet(2, "spam", "hello"));
+		assertTrue(tasks.get(0) instanceof IndexEntityTask);
+	}
+
+	/**
+	 * @param mapping
+	 *            mapping of all objects, <code>null</code> if unmapped
+	 */
+	private static Esi4JTaskProcessor recordingProcessor(final TypeMapping mapping, final List<Esi4JEntityTask> tasks) {
+		final InternalIndex index = (InternalIndex) Proxy.newProxyInstance(DefaultEventProcessorTest.class.getClassLoader(), new Class<?>[] { InternalIndex.class }, new InvocationHandler() {
+
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				switch (method.getName()) {
+				case "isMapped":
+					return mapping != null;
+				case "findTypeMapping":
+					return mapping;
+				default:
+					return null;
+				}
+			}
+		});
+		return (Esi4JTaskProcessor) Proxy.newProxyInstance(DefaultEventProcessorTest.class.getClassLoader(), new Class<?>[] { Esi4JTaskProcessor.class }, new InvocationHandler() {
+
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				switch (method.getName()) {
+				case "getIndex":
+					return index;
+				case "processTasks":
+					tasks.addAll(Arrays.asList((Esi4JEntityTask[]) args[0]));
+					return null;
+				default:
+					return null;
+				}
+			}
+		});
+	}
+
 	private void replay(final DefaultEventProcessor processor) {
 		EasyMock.replay(processor.getTaskProcessor());
 		for (final Entry<Class<?>, Esi4JTaskSource> e : processor.copyTaskSources().entrySet()) {
@@ -111,4 +217,46 @@ public class DefaultEventProcessorTest {
 		return EasyMock.createMock(Esi4JEntityTask.class);
 	}
 
+	/**
+	 * records its name for each insert
+	 */
+	private static final class NamedSource extends DefaultTaskSource {
+
+		private final String _name;
+		private final List<String> _sources;
+
+		private NamedSource(final String name, final List<String> sources) {
+			_name = name;
+			_sources = sources;
+		}
+
+		@Override
+		public Esi4JEntityTask[] getPostInsertTasks(final Object entity) {
+			_sources.add(_name);
+			return super.getPostInsertTasks(entity);
+		}
+	}
+
+	/**
+	 * filters tweets of user "spam"
+	 */
+	private static final class SpamTypeMapping extends TweetTypeMapping {
+
+		private final boolean _filterCheap;
+
+		private SpamTypeMapping(final boolean filterCheap) {
+			super("tweet");
+			_filterCheap = filterCheap;
+		}
+
+		@Override
+		protected boolean filter(final Tweet o) {
+			return "spam".equals(o.getUser());
+		}
+
+		@Override
+		public boolean isFilterCheap() {
+			return _filterCheap;
+		}
+	}
 }
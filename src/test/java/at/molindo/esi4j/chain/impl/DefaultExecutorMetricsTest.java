@@ -0,0 +1,59 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import static org.junit.Assert.*;
+
+import javax.management.JMException;
+
+import org.junit.Test;
+
+import at.molindo.esi4j.chain.Esi4JExecutorMetrics.Stage;
+
+public class DefaultExecutorMetricsTest {
+
+	@Test
+	public void metrics() {
+		final DefaultExecutorMetrics metrics = new DefaultExecutorMetrics();
+
+		metrics.submitted(10, 4);
+		assertEquals(0.4, metrics.getDeduplicationRatio(), 0.0001);
+
+		metrics.stage(Stage.RESOLVE, 6, 2000000);
+		metrics.stage(Stage.RESOLVE, 6, 4000000);
+		assertEquals(2L, (long) metrics.getStageCounts().get("resolve"));
+		assertEquals(12L, (long) metrics.getStageItems().get("resolve"));
+		assertEquals(3.0, metrics.getStageMeanMillis().get("resolve"), 0.0001);
+		assertEquals(0L, (long) metrics.getStageCounts().get("bulk"));
+
+		metrics.type(Stage.BUILD, String.class, 1000);
+		assertEquals(1L, (long) metrics.getTypeCounts().get("build:java.lang.String"));
+
+		metrics.failed(BulkFailureType.MAPPING);
+		assertEquals(1L, (long) metrics.getFailures().get("mapping"));
+
+		metrics.reset();
+		assertEquals(0, metrics.getSubmittedTasks());
+		assertEquals(0L, (long) metrics.getStageCounts().get("resolve"));
+		assertTrue(metrics.getTypeCounts().isEmpty());
+	}
+
+	@Test
+	public void objectName() throws JMException {
+		assertEquals("at.molindo.esi4j:type=QueuedTaskExecutor,index=products", DefaultExecutorMetrics.objectName("products").toString());
+		assertEquals("at.molindo.esi4j:type=QueuedTaskExecutor,index=\"a,b\"", DefaultExecutorMetrics.objectName("a,b").toString());
+	}
+}
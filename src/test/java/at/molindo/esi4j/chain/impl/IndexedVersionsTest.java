@@ -0,0 +1,68 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import at.molindo.esi4j.mapping.ObjectKey;
+
+public class IndexedVersionsTest {
+
+	@Test
+	public void indexed() {
+		final IndexedVersions versions = new IndexedVersions(1000);
+		assertEquals(1024, versions.getCapacity());
+
+		assertFalse(versions.isIndexed(new ObjectKey(Long.class, 1L, 2L)));
+
+		versions.indexed(new ObjectKey(Long.class, 1L), 2L);
+		assertTrue(versions.isIndexed(new ObjectKey(Long.class, 1L, 1L)));
+		assertTrue(versions.isIndexed(new ObjectKey(Long.class, 1L, 2L)));
+		assertFalse(versions.isIndexed(new ObjectKey(Long.class, 1L, 3L)));
+
+		// unversioned keys, other types and non-numeric ids are never skipped
+		assertFalse(versions.isIndexed(new ObjectKey(Long.class, 1L)));
+		assertFalse(versions.isIndexed(new ObjectKey(Integer.class, 1L, 1L)));
+		versions.indexed(new ObjectKey(String.class, "1"), 2L);
+		assertFalse(versions.isIndexed(new ObjectKey(String.class, "1", 1L)));
+
+		// older versions are ignored
+		versions.indexed(new ObjectKey(Long.class, 1L), 1L);
+		assertTrue(versions.isIndexed(new ObjectKey(Long.class, 1L, 2L)));
+
+		versions.removed(new ObjectKey(Long.class, 1L));
+		assertFalse(versions.isIndexed(new ObjectKey(Long.class, 1L, 1L)));
+	}
+
+	@Test
+	public void bounded() {
+		final IndexedVersions versions = new IndexedVersions(16);
+		for (long i = 0; i < 1000; i++) {
+			versions.indexed(new ObjectKey(Long.class, i), 1L);
+		}
+
+		int indexed = 0;
+		for (long i = 0; i < 1000; i++) {
+			if (versions.isIndexed(new ObjectKey(Long.class, i, 1L))) {
+				indexed++;
+			}
+		}
+		assertTrue(indexed > 0 && indexed <= 16);
+		assertTrue(versions.isIndexed(new ObjectKey(Long.class, 999L, 1L)));
+	}
+}
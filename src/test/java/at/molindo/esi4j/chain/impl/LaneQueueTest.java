@@ -0,0 +1,86 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import at.molindo.esi4j.chain.Esi4JEntityTask;
+import at.molindo.esi4j.chain.Esi4JTaskPriority;
+
+public class LaneQueueTest {
+
+	@Test
+	public void backfillBehindBarrier() {
+		final LaneQueue queue = new LaneQueue(new Semaphore(1), 0.5f);
+
+		final BulkIndexRunnable realtime = batch(Esi4JTaskPriority.REALTIME);
+		final BulkIndexRunnable before = batch(Esi4JTaskPriority.BACKFILL);
+		final BulkIndexRunnable after = batch(Esi4JTaskPriority.BACKFILL);
+		final BulkIndexRunnable later = batch(Esi4JTaskPriority.BACKFILL);
+		final LaneBarrier barrier = new LaneBarrier(1);
+
+		queue.offer(realtime);
+		queue.offer(before);
+		assertSame(realtime, queue.poll());
+
+		// backfill is due now but must not pass the barrier
+		queue.offer(barrier);
+		queue.offer(after);
+		assertSame(before, queue.poll());
+		assertFalse(queue.takeBackfill());
+		assertSame(barrier, queue.poll());
+
+		// kept runnable is backfill again and isn't overtaken
+		queue.offer(later);
+		assertSame(after, queue.poll());
+		assertTrue(queue.takeBackfill());
+		queue.releaseBackfill();
+		assertSame(later, queue.poll());
+		assertTrue(queue.takeBackfill());
+		assertEquals(0, queue.size());
+	}
+
+	@Test
+	public void collectStopsAtBarrier() throws InterruptedException {
+		final LaneQueue queue = new LaneQueue(new Semaphore(1), 0.25f);
+
+		final BulkIndexRunnable first = batch(Esi4JTaskPriority.REALTIME);
+		final LaneBarrier barrier = new LaneBarrier(1);
+		queue.offer(first);
+		queue.offer(barrier);
+		queue.offer(batch(Esi4JTaskPriority.REALTIME));
+
+		assertSame(first, queue.pollFirst(Esi4JTaskPriority.REALTIME));
+		assertNull(queue.pollFirst(Esi4JTaskPriority.REALTIME));
+
+		// doesn't linger with a barrier waiting
+		final long start = System.nanoTime();
+		assertNull(queue.pollFirst(Esi4JTaskPriority.REALTIME, TimeUnit.SECONDS.toNanos(10)));
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+
+		assertSame(barrier, queue.poll());
+		assertEquals(1, queue.size());
+	}
+
+	private static BulkIndexRunnable batch(final Esi4JTaskPriority priority) {
+		return new BulkIndexRunnable(new Esi4JEntityTask[0], null, 0, priority, 0);
+	}
+}
@@ -18,18 +18,25 @@ package at.molindo.esi4j.chain.impl;
 import static org.junit.Assert.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.settings.ImmutableSettings;
 import org.junit.Test;
 
 import at.molindo.esi4j.chain.Esi4JEntityResolver;
 import at.molindo.esi4j.chain.Esi4JEntityTask;
+import at.molindo.esi4j.chain.Esi4JTaskPriority;
 import at.molindo.esi4j.chain.impl.QueuedTaskExecutor.ObjectKeyListMap;
 import at.molindo.esi4j.ex.EntityNotResolveableException;
 import at.molindo.esi4j.mapping.ObjectKey;
 import at.molindo.utils.collections.CollectionUtils;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+
 public class QueuedTaskExecutorTest {
 
 	@Test
@@ -54,6 +61,223 @@ public class QueuedTaskExecutorTest {
 		assertNotNull(tasks[2]);
 	}
 
+	@Test
+	public void firstBatchQueued() {
+		final RecordingIndex index = new RecordingIndex();
+		final QueuedTaskProcessor processor = index.processor(ImmutableSettings.settingsBuilder()
+				.put(QueuedTaskExecutor.SETTING_THREADS, 1).put(QueuedTaskExecutor.SETTING_BULK_LINGER, "200ms").build());
+		try {
+			final IndexEntityTask backfill = (IndexEntityTask) RecordingIndex.task(1, 1);
+			backfill.setPriority(Esi4JTaskPriority.BACKFILL);
+			processor.processTasks(new Esi4JEntityTask[] { backfill });
+			processor.processTasks(new Esi4JEntityTask[] { RecordingIndex.task(2, 1) });
+			processor.refresh();
+
+			// first batch of lane is taken from queue as well, hence lingers for its own priority only
+			assertEquals(2, index.bulks().size());
+			assertEquals(Arrays.asList("1:1", "2:1"), Ordering.natural().sortedCopy(index.actions()));
+		} finally {
+			processor.close();
+		}
+	}
+
+	@Test
+	public void entityOrder() {
+		final RecordingIndex index = new RecordingIndex();
+		final QueuedTaskProcessor processor = index.processor(ImmutableSettings.settingsBuilder()
+				.put(QueuedTaskExecutor.SETTING_THREADS, 4).build());
+		try {
+			for (int v = 1; v <= 100; v++) {
+				processor.processTasks(new Esi4JEntityTask[] { RecordingIndex.task(1, v), RecordingIndex.task(v + 1, 1) });
+			}
+			processor.refresh();
+
+			// tasks for the same entity share a lane, older versions might be superseded but never reordered
+			long last = 0;
+			for (final String action : index.actions()) {
+				if (action.startsWith("1:")) {
+					final long version = Long.parseLong(action.substring(2));
+					assertTrue(action + " after version " + last, version > last);
+					last = version;
+				}
+			}
+			assertEquals(100, last);
+		} finally {
+			processor.close();
+		}
+	}
+
+	@Test
+	public void bulkLinger() {
+		final RecordingIndex index = new RecordingIndex();
+		final QueuedTaskProcessor processor = index.processor(ImmutableSettings.settingsBuilder()
+				.put(QueuedTaskExecutor.SETTING_THREADS, 1).put(QueuedTaskExecutor.SETTING_BULK_LINGER, "200ms")
+				.put(QueuedTaskExecutor.SETTING_BULK_MAX_ITEMS, 3).build());
+		try {
+			// flushed after linger without more batches
+			final long start = System.nanoTime();
+			processor.processTasks(new Esi4JEntityTask[] { RecordingIndex.task(1, 1) });
+			processor.refresh();
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+			assertEquals(Arrays.asList(Arrays.asList("1:1")), index.bulks());
+
+			// batches combined up to max items
+			for (int i = 2; i <= 6; i++) {
+				processor.processTasks(new Esi4JEntityTask[] { RecordingIndex.task(i, 1) });
+			}
+			processor.refresh();
+			assertEquals(Arrays.asList(Arrays.asList("1:1"), Arrays.asList("2:1", "3:1", "4:1"), Arrays
+					.asList("5:1", "6:1")), index.bulks());
+		} finally {
+			processor.close();
+		}
+	}
+
+	@Test
+	public void bulkMaxBytes() {
+		final RecordingIndex index = new RecordingIndex();
+		final QueuedTaskProcessor processor = index.processor(ImmutableSettings.settingsBuilder()
+				.put(QueuedTaskExecutor.SETTING_THREADS, 1).put(QueuedTaskExecutor.SETTING_BULK_LINGER, "200ms")
+				.put(QueuedTaskExecutor.SETTING_BULK_MAX_BYTES, "1b").build());
+		try {
+			for (int i = 1; i <= 3; i++) {
+				processor.processTasks(new Esi4JEntityTask[] { RecordingIndex.task(i, 1) });
+			}
+			processor.refresh();
+
+			// every batch exceeds max bytes on its own
+			assertEquals(Arrays.asList(Arrays.asList("1:1"), Arrays.asList("2:1"), Arrays.asList("3:1")), index
+					.bulks());
+		} finally {
+			processor.close();
+		}
+	}
+
+	@Test
+	public void inFlightPermits() throws InterruptedException {
+		final RecordingIndex index = new RecordingIndex();
+		final QueuedTaskProcessor processor = index.processor(ImmutableSettings.settingsBuilder()
+				.put(QueuedTaskExecutor.SETTING_THREADS, 2).put(QueuedTaskExecutor.SETTING_BULK_IN_FLIGHT, 1)
+				.put(QueuedTaskExecutor.SETTING_RETRY_MAX_ATTEMPTS, 0).build());
+		try {
+			final QueuedTaskExecutor executor = processor.getExecutor();
+
+			index.hold();
+			processor.processTasks(new Esi4JEntityTask[] { RecordingIndex.task(1, 1) });
+			processor.processTasks(new Esi4JEntityTask[] { RecordingIndex.task(2, 1) });
+
+			// second bulk waits for permit of unanswered first one
+			awaitBulks(index, 1);
+			Thread.sleep(100);
+			assertEquals(1, index.bulks().size());
+			assertEquals(1, executor.getInFlightBulks());
+
+			index.release();
+			processor.refresh();
+			assertEquals(2, index.bulks().size());
+			assertEquals(1, index.maxInFlight());
+			awaitReleased(executor);
+
+			// failed bulks release permits as well
+			index.fail(true);
+			processor.processTasks(new Esi4JEntityTask[] { RecordingIndex.task(3, 1) });
+			processor.processTasks(new Esi4JEntityTask[] { RecordingIndex.task(4, 1) });
+			processor.refresh();
+			assertEquals(4, index.bulks().size());
+			assertEquals(1, index.maxInFlight());
+			awaitReleased(executor);
+		} finally {
+			processor.close();
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void failedKeys() throws InterruptedException {
+		final RecordingIndex index = new RecordingIndex();
+		final QueuedTaskProcessor processor = index.processor(ImmutableSettings.settingsBuilder()
+				.put(QueuedTaskExecutor.SETTING_THREADS, 1).put(QueuedTaskExecutor.SETTING_RETRY_MAX_ATTEMPTS, 2)
+				.put(QueuedTaskExecutor.SETTING_RETRY_BACKOFF, "1ms").build());
+		try {
+			final QueuedTaskExecutor executor = processor.getExecutor();
+
+			// failed items are retried and dead-lettered using keys of unresolved tasks
+			index.fail(true);
+			processor.processTasks(new Esi4JEntityTask[] { RecordingIndex.task(1, 1) });
+			processor.refresh();
+			awaitBulks(index, 2);
+			awaitReleased(executor);
+
+			assertEquals(Arrays.asList("1:1", "1:1"), index.actions());
+			assertEquals(1, executor.getRetriedItems());
+			assertEquals(1, executor.getDeadLetters());
+		} finally {
+			processor.close();
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void prepareFailed() throws InterruptedException {
+		final RecordingIndex index = new RecordingIndex();
+		final QueuedTaskProcessor processor = index.processor(ImmutableSettings.settingsBuilder()
+				.put(QueuedTaskExecutor.SETTING_THREADS, 1).put(QueuedTaskExecutor.SETTING_RETRY_BACKOFF, "1ms")
+				.build());
+		try {
+			// tasks of unprepared bulk requests are retried
+			index.failResolve(1);
+			processor.processTasks(new Esi4JEntityTask[] { RecordingIndex.task(1, 1) });
+			processor.refresh();
+			awaitBulks(index, 1);
+
+			assertEquals(Arrays.asList("1:1"), index.actions());
+			assertEquals(1, processor.getExecutor().getRetriedItems());
+		} finally {
+			processor.close();
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void propagateUnmapped() throws InterruptedException {
+		final RecordingIndex index = new RecordingIndex();
+		final QueuedTaskProcessor processor = index.processor(ImmutableSettings.settingsBuilder()
+				.put(QueuedTaskExecutor.SETTING_THREADS, 1).build());
+		try {
+			// changed user isn't indexed itself but reindexes tweets embedding it
+			index.owners(2, 3);
+			processor.processTasks(new Esi4JEntityTask[] {
+					new PropagateEntityTask(new ObjectKey(RecordingIndex.DEPENDENCY.getType(), "esi4j")),
+					RecordingIndex.task(1, 1) });
+			awaitBulks(index, 2);
+
+			final List<String> ids = Lists.newArrayList();
+			for (final String action : index.actions()) {
+				ids.add(action.substring(0, action.indexOf(':')));
+			}
+			assertEquals(Arrays.asList("1", "2", "3"), Ordering.natural().sortedCopy(ids));
+			assertEquals(2, processor.getExecutor().getPropagatedItems());
+		} finally {
+			processor.close();
+		}
+	}
+
+	/**
+	 * permits are released after completion of batches
+	 */
+	private static void awaitReleased(final QueuedTaskExecutor executor) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (executor.getInFlightBulks() > 0) {
+			assertTrue("timeout waiting for in-flight permits", System.nanoTime() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	private static void awaitBulks(final RecordingIndex index, final int bulks) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (index.bulks().size() < bulks) {
+			assertTrue("timeout waiting for " + bulks + " bulks", System.nanoTime() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
 	private ObjectKeyListMap toMap(final Esi4JEntityTask[] tasks) {
 		final ObjectKeyListMap map = new QueuedTaskExecutor.ObjectKeyListMap(tasks.length);
 
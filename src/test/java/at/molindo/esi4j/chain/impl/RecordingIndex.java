@@ -0,0 +1,371 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import at.molindo.esi4j.action.BulkResponseWrapper;
+import at.molindo.esi4j.chain.Esi4JBatchedEntityResolver;
+import at.molindo.esi4j.chain.Esi4JDependencyResolver;
+import at.molindo.esi4j.chain.Esi4JEntityTask;
+import at.molindo.esi4j.core.Esi4JIndex;
+import at.molindo.esi4j.core.Esi4JOperation;
+import at.molindo.esi4j.core.Esi4JOperation.OperationContext;
+import at.molindo.esi4j.ex.EntityNotResolveableException;
+import at.molindo.esi4j.mapping.ObjectKey;
+import at.molindo.esi4j.mapping.TypeDependency;
+import at.molindo.esi4j.mapping.TypeMapping;
+import at.molindo.esi4j.test.util.Tweet;
+import at.molindo.esi4j.test.util.TweetTypeMapping;
+
+/**
+ * {@link Esi4JIndex} proxy recording bulk requests of a {@link QueuedTaskExecutor}. Bulk requests are answered
+ * asynchronously, either successfully or failed, and might be held back to keep them in flight.
+ */
+final class RecordingIndex {
+
+	/**
+	 * name of threads answering bulk requests, resolved entities can't be converted to keys there
+	 */
+	private static final String RESPONSE_THREAD = "recording-index-response";
+
+	/**
+	 * tweets embed users, which aren't mapped themselves
+	 */
+	static final TypeDependency DEPENDENCY = TypeDependency.on(String.class, "user");
+
+	private final Esi4JIndex _index;
+	private final Client _client;
+	private final OperationContext _context;
+
+	/**
+	 * bulk request prepared by current lane thread
+	 */
+	private final ThreadLocal<BulkRequestBuilder> _bulk = new ThreadLocal<>();
+
+	/**
+	 * "id:version" or "id:deleted" of actions per executed bulk request, guarded by itself
+	 */
+	private final List<List<String>> _bulks = Lists.newArrayList();
+
+	/**
+	 * actions of all bulk requests when refresh was called last
+	 */
+	private volatile List<String> _refreshed;
+
+	private final AtomicInteger _inFlight = new AtomicInteger();
+	private final AtomicInteger _maxInFlight = new AtomicInteger();
+
+	private volatile CountDownLatch _hold = new CountDownLatch(0);
+	private volatile boolean _fail;
+
+	/**
+	 * number of calls to {@link Esi4JBatchedEntityResolver#resolveEntities(Esi4JEntityTask[])} to fail
+	 */
+	private final AtomicInteger _failResolve = new AtomicInteger();
+
+	/**
+	 * ids of tweets embedding any changed user, see {@link #DEPENDENCY}
+	 */
+	private volatile List<Serializable> _owners = ImmutableList.of();
+
+	RecordingIndex() {
+		_client = (Client) Proxy.newProxyInstance(Client.class.getClassLoader(), new Class<?>[] { Client.class }, new InvocationHandler() {
+
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				if ("prepareBulk".equals(method.getName())) {
+					final BulkRequestBuilder bulk = new BulkRequestBuilder((Client) proxy);
+					_bulk.set(bulk);
+					return bulk;
+				}
+				return null;
+			}
+		});
+
+		final TypeMapping mapping = new TweetTypeMapping("tweet") {
+
+			@Override
+			public List<TypeDependency> getDependencies() {
+				return ImmutableList.of(DEPENDENCY);
+			}
+		};
+		_context = (OperationContext) Proxy.newProxyInstance(OperationContext.class.getClassLoader(), new Class<?>[] { OperationContext.class }, new InvocationHandler() {
+
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				return "findIndexName".equals(method.getName()) ? "test" : mapping;
+			}
+		});
+
+		_index = (Esi4JIndex) Proxy.newProxyInstance(Esi4JIndex.class.getClassLoader(), new Class<?>[] { Esi4JIndex.class, OperationContext.class }, new InvocationHandler() {
+
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				switch (method.getName()) {
+				case "getName":
+					return "test";
+				case "getMappedTypes":
+					return new Class<?>[] { Tweet.class };
+				case "isMapped":
+					return args[0] == Tweet.class || args[0] instanceof Tweet;
+				case "findTypeMapping":
+					return mapping;
+				case "execute":
+					return ((Esi4JOperation<?>) args[0]).execute(_client, "test", _context);
+				case "executeBulk":
+					return executeBulk();
+				case "refresh":
+					_refreshed = actions();
+					return null;
+				default:
+					return null;
+				}
+			}
+		});
+	}
+
+	private Object executeBulk() {
+		final List<String> actions = Lists.newArrayList();
+		for (final ActionRequest<?> request : _bulk.get().request().requests()) {
+			if (request instanceof IndexRequest) {
+				actions.add(((IndexRequest) request).id() + ":" + ((IndexRequest) request).version());
+			} else {
+				actions.add(((DeleteRequest) request).id() + ":deleted");
+			}
+		}
+		_bulk.remove();
+
+		synchronized (_bulks) {
+			_bulks.add(actions);
+		}
+
+		final int inFlight = _inFlight.incrementAndGet();
+		int max;
+		while ((max = _maxInFlight.get()) < inFlight && !_maxInFlight.compareAndSet(max, inFlight)) {
+			// retry
+		}
+
+		final CountDownLatch hold = _hold;
+		final boolean fail = _fail;
+		return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { org.elasticsearch.action.ListenableActionFuture.class }, new InvocationHandler() {
+
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				if ("addListener".equals(method.getName())) {
+					@SuppressWarnings("unchecked")
+					final ActionListener<BulkResponseWrapper> listener = (ActionListener<BulkResponseWrapper>) args[0];
+					respond(actions, hold, fail, listener);
+				}
+				return null;
+			}
+		});
+	}
+
+	private void respond(final List<String> actions, final CountDownLatch hold, final boolean fail, final ActionListener<BulkResponseWrapper> listener) {
+		final Thread thread = new Thread(RESPONSE_THREAD) {
+
+			@Override
+			public void run() {
+				try {
+					hold.await();
+				} catch (final InterruptedException e) {
+					return;
+				}
+				_inFlight.decrementAndGet();
+				if (fail) {
+					listener.onFailure(new RuntimeException("failed by test"));
+				} else {
+					final BulkItemResponse[] items = new BulkItemResponse[actions.size()];
+					for (int i = 0; i < items.length; i++) {
+						final String id = actions.get(i).substring(0, actions.get(i).indexOf(':'));
+						items[i] = new BulkItemResponse(i, "index", new IndexResponse("test", "test", id, 1, true));
+					}
+					final BulkResponse response = new BulkResponse(items, 1);
+					listener.onResponse(new BulkResponseWrapper() {
+
+						@Override
+						public BulkResponse getBulkResponse() {
+							return response;
+						}
+					});
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	Esi4JIndex getIndex() {
+		return _index;
+	}
+
+	/**
+	 * @return new processor with an {@link Esi4JBatchedEntityResolver} for {@link Tweet}s
+	 */
+	QueuedTaskProcessor processor(final Settings settings) {
+		return new QueuedTaskProcessor(_index, new TweetEntityResolver(), ImmutableSettings.settingsBuilder()
+				.put(DefaultExecutorMetrics.SETTING_JMX, false).put(settings).build());
+	}
+
+	/**
+	 * @return actions of all executed bulk requests in order of execution
+	 */
+	List<String> actions() {
+		final List<String> actions = Lists.newArrayList();
+		synchronized (_bulks) {
+			for (final List<String> bulk : _bulks) {
+				actions.addAll(bulk);
+			}
+		}
+		return actions;
+	}
+
+	/**
+	 * @return actions of all executed bulk requests per request
+	 */
+	List<List<String>> bulks() {
+		synchronized (_bulks) {
+			return ImmutableList.copyOf(_bulks);
+		}
+	}
+
+	/**
+	 * @return {@link #actions()} when index was refreshed last, <code>null</code> if never
+	 */
+	List<String> refreshed() {
+		return _refreshed;
+	}
+
+	/**
+	 * @return maximum number of concurrently unanswered bulk requests
+	 */
+	int maxInFlight() {
+		return _maxInFlight.get();
+	}
+
+	/**
+	 * answer bulk requests executed afterwards not before {@link #release()}
+	 */
+	void hold() {
+		_hold = new CountDownLatch(1);
+	}
+
+	void release() {
+		_hold.countDown();
+	}
+
+	/**
+	 * @param fail
+	 *            true to fail bulk requests executed afterwards
+	 */
+	void fail(final boolean fail) {
+		_fail = fail;
+	}
+
+	/**
+	 * fail given number of calls to resolve entities
+	 */
+	void failResolve(final int calls) {
+		_failResolve.set(calls);
+	}
+
+	/**
+	 * @param owners
+	 *            ids of tweets embedding any changed user
+	 */
+	void owners(final Serializable... owners) {
+		_owners = ImmutableList.copyOf(owners);
+	}
+
+	/**
+	 * @return index task for tweet with given id, indexed with version to record order of tasks
+	 */
+	static Esi4JEntityTask task(final int id, final long version) {
+		return new IndexEntityTask(new Tweet(id, version, "user", "message"));
+	}
+
+	/**
+	 * resolves keys of {@link Tweet}s to tweets of the same id and version. Like a resolver bound to the current
+	 * session, entities can't be converted to keys on lanes or threads answering bulk requests
+	 */
+	private final class TweetEntityResolver implements Esi4JBatchedEntityResolver, Esi4JDependencyResolver {
+
+		@Override
+		public ObjectKey toObjectKey(final Object entity) {
+			final String thread = Thread.currentThread().getName();
+			if (thread.equals(RESPONSE_THREAD) || thread.startsWith(QueuedTaskProcessor.class.getSimpleName())) {
+				throw new IllegalStateException("no current session");
+			}
+			final Tweet tweet = (Tweet) entity;
+			return new ObjectKey(Tweet.class, tweet.getId(), tweet.getVersion());
+		}
+
+		@Override
+		public Object replaceEntity(final Object entity) {
+			return entity instanceof ObjectKey ? entity : toObjectKey(entity);
+		}
+
+		@Override
+		public Object resolveEntity(final Object replacedEntity) throws EntityNotResolveableException {
+			final ObjectKey key = (ObjectKey) replacedEntity;
+			return new Tweet((Integer) key.getId(), key.getVersion(), "user", "message");
+		}
+
+		@Override
+		public void resolveEntities(final Esi4JEntityTask[] tasks) {
+			if (_failResolve.getAndDecrement() > 0) {
+				throw new RuntimeException("resolve failed by test");
+			}
+			for (final Esi4JEntityTask task : tasks) {
+				if (task != null) {
+					try {
+						task.resolveEntity(this);
+					} catch (final EntityNotResolveableException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			}
+		}
+
+		@Override
+		public List<Serializable> findOwnerIds(final Class<?> ownerType, final TypeDependency dependency, final Collection<Serializable> ids) {
+			return _owners;
+		}
+	}
+}
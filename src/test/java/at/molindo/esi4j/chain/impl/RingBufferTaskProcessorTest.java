@@ -0,0 +1,144 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.junit.Test;
+
+import at.molindo.esi4j.chain.Esi4JEntityTask;
+import at.molindo.esi4j.core.Esi4JIndex;
+import at.molindo.esi4j.mapping.ObjectKey;
+
+import com.google.common.collect.Lists;
+
+public class RingBufferTaskProcessorTest {
+
+	@Test
+	public void deduplicate() {
+		final TestProcessor processor = new TestProcessor(16);
+		try {
+			final ObjectKey foo = new ObjectKey(String.class, "foo");
+			final ObjectKey bar = new ObjectKey(String.class, "bar");
+
+			final Esi4JEntityTask[] tasks = { new IndexEntityTask(foo), new DeleteEntityTask(bar), new DeleteEntityTask(foo), new IndexEntityTask(bar) };
+			processor.deduplicate(tasks, tasks.length);
+
+			assertNull(tasks[0]);
+			assertNull(tasks[1]);
+			assertNotNull(tasks[2]);
+			assertNotNull(tasks[3]);
+		} finally {
+			processor.close();
+		}
+	}
+
+	@Test
+	public void publish() throws InterruptedException {
+		final int threads = 4;
+		final int tasks = 5000;
+
+		// smaller than number of published tasks to wrap around
+		final TestProcessor processor = new TestProcessor(100);
+
+		final List<Thread> producers = Lists.newArrayList();
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			producers.add(new Thread() {
+
+				@Override
+				public void run() {
+					for (int i = 0; i < tasks; i += 10) {
+						final Esi4JEntityTask[] batch = new Esi4JEntityTask[10];
+						for (int j = 0; j < batch.length; j++) {
+							batch[j] = new IndexEntityTask(new ObjectKey(Integer.class, thread * tasks + i + j));
+						}
+						processor.processTasks(batch);
+					}
+				}
+			});
+		}
+		for (final Thread producer : producers) {
+			producer.start();
+		}
+		for (final Thread producer : producers) {
+			producer.join();
+		}
+
+		// waits for all previously published tasks
+		processor.execute(null);
+		assertEquals(threads * tasks, processor._indexed.size());
+
+		// ordered per producer
+		final int[] last = new int[threads];
+		for (int t = 0; t < threads; t++) {
+			last[t] = -1;
+		}
+		for (final ObjectKey key : processor._indexed) {
+			final int id = (Integer) key.getId();
+			assertTrue(id > last[id / tasks]);
+			last[id / tasks] = id;
+		}
+
+		processor.close();
+		assertEquals(0, processor.getBacklog());
+	}
+
+	private static final class TestProcessor extends RingBufferTaskProcessor {
+
+		private final List<ObjectKey> _indexed = Lists.newArrayList();
+
+		private TestProcessor(final int size) {
+			super(proxyIndex(), null, ImmutableSettings.settingsBuilder().put(SETTING_RING_SIZE, size).build());
+		}
+
+		@Override
+		void index(final Esi4JEntityTask[] tasks, final int size) {
+			for (int i = 0; i < size; i++) {
+				_indexed.add(tasks[i].toObjectKey(null));
+			}
+		}
+
+		@Override
+		public <T> T execute(final SerializableEsi4JOperation<T> operation) {
+			return super.execute(operation == null ? new SerializableEsi4JOperation<T>() {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public T execute(final org.elasticsearch.client.Client client, final String indexName, final OperationContext helper) {
+					return null;
+				}
+			} : operation);
+		}
+	}
+
+	private static Esi4JIndex proxyIndex() {
+		return (Esi4JIndex) Proxy.newProxyInstance(Esi4JIndex.class.getClassLoader(), new Class<?>[] { Esi4JIndex.class }, new InvocationHandler() {
+
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				return null;
+			}
+		});
+	}
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import static org.junit.Assert.*;
+
+import org.easymock.EasyMock;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.junit.Test;
+
+import at.molindo.esi4j.chain.Esi4JEntityResolver;
+import at.molindo.esi4j.core.Esi4JOperation.OperationContext;
+import at.molindo.esi4j.ex.EntityNotResolveableException;
+import at.molindo.esi4j.mapping.ObjectKey;
+import at.molindo.esi4j.mapping.TypeMapping;
+import at.molindo.esi4j.test.util.Tweet;
+import at.molindo.esi4j.test.util.TweetTypeMapping;
+
+public class SerializedIndexEntityTaskTest {
+
+	private static final TweetTypeMapping MAPPING = new TweetTypeMapping("tweet");
+
+	@Test
+	public void serialize() throws EntityNotResolveableException {
+		final Tweet tweet = new Tweet(1, 2L, "esi4j", "hello");
+		final SerializedIndexEntityTask task = new SerializedIndexEntityTask(tweet);
+
+		task.replaceEntity(RESOLVER);
+		assertEquals(new ObjectKey(Tweet.class, 1), task.toObjectKey(RESOLVER));
+		assertFalse(task.isSerialized());
+
+		assertTrue(task.serialize(CONTEXT));
+		assertTrue(task.isSerialized());
+		assertTrue(task.getSourceLength() > 0);
+
+		// later changes aren't indexed
+		tweet.setMessage("changed");
+
+		// no resolve required
+		task.resolveEntity(RESOLVER);
+
+		final Client client = EasyMock.createNiceMock(Client.class);
+		EasyMock.replay(client);
+
+		final BulkRequestBuilder bulk = new BulkRequestBuilder(client);
+		task.addToBulk(client, bulk, "index", CONTEXT);
+		assertEquals(1, bulk.numberOfActions());
+
+		final IndexRequest request = (IndexRequest) bulk.request().requests().get(0);
+		assertEquals("tweet", request.type());
+		assertEquals("1", request.id());
+		assertEquals(2L, request.version());
+		assertTrue(request.source().toUtf8().contains("hello"));
+
+		// nothing left to serialize
+		assertFalse(task.serialize(CONTEXT));
+	}
+
+	private static final Esi4JEntityResolver RESOLVER = new Esi4JEntityResolver() {
+
+		@Override
+		public ObjectKey toObjectKey(final Object entity) {
+			final Tweet tweet = (Tweet) entity;
+			return new ObjectKey(Tweet.class, tweet.getId(), tweet.getVersion());
+		}
+
+		@Override
+		public Object replaceEntity(final Object entity) {
+			return toObjectKey(entity);
+		}
+
+		@Override
+		public Object resolveEntity(final Object replacedEntity) {
+			throw new AssertionError("serialized tasks must not be resolved");
+		}
+	};
+
+	private static final OperationContext CONTEXT = new OperationContext() {
+
+		@Override
+		public String findIndexName(final Class<?> type) {
+			return "index";
+		}
+
+		@Override
+		public TypeMapping findTypeMapping(final Object o) {
+			return MAPPING;
+		}
+
+		@Override
+		public TypeMapping findTypeMapping(final Class<?> type) {
+			return MAPPING;
+		}
+
+		@Override
+		public TypeMapping findTypeMapping(final String indexName, final String typeAlias) {
+			return MAPPING;
+		}
+	};
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.elasticsearch.action.update.UpdateRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import at.molindo.esi4j.chain.Esi4JEntityTask;
+import at.molindo.esi4j.chain.Esi4JTaskPriority;
+import at.molindo.esi4j.mapping.ObjectKey;
+
+public class TaskBufferTest {
+
+	private File _dir;
+
+	@Before
+	public void before() throws IOException {
+		_dir = Files.createTempDirectory("esi4j-buffer").toFile();
+	}
+
+	@After
+	public void after() {
+		for (final File file : _dir.listFiles()) {
+			file.delete();
+		}
+		_dir.delete();
+	}
+
+	@Test
+	public void heap() throws IOException {
+		final TaskBuffer buffer = new TaskBuffer(-1, _dir);
+
+		final IndexEntityTask index = new IndexEntityTask(new ObjectKey(Long.class, 1L, 3L));
+		index.setPriority(Esi4JTaskPriority.BACKFILL);
+		buffer.add(index);
+		buffer.add(new DeleteEntityTask(new ObjectKey(String.class, "foo")));
+		buffer.add(new TestUpdateTask(new ObjectKey(Long.class, 2L)));
+
+		assertEquals(3, buffer.size());
+		assertFalse(buffer.isSpilled());
+
+		final Esi4JEntityTask[] tasks = buffer.toArray();
+		assertEquals(3, tasks.length);
+
+		assertTrue(tasks[0] instanceof IndexEntityTask);
+		assertEquals(Esi4JTaskPriority.BACKFILL, ((IndexEntityTask) tasks[0]).getPriority());
+		assertEquals(Long.valueOf(3), tasks[0].toObjectKey(null).getVersion());
+
+		assertTrue(tasks[1] instanceof DeleteEntityTask);
+		assertNull(((DeleteEntityTask) tasks[1]).getPriority());
+		assertEquals(new ObjectKey(String.class, "foo"), tasks[1].toObjectKey(null));
+
+		assertTrue(tasks[2] instanceof TestUpdateTask);
+		assertEquals(new ObjectKey(Long.class, 2L), tasks[2].toObjectKey(null));
+
+		buffer.clear();
+		assertEquals(0, buffer.size());
+		assertEquals(0, buffer.toArray().length);
+	}
+
+	@Test
+	public void spill() throws IOException {
+		final TaskBuffer buffer = new TaskBuffer(1024, _dir);
+
+		for (int i = 0; i < 1000; i++) {
+			buffer.add(i % 2 == 0 ? new IndexEntityTask(new ObjectKey(Long.class, (long) i)) : new DeleteEntityTask(new ObjectKey(Integer.class, i)));
+		}
+		assertTrue(buffer.isSpilled());
+		assertEquals(1, _dir.listFiles().length);
+
+		final Esi4JEntityTask[] tasks = buffer.toArray();
+		assertEquals(1000, tasks.length);
+		for (int i = 0; i < tasks.length; i++) {
+			final ObjectKey key = tasks[i].toObjectKey(null);
+			assertEquals(i % 2 == 0 ? Long.class : Integer.class, key.getType());
+			assertEquals(i % 2 == 0 ? (Object) (long) i : (Object) i, key.getId());
+		}
+
+		buffer.clear();
+		assertFalse(buffer.isSpilled());
+		assertEquals(0, _dir.listFiles().length);
+	}
+
+	private static final class TestUpdateTask extends UpdateEntityTask {
+
+		private static final long serialVersionUID = 1L;
+
+		private TestUpdateTask(final Object entity) {
+			super(entity);
+		}
+
+		@Override
+		protected UpdateRequest updateRequest(final Object entity) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.EasyMock;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.junit.Test;
+
+import at.molindo.esi4j.chain.Esi4JEntityTask;
+import at.molindo.esi4j.chain.Esi4JTaskPriority;
+import at.molindo.esi4j.core.Esi4JIndex;
+import at.molindo.esi4j.mapping.ObjectKey;
+
+public class TaskCoalescerTest {
+
+	@Test
+	public void supersede() {
+		final TaskCoalescer coalescer = new TaskCoalescer(EasyMock.createMock(Esi4JIndex.class), ImmutableSettings.EMPTY);
+
+		final ObjectKey key = new ObjectKey(String.class, "foo");
+		final TestBatch batch = new TestBatch(new IndexEntityTask(key));
+
+		assertNull(coalescer.supersede(key, new IndexEntityTask(key), TaskJournal.NO_SEQ));
+
+		coalescer.queued(key, batch, 0);
+		assertEquals(1, coalescer.getPendingKeys());
+		assertEquals(Esi4JTaskPriority.REALTIME, coalescer.getPendingPriority(key));
+
+		// updates depend on previous state
+		assertNull(coalescer.supersede(key, new UpdateEntityTask(key) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected UpdateRequest updateRequest(final Object entity) {
+				return null;
+			}
+		}, TaskJournal.NO_SEQ));
+
+		final DeleteEntityTask delete = new DeleteEntityTask(key);
+		assertSame(batch, coalescer.supersede(key, delete, TaskJournal.NO_SEQ));
+		assertSame(delete, batch._tasks[0]);
+		assertEquals(1, coalescer.getCoalesced());
+
+		// dispatched batch can't be modified anymore
+		batch._started = true;
+		assertNull(coalescer.supersede(key, new IndexEntityTask(key), TaskJournal.NO_SEQ));
+
+		// slot of a different batch isn't removed
+		coalescer.dispatched(key, new TestBatch(), 0);
+		assertEquals(1, coalescer.getPendingKeys());
+
+		coalescer.dispatched(key, batch, 0);
+		assertEquals(0, coalescer.getPendingKeys());
+	}
+
+	@Test
+	public void linger() {
+		final TaskCoalescer coalescer = new TaskCoalescer(EasyMock.createMock(Esi4JIndex.class), ImmutableSettings.EMPTY);
+
+		assertEquals(0, coalescer.getLingerMillis(String.class));
+
+		coalescer.setLinger(String.class, 2, TimeUnit.SECONDS);
+		assertEquals(2000, coalescer.getLingerMillis(String.class));
+	}
+
+	@Test
+	public void priority() {
+		final TaskCoalescer coalescer = new TaskCoalescer(EasyMock.createMock(Esi4JIndex.class), ImmutableSettings.EMPTY);
+
+		assertEquals(Esi4JTaskPriority.REALTIME, coalescer.getPriority(String.class));
+
+		coalescer.setPriority(String.class, Esi4JTaskPriority.BACKFILL);
+		assertEquals(Esi4JTaskPriority.BACKFILL, coalescer.getPriority(String.class));
+	}
+
+	private static final class TestBatch implements TaskCoalescer.Batch {
+
+		private final Esi4JEntityTask[] _tasks;
+		private boolean _started;
+
+		private TestBatch(final Esi4JEntityTask... tasks) {
+			_tasks = tasks;
+		}
+
+		@Override
+		public boolean replace(final int index, final Esi4JEntityTask task, final long seq) {
+			if (_started) {
+				return false;
+			}
+			_tasks[index] = task;
+			return true;
+		}
+
+		@Override
+		public Esi4JTaskPriority getPriority() {
+			return Esi4JTaskPriority.REALTIME;
+		}
+	}
+}
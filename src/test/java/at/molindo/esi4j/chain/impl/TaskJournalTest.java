@@ -0,0 +1,149 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.elasticsearch.common.lucene.uid.Versions;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import at.molindo.esi4j.chain.Esi4JEntityTask;
+import at.molindo.esi4j.mapping.ObjectKey;
+import at.molindo.esi4j.test.util.Tweet;
+
+public class TaskJournalTest {
+
+	private File _dir;
+
+	@Before
+	public void before() throws IOException {
+		_dir = Files.createTempDirectory("esi4j-journal").toFile();
+	}
+
+	@After
+	public void after() {
+		delete(_dir);
+	}
+
+	private static void delete(final File file) {
+		if (file.isDirectory()) {
+			for (final File child : file.listFiles()) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	@Test
+	public void recover() throws IOException {
+		final Esi4JEntityTask[] tasks = new Esi4JEntityTask[100];
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i] = i % 2 == 0 ? new IndexEntityTask(new ObjectKey(Long.class, (long) i)) : new DeleteEntityTask(new ObjectKey(String.class, "id" + i));
+		}
+
+		TaskJournal journal = new TaskJournal(_dir, 1024, false);
+		assertEquals(0, journal.takeRecovery()._tasks.length);
+
+		final long[] seqs = journal.append(tasks, null);
+		assertEquals(100, journal.getPending());
+		assertTrue(journal.getSegments() > 1);
+
+		journal.acknowledge(Arrays.copyOf(seqs, 98));
+		assertEquals(2, journal.getPending());
+		assertEquals(1, journal.getSegments());
+		journal.close();
+
+		journal = new TaskJournal(_dir, 1024, false);
+		final TaskJournal.Recovery recovery = journal.takeRecovery();
+		assertEquals(2, recovery._tasks.length);
+		assertEquals(new ObjectKey(Long.class, 98L), recovery._tasks[0].toObjectKey(null));
+		assertTrue(recovery._tasks[1] instanceof DeleteEntityTask);
+		assertEquals(seqs[99], recovery._seqs[1]);
+
+		journal.acknowledge(recovery._seqs);
+		assertEquals(0, journal.getPending());
+
+		assertEquals(100, journal.append(new Esi4JEntityTask[] { new IndexEntityTask(new ObjectKey(Long.class, 1L)) }, null)[0]);
+		journal.close();
+	}
+
+	@Test
+	public void recoverPropagate() throws IOException {
+		TaskJournal journal = new TaskJournal(_dir, 1024, false);
+		journal.append(new Esi4JEntityTask[] { new PropagateEntityTask(new ObjectKey(String.class, "esi4j")) }, null);
+		journal.close();
+
+		journal = new TaskJournal(_dir, 1024, false);
+		final TaskJournal.Recovery recovery = journal.takeRecovery();
+		assertTrue(recovery._tasks[0] instanceof PropagateEntityTask);
+		assertEquals(new ObjectKey(String.class, "esi4j"), recovery._tasks[0].toObjectKey(null));
+		journal.close();
+	}
+
+	@Test
+	public void recoverOnFirstExecute() throws IOException, InterruptedException {
+		final TaskJournal journal = new TaskJournal(new File(_dir, "test"), 1024, false);
+		journal.append(new Esi4JEntityTask[] { new IndexEntityTask(new ObjectKey(Tweet.class, 1)) }, null);
+		journal.close();
+
+		final RecordingIndex index = new RecordingIndex();
+		final QueuedTaskProcessor processor = index.processor(ImmutableSettings.settingsBuilder()
+				.put(TaskJournal.SETTING_PATH, _dir.getPath()).put(QueuedTaskExecutor.SETTING_THREADS, 1).build());
+		try {
+			// recovered tasks aren't dispatched during construction
+			Thread.sleep(50);
+			assertEquals(0, index.bulks().size());
+
+			processor.processTasks(new Esi4JEntityTask[] { RecordingIndex.task(2, 1) });
+			processor.getExecutor().awaitIndexed();
+
+			// recovered tasks first
+			assertEquals(Arrays.asList("1:" + Versions.MATCH_ANY, "2:1"), index.actions());
+			assertEquals(0, processor.getExecutor().getJournal().getPending());
+		} finally {
+			processor.close();
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void recoverOnStart() throws IOException, InterruptedException {
+		final TaskJournal journal = new TaskJournal(new File(_dir, "test"), 1024, false);
+		journal.append(new Esi4JEntityTask[] { new IndexEntityTask(new ObjectKey(Tweet.class, 1)) }, null);
+		journal.close();
+
+		final RecordingIndex index = new RecordingIndex();
+		final QueuedTaskProcessor processor = index.processor(ImmutableSettings.settingsBuilder()
+				.put(TaskJournal.SETTING_PATH, _dir.getPath()).put(QueuedTaskExecutor.SETTING_THREADS, 1).build());
+		try {
+			// recovered without waiting for new tasks
+			processor.start();
+			while (processor.getExecutor().getJournal().getPending() > 0) {
+				Thread.sleep(10);
+			}
+			assertEquals(Arrays.asList("1:" + Versions.MATCH_ANY), index.actions());
+		} finally {
+			processor.close();
+		}
+	}
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import static org.junit.Assert.*;
+
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.junit.Test;
+
+import at.molindo.esi4j.chain.impl.TaskQueueBound.OverflowPolicy;
+
+public class TaskQueueBoundTest {
+
+	@Test
+	public void settings() {
+		final TaskQueueBound bound = new TaskQueueBound(ImmutableSettings.settingsBuilder()
+				.put(TaskQueueBound.SETTING_MAX_TASKS, 100).put(TaskQueueBound.SETTING_MAX_BYTES, "1kb")
+				.put(TaskQueueBound.SETTING_OVERFLOW, "coalesce").build());
+
+		assertTrue(bound.isBounded());
+		assertEquals(100, bound.getMaxTasks());
+		assertEquals(1024, bound.getMaxBytes());
+		assertEquals(OverflowPolicy.COALESCE, bound.getPolicy());
+
+		assertFalse(new TaskQueueBound(ImmutableSettings.EMPTY).isBounded());
+	}
+
+	@Test
+	public void acquire() throws InterruptedException {
+		final TaskQueueBound bound = new TaskQueueBound(10, 1000, OverflowPolicy.BLOCK, TimeValue.timeValueMillis(10));
+
+		// first batch is always accepted
+		assertTrue(bound.tryAcquire(20, 2000));
+		assertFalse(bound.tryAcquire(1, 1));
+
+		bound.release(20, 2000);
+		assertTrue(bound.tryAcquire(5, 500));
+		assertTrue(bound.tryAcquire(5, 500));
+		assertFalse(bound.tryAcquire(1, 0));
+		assertEquals(10, bound.getQueuedTasks());
+		assertEquals(1000, bound.getQueuedBytes());
+
+		assertFalse(bound.acquire(1, 0));
+		assertEquals(1, bound.getBlocked());
+		assertEquals(1, bound.getBlockTimeouts());
+
+		bound.release(5, 500);
+		assertTrue(bound.acquire(5, 500));
+		assertEquals(1, bound.getBlocked());
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.chain.impl;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+import at.molindo.esi4j.core.Esi4JOperation.OperationContext;
+import at.molindo.esi4j.mapping.TypeDependency;
+import at.molindo.esi4j.mapping.TypeMapping;
+import at.molindo.esi4j.test.util.Tweet;
+import at.molindo.esi4j.test.util.TweetTypeMapping;
+
+public class TypeDependenciesTest {
+
+	@Test
+	public void owners() {
+		final Map<Class<?>, TypeMapping> mappings = Maps.newHashMap();
+		mappings.put(Tweet.class, mapping(TypeDependency.on(Number.class, "user")));
+		mappings.put(String.class, mapping(TypeDependency.on(Number.class, "length"), TypeDependency.on(Tweet.class, "message")));
+
+		final TypeDependencies dependencies = TypeDependencies.build(new Class<?>[] { Tweet.class, String.class }, context(mappings));
+
+		final List<TypeDependencies.Owner> owners = dependencies.getOwners(Integer.class);
+		assertEquals(2, owners.size());
+		assertSame(Tweet.class, owners.get(0).getType());
+		assertEquals("user", owners.get(0).getDependency().getPath());
+		assertSame(String.class, owners.get(1).getType());
+
+		assertEquals(1, dependencies.getOwners(Tweet.class).size());
+		assertTrue(dependencies.getOwners(String.class).isEmpty());
+
+		assertTrue(dependencies.isBuiltFor(new Class<?>[] { String.class, Tweet.class }));
+		assertFalse(dependencies.isBuiltFor(new Class<?>[] { Tweet.class }));
+	}
+
+	@Test
+	public void cycle() {
+		final Map<Class<?>, TypeMapping> mappings = Maps.newHashMap();
+		mappings.put(Tweet.class, mapping(TypeDependency.on(String.class, "user")));
+		mappings.put(String.class, mapping(TypeDependency.on(Tweet.class, "message")));
+
+		try {
+			TypeDependencies.build(new Class<?>[] { Tweet.class, String.class }, context(mappings));
+			fail("cyclic dependencies expected");
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private static TypeMapping mapping(final TypeDependency... dependencies) {
+		return new TweetTypeMapping("tweet") {
+
+			@Override
+			public List<TypeDependency> getDependencies() {
+				return Arrays.asList(dependencies);
+			}
+		};
+	}
+
+	private static OperationContext context(final Map<Class<?>, TypeMapping> mappings) {
+		return (OperationContext) Proxy.newProxyInstance(TypeDependenciesTest.class.getClassLoader(), new Class<?>[] { OperationContext.class }, new InvocationHandler() {
+
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				if (method.getName().equals("findTypeMapping") && args[0] instanceof Class) {
+					return mappings.get(args[0]);
+				}
+				throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.core.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.elasticsearch.action.admin.indices.mapping.get.GetMappingsResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.junit.Test;
+
+import at.molindo.esi4j.core.Esi4J;
+import at.molindo.esi4j.core.Esi4JOperation;
+import at.molindo.esi4j.core.Esi4JOperation.OperationContext;
+import at.molindo.esi4j.core.internal.InternalIndex;
+import at.molindo.esi4j.test.util.TestUtils;
+import at.molindo.esi4j.test.util.TweetTypeMapping;
+
+public class DefaultIndexTest {
+
+	@Test
+	public void putDeletedMapping() throws IOException {
+		final Esi4J esi4j = TestUtils.newEsi4j();
+		try {
+			final InternalIndex index = (InternalIndex) esi4j.getIndex();
+			final TweetTypeMapping mapping = new TweetTypeMapping("tweet");
+
+			index.addTypeMapping(mapping);
+			final String hash = getHash(index, "tweet");
+			assertNotNull(hash);
+
+			// unchanged mapping is skipped
+			index.addTypeMapping(mapping);
+			assertEquals(hash, getHash(index, "tweet"));
+
+			deleteMapping(index, "tweet");
+			assertNull(getMapping(index, "tweet"));
+
+			// deleted mapping is put again
+			index.addTypeMapping(mapping);
+			assertEquals(hash, getHash(index, "tweet"));
+		} finally {
+			esi4j.close();
+		}
+	}
+
+	private static String getHash(final InternalIndex index, final String typeAlias) throws IOException {
+		final MappingMetaData mapping = getMapping(index, typeAlias);
+		return mapping == null ? null : MappingHashes.getHash(mapping.sourceAsMap());
+	}
+
+	private static MappingMetaData getMapping(final InternalIndex index, final String typeAlias) {
+		return index.execute(new Esi4JOperation<MappingMetaData>() {
+
+			@Override
+			public MappingMetaData execute(final Client client, final String indexName, final OperationContext context) {
+				final GetMappingsResponse response = client.admin().indices().prepareGetMappings(indexName)
+						.setTypes(typeAlias).execute().actionGet();
+				return response.getMappings().isEmpty() ? null : response.getMappings().valuesIt().next()
+						.get(typeAlias);
+			}
+		});
+	}
+
+	private static void deleteMapping(final InternalIndex index, final String typeAlias) {
+		index.execute(new Esi4JOperation<Void>() {
+
+			@Override
+			public Void execute(final Client client, final String indexName, final OperationContext context) {
+				client.admin().indices().prepareDeleteMapping(indexName).setType(typeAlias).execute().actionGet();
+				return null;
+			}
+		});
+	}
+}
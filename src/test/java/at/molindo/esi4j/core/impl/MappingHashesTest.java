@@ -0,0 +1,55 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.core.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.junit.Test;
+
+public class MappingHashesTest {
+
+	@Test
+	public void hash() {
+		final Map<String, Object> a = map("{\"tweet\":{\"properties\":{\"user\":{\"type\":\"string\"},\"message\":{\"type\":\"string\"}},\"_meta\":{\"foo\":\"bar\"}}}");
+		final Map<String, Object> b = map("{\"_meta\":{\"foo\":\"bar\"},\"properties\":{\"message\":{\"type\":\"string\"},\"user\":{\"type\":\"string\"}}}");
+
+		final Map<String, Object> bodyA = MappingHashes.body(a, "tweet");
+		assertTrue(bodyA.containsKey("properties"));
+		assertSame(b, MappingHashes.body(b, "tweet"));
+
+		final String hash = MappingHashes.hash(bodyA);
+		assertEquals(hash, MappingHashes.hash(b));
+
+		// recorded hash is ignored
+		assertNull(MappingHashes.getHash(bodyA));
+		MappingHashes.setHash(bodyA, hash);
+		assertEquals(hash, MappingHashes.getHash(bodyA));
+		assertEquals("bar", ((Map<?, ?>) bodyA.get(MappingHashes.META)).get("foo"));
+		assertEquals(hash, MappingHashes.hash(bodyA));
+
+		// changed mapping
+		final Map<String, Object> c = map("{\"properties\":{\"message\":{\"type\":\"string\",\"index\":\"not_analyzed\"},\"user\":{\"type\":\"string\"}},\"_meta\":{\"foo\":\"bar\"}}");
+		assertNotEquals(hash, MappingHashes.hash(c));
+	}
+
+	private static Map<String, Object> map(final String json) {
+		return XContentHelper.convertToMap(new BytesArray(json), true).v2();
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.mapping;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.junit.Test;
+
+public class SourceBufferTest {
+
+	@Test
+	public void slice() throws IOException {
+		final SourceBuffer buffer = new SourceBuffer(new SourceBuffer.Pool(4));
+
+		buffer.out().write("foo".getBytes(StandardCharsets.UTF_8));
+		final BytesReference foo = buffer.slice();
+
+		buffer.out().write("discarded".getBytes(StandardCharsets.UTF_8));
+		buffer.discard();
+
+		buffer.out().write("bar".getBytes(StandardCharsets.UTF_8));
+		final BytesReference bar = buffer.slice();
+
+		assertEquals("foo", foo.toUtf8());
+		assertEquals("bar", bar.toUtf8());
+		assertSame(foo.array(), bar.array());
+		assertEquals(SourceBuffer.PAGE_SIZE, buffer.getCapacity());
+
+		buffer.close();
+	}
+
+	@Test
+	public void contiguous() throws IOException {
+		final SourceBuffer buffer = new SourceBuffer(new SourceBuffer.Pool(4));
+		final OutputStream out = buffer.out();
+
+		final byte[] first = new byte[SourceBuffer.PAGE_SIZE - 10];
+		Arrays.fill(first, (byte) 'a');
+		out.write(first);
+		buffer.slice();
+
+		// second source doesn't fit into first page and is moved to second page
+		out.write(new byte[] { 'b', 'b', 'b', 'b', 'b' });
+		for (int i = 0; i < 10; i++) {
+			out.write('c');
+		}
+		final BytesReference second = buffer.slice();
+		assertEquals("bbbbbcccccccccc", second.toUtf8());
+		assertEquals(0, second.arrayOffset());
+		assertEquals(2 * SourceBuffer.PAGE_SIZE, buffer.getCapacity());
+
+		// large sources use a single, unpooled page
+		final byte[] large = new byte[3 * SourceBuffer.PAGE_SIZE];
+		out.write(large);
+		assertEquals(large.length, buffer.slice().length());
+
+		buffer.close();
+		assertEquals(0, buffer.getCapacity());
+	}
+
+	@Test
+	public void pool() throws IOException {
+		final SourceBuffer.Pool pool = new SourceBuffer.Pool(1);
+
+		final SourceBuffer buffer = new SourceBuffer(pool);
+		buffer.out().write(new byte[SourceBuffer.PAGE_SIZE]);
+		// enlarged page isn't pooled
+		buffer.out().write(new byte[SourceBuffer.PAGE_SIZE]);
+		buffer.slice();
+		assertEquals(0, pool.getSize());
+
+		buffer.close();
+		assertEquals(1, pool.getSize());
+
+		final SourceBuffer other = new SourceBuffer(pool);
+		other.out().write(1);
+		assertEquals(0, pool.getSize());
+		other.close();
+		assertEquals(1, pool.getSize());
+	}
+}
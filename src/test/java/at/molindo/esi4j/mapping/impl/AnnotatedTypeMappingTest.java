@@ -0,0 +1,173 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.mapping.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+
+import org.elasticsearch.Version;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.text.StringText;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.index.mapper.ContentPath;
+import org.elasticsearch.index.mapper.Mapper.BuilderContext;
+import org.elasticsearch.index.mapper.object.RootObjectMapper;
+import org.elasticsearch.search.internal.InternalSearchHit;
+import org.junit.Test;
+
+import at.molindo.esi4j.mapping.ObjectReadSource;
+
+import at.molindo.esi4j.mapping.annotation.Esi4JField;
+import at.molindo.esi4j.mapping.annotation.Esi4JId;
+import at.molindo.esi4j.mapping.annotation.Esi4JVersion;
+
+public class AnnotatedTypeMappingTest {
+
+	private final AnnotatedTypeMapping<Post, Long> _mapping = new AnnotatedTypeMapping<>("post", Post.class, Long.class);
+
+	@Test
+	public void mapping() throws IOException {
+		final RootObjectMapper.Builder mapperBuilder = new RootObjectMapper.Builder("post");
+		_mapping.buildMapping(mapperBuilder);
+
+		final XContentBuilder contentBuilder = JsonXContent.contentBuilder().startObject();
+		mapperBuilder.build(new BuilderContext(ImmutableSettings.settingsBuilder()
+				.put(IndexMetaData.SETTING_VERSION_CREATED, Version.CURRENT).build(), new ContentPath()))
+				.toXContent(contentBuilder, ToXContent.EMPTY_PARAMS);
+		final String mapping = contentBuilder.endObject().string();
+
+		assertTrue(mapping, mapping.contains("\"msg\""));
+		assertTrue(mapping, mapping.contains("\"status\":{\"type\":\"string\",\"index\":\"not_analyzed\""));
+		assertTrue(mapping, mapping.contains("\"retweets\":{\"type\":\"integer\""));
+		assertTrue(_mapping.isVersioned());
+	}
+
+	@Test
+	public void parser() throws IOException {
+		final Post post = post();
+		final BytesReference source = _mapping.getObjectSource(post).getSource();
+
+		try (XContentParser parser = XContentFactory.xContent(source).createParser(source)) {
+			assertPost(post, _mapping.read(parser));
+		}
+	}
+
+	@Test
+	public void map() throws IOException {
+		final Post post = post();
+		final Map<String, Object> map = XContentHelper.convertToMap(_mapping.getObjectSource(post).getSource(), false)
+				.v2();
+		map.put(AnnotatedTypeMapping.FIELD_VERSION, 3L);
+
+		final Post read = _mapping.read(map);
+		assertPost(post, read);
+		assertEquals(Long.valueOf(3), read._version);
+	}
+
+	@Test
+	public void searchHit() {
+		final AnnotatedTypeMapping<Post, Long> mapping = new AnnotatedTypeMapping<Post, Long>("post", Post.class, Long.class) {
+
+			@Override
+			protected Post readObject(final Map<String, Object> source) {
+				throw new AssertionError("source must not be read as map");
+			}
+		};
+
+		final Post post = post();
+		final InternalSearchHit hit = new InternalSearchHit(0, "42", new StringText("post"), null);
+		hit.sourceRef(_mapping.getObjectSource(post).getSource());
+		hit.version(5);
+
+		final Post read = (Post) mapping.read(ObjectReadSource.Builder.search(hit));
+		assertPost(post, read);
+		assertEquals(Long.valueOf(5), read._version);
+	}
+
+	@Test
+	public void invalid() {
+		try {
+			new AnnotatedTypeMapping<>("post", Post.class, Integer.class);
+			fail();
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+
+		try {
+			new AnnotatedTypeMapping<>("object", Object.class, Long.class);
+			fail();
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private static Post post() {
+		final Post post = new Post();
+		post._id = 42L;
+		post._user = "esi4j";
+		post._status = Status.PUBLISHED;
+		post._retweets = 7;
+		post._created = new Date(1234567890000L);
+		return post;
+	}
+
+	private static void assertPost(final Post expected, final Post actual) {
+		assertEquals(expected._id, actual._id);
+		assertEquals(expected._user, actual._user);
+		assertNull(actual._message);
+		assertEquals(expected._status, actual._status);
+		assertEquals(expected._retweets, actual._retweets);
+		assertEquals(expected._created, actual._created);
+	}
+
+	private enum Status {
+		DRAFT, PUBLISHED
+	}
+
+	private static final class Post {
+
+		@Esi4JId
+		private Long _id;
+
+		@Esi4JVersion
+		private Long _version;
+
+		@Esi4JField("user")
+		private String _user;
+
+		@Esi4JField("msg")
+		private String _message;
+
+		@Esi4JField(value = "status", analyzed = false)
+		private Status _status;
+
+		@Esi4JField("retweets")
+		private int _retweets;
+
+		@Esi4JField("created")
+		private Date _created;
+	}
+}
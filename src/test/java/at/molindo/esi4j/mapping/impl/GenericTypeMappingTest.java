@@ -0,0 +1,201 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.mapping.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.Set;
+
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.get.GetResult;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+import at.molindo.esi4j.mapping.ObjectReadSource;
+import at.molindo.esi4j.mapping.ObjectWriteSource;
+import at.molindo.esi4j.mapping.SourceBuffer;
+import at.molindo.esi4j.mapping.TypeMapping;
+import at.molindo.esi4j.test.util.Tweet;
+import at.molindo.esi4j.test.util.TweetTypeMapping;
+
+public class GenericTypeMappingTest {
+
+	@Test
+	public void partialObjectSource() {
+		final TweetTypeMapping mapping = new TweetTypeMapping("tweet");
+
+		final ObjectWriteSource source = mapping
+				.getPartialObjectSource(new Tweet(1, "esi4j", "hello"), ImmutableSet.of("user"));
+
+		assertEquals("{\"user\":\"esi4j\"}", source.getSource().toUtf8());
+	}
+
+	@Test
+	public void contentType() {
+		final TweetTypeMapping mapping = new TweetTypeMapping("tweet") {
+
+			@Override
+			public XContentType getContentType() {
+				return XContentType.SMILE;
+			}
+		};
+		final Tweet tweet = new Tweet(1, "esi4j", "hello");
+
+		final BytesReference smile = mapping.getObjectSource(tweet).getSource();
+		assertEquals(XContentType.SMILE, XContentFactory.xContentType(smile));
+
+		final BytesReference json = mapping.getObjectSource(tweet, XContentType.JSON).getSource();
+		assertEquals(XContentType.JSON, XContentFactory.xContentType(json));
+
+		assertEquals(XContentHelper.convertToMap(json, false).v2(), XContentHelper.convertToMap(smile, false).v2());
+		assertEquals(XContentType.SMILE, XContentFactory.xContentType(mapping
+				.getPartialObjectSource(tweet, ImmutableSet.of("user")).getSource()));
+	}
+
+	@Test
+	public void partialUpdatesUnsupported() {
+		final AbstractIntegerTypeMapping<Tweet> mapping = new TweetTypeMapping("tweet") {
+
+			@Override
+			protected boolean writeProperties(final XContentBuilder contentBuilder, final Tweet o, final Set<String> properties) {
+				return false;
+			}
+		};
+
+		assertNull(mapping.getPartialObjectSource(new Tweet(1, "esi4j", "hello"), ImmutableSet.of("user")));
+	}
+
+	@Test
+	public void parserFallback() throws IOException {
+		final TweetTypeMapping mapping = new TweetTypeMapping("tweet");
+		final BytesReference source = mapping.getObjectSource(new Tweet(1, "esi4j", "hello")).getSource();
+
+		try (XContentParser parser = XContentFactory.xContent(source).createParser(source)) {
+			final Tweet tweet = (Tweet) mapping.read(parser);
+			assertEquals("esi4j", tweet.getUser());
+			assertEquals("hello", tweet.getMessage());
+		}
+
+		final GetResponse response = new GetResponse(new GetResult("index", "tweet", "1", 2, true, source, null));
+		final Tweet tweet = (Tweet) mapping.read(ObjectReadSource.Builder.get(response));
+		assertEquals(Integer.valueOf(1), tweet.getId());
+		assertEquals(Long.valueOf(2), tweet.getVersion());
+		assertEquals("hello", tweet.getMessage());
+	}
+
+	@Test
+	public void mapRead() {
+		final Map<String, Object> read = Maps.newHashMap();
+		final TweetTypeMapping mapping = new TweetTypeMapping("tweet") {
+
+			@Override
+			protected Tweet readObject(final Map<String, Object> source) {
+				read.putAll(source);
+				return super.readObject(source);
+			}
+		};
+		final BytesReference source = mapping.getObjectSource(new Tweet(1, "esi4j", "hello")).getSource();
+
+		// mappings without parser read get metadata as before
+		final GetResponse response = new GetResponse(new GetResult("index", "tweet", "1", 2, true, source, null));
+		assertNotNull(mapping.read(ObjectReadSource.Builder.get(response)));
+		assertEquals("index", read.get(TypeMapping.FIELD_INDEX));
+		assertEquals("tweet", read.get(TypeMapping.FIELD_TYPE));
+		assertEquals("1", read.get(TypeMapping.FIELD_ID));
+		assertEquals(2L, read.get(TypeMapping.FIELD_VERSION));
+	}
+
+	@Test
+	public void contentTypeRequests() throws IOException {
+		final TweetTypeMapping mapping = new TweetTypeMapping("tweet") {
+
+			@Override
+			public XContentType getContentType() {
+				return XContentType.SMILE;
+			}
+		};
+		final Tweet tweet = new Tweet(1, "esi4j", "hello");
+		final Client client = client();
+
+		final IndexRequest request = mapping.indexBuilderRequest(client, "index", tweet);
+		assertEquals(XContentType.SMILE, XContentFactory.xContentType(request.source()));
+
+		// pooled source buffers
+		try (SourceBuffer buffer = new SourceBuffer(new SourceBuffer.Pool(1))) {
+			final IndexRequest buffered = mapping.indexBuilderRequest(client, "index", tweet, buffer);
+			assertEquals(XContentType.SMILE, XContentFactory.xContentType(buffered.source()));
+			assertEquals(request.source(), buffered.source());
+		}
+
+		final UpdateRequest update = mapping.updateBuilderRequest(client, "index", tweet, ImmutableSet.of("message"));
+		assertEquals(XContentType.SMILE, XContentFactory.xContentType(update.doc().source()));
+
+		// read back regardless of content type
+		try (XContentParser parser = XContentFactory.xContent(request.source()).createParser(request.source())) {
+			final Tweet read = (Tweet) mapping.read(parser);
+			assertEquals("esi4j", read.getUser());
+			assertEquals("hello", read.getMessage());
+		}
+	}
+
+	@Test
+	public void overriddenObjectSource() {
+		final TweetTypeMapping mapping = new TweetTypeMapping("tweet") {
+
+			@Override
+			public ObjectWriteSource getObjectSource(final Object o) {
+				return ObjectWriteSource.Builder.map(ImmutableMap.<String, Object> of("user", "overridden"));
+			}
+		};
+
+		// pooled source buffers must not bypass overridden source
+		try (SourceBuffer buffer = new SourceBuffer(new SourceBuffer.Pool(1))) {
+			final IndexRequest request = mapping.indexBuilderRequest(client(), "index", new Tweet(1, "esi4j", "hello"),
+					buffer);
+			assertEquals("overridden", request.sourceAsMap().get("user"));
+		}
+	}
+
+	/**
+	 * @return client only used to build requests
+	 */
+	private static Client client() {
+		return (Client) Proxy.newProxyInstance(Client.class.getClassLoader(), new Class<?>[] { Client.class }, new InvocationHandler() {
+
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				return null;
+			}
+		});
+	}
+}
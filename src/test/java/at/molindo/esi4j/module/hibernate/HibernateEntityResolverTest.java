@@ -0,0 +1,230 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.module.hibernate;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.type.Type;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import at.molindo.esi4j.chain.Esi4JEntityResolver;
+import at.molindo.esi4j.chain.Esi4JEntityTask;
+import at.molindo.esi4j.core.Esi4JOperation.OperationContext;
+import at.molindo.esi4j.ex.EntityNotResolveableException;
+import at.molindo.esi4j.mapping.ObjectKey;
+import at.molindo.esi4j.test.util.Tweet;
+
+public class HibernateEntityResolverTest {
+
+	/**
+	 * ids of existing tweets
+	 */
+	private final Set<Integer> _existing = ImmutableSet.of(1, 2, 4, 5);
+
+	private final List<String> _queries = Lists.newArrayList();
+	private final List<List<?>> _chunks = Lists.newArrayList();
+	private final List<String> _profiles = Lists.newArrayList();
+
+	@Test
+	public void resolveEntities() {
+		final HibernateEntityResolver resolver = new HibernateEntityResolver(sessionFactory());
+		resolver.setBatchSize(2);
+		resolver.setFetchJoins(Tweet.class, "user");
+		resolver.setFetchProfile(Tweet.class, "tweet");
+		resolver.setResolveSession(session());
+
+		final KeyTask[] tasks = new KeyTask[6];
+		for (int i = 0; i < 5; i++) {
+			tasks[i] = new KeyTask(new ObjectKey(Tweet.class, i + 1, 1L));
+		}
+		// duplicate id, newer version
+		tasks[5] = new KeyTask(new ObjectKey(Tweet.class, 1, 2L));
+
+		resolver.resolveEntities(tasks);
+
+		// each id loaded once, in chunks of batch size
+		assertEquals(Collections.nCopies(3, "select distinct e from Tweet e left join fetch e.user where e.id in (:ids)"), _queries);
+		assertEquals(Arrays.asList(Arrays.asList(1, 2), Arrays.asList(3, 4), Arrays.asList(5)), _chunks);
+		assertEquals(Arrays.asList("enable tweet", "disable tweet"), _profiles);
+
+		// task of deleted entity removed
+		assertNull(tasks[2]);
+		for (final int i : new int[] { 0, 1, 3, 4, 5 }) {
+			assertTrue(tasks[i]._entity instanceof Tweet);
+			assertEquals(((ObjectKey) tasks[i]._key).getId(), ((Tweet) tasks[i]._entity).getId());
+		}
+		assertSame(tasks[0]._entity, tasks[5]._entity);
+	}
+
+	private SessionFactory sessionFactory() {
+		final Type idType = proxy(Type.class, new InvocationHandler() {
+
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				return "isComponentType".equals(method.getName()) ? false : null;
+			}
+		});
+		final ClassMetadata meta = proxy(ClassMetadata.class, new InvocationHandler() {
+
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				switch (method.getName()) {
+				case "getMappedClass":
+					return Tweet.class;
+				case "getEntityName":
+					return "Tweet";
+				case "getIdentifierPropertyName":
+					return "id";
+				case "getIdentifierType":
+					return idType;
+				case "getIdentifier":
+					return ((Tweet) args[0]).getId();
+				default:
+					return null;
+				}
+			}
+		});
+		return proxy(SessionFactory.class, new InvocationHandler() {
+
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				switch (method.getName()) {
+				case "getAllClassMetadata":
+					return Collections.singletonMap("Tweet", meta);
+				case "getClassMetadata":
+					return meta;
+				default:
+					return null;
+				}
+			}
+		});
+	}
+
+	private Session session() {
+		return (Session) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Session.class,
+				SessionImplementor.class }, new InvocationHandler() {
+
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				switch (method.getName()) {
+				case "createQuery":
+					_queries.add((String) args[0]);
+					return query();
+				case "enableFetchProfile":
+					_profiles.add("enable " + args[0]);
+					return null;
+				case "disableFetchProfile":
+					_profiles.add("disable " + args[0]);
+					return null;
+				default:
+					return null;
+				}
+			}
+		});
+	}
+
+	private Query query() {
+		final List<Tweet> result = Lists.newArrayList();
+		return proxy(Query.class, new InvocationHandler() {
+
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				switch (method.getName()) {
+				case "setParameterList":
+					final List<?> ids = Lists.newArrayList((Collection<?>) args[1]);
+					_chunks.add(ids);
+					for (final Object id : ids) {
+						if (_existing.contains(id)) {
+							result.add(new Tweet((Integer) id, "esi4j", "hello"));
+						}
+					}
+					return proxy;
+				case "list":
+					return result;
+				default:
+					return null;
+				}
+			}
+		});
+	}
+
+	private static <T> T proxy(final Class<T> type, final InvocationHandler handler) {
+		return type.cast(Proxy.newProxyInstance(HibernateEntityResolverTest.class.getClassLoader(), new Class<?>[] { type }, handler));
+	}
+
+	/**
+	 * keeps resolved entity
+	 */
+	private static final class KeyTask implements Esi4JEntityTask {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Object _key;
+		private Object _entity;
+
+		private KeyTask(final ObjectKey key) {
+			_key = key;
+			_entity = key;
+		}
+
+		@Override
+		public boolean isUpdate() {
+			return false;
+		}
+
+		@Override
+		public void replaceEntity(final Esi4JEntityResolver entityResolver) {
+		}
+
+		@Override
+		public void resolveEntity(final Esi4JEntityResolver entityResolver) throws EntityNotResolveableException {
+			_entity = entityResolver.resolveEntity(_key);
+		}
+
+		@Override
+		public ObjectKey toObjectKey(final Esi4JEntityResolver entityResolver) {
+			return (ObjectKey) _key;
+		}
+
+		@Override
+		public void addToBulk(final Client client, final BulkRequestBuilder bulk, final String indexName, final OperationContext context) {
+		}
+
+		@Override
+		public Esi4JEntityTask clone() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.module.hibernate;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.persister.entity.EntityPersister;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import at.molindo.esi4j.chain.Esi4JBatchedEventProcessor;
+import at.molindo.esi4j.chain.Esi4JPartialUpdateEventListener;
+import at.molindo.esi4j.chain.Esi4JTaskProcessor;
+import at.molindo.esi4j.core.internal.InternalIndex;
+import at.molindo.esi4j.test.util.Tweet;
+import at.molindo.esi4j.test.util.TweetTypeMapping;
+
+public class HibernateEventListenerTest {
+
+	private static final String[] PROPERTIES = { "user", "message", "version" };
+
+	/**
+	 * "onPostUpdate" followed by dirty properties if partial
+	 */
+	private final List<List<Object>> _updates = Lists.newArrayList();
+
+	@Test
+	public void skipUnindexedUpdate() {
+		final HibernateEventListener listener = new HibernateEventListener(processor());
+		final Tweet tweet = new Tweet(1, "esi4j", "hello");
+
+		listener.onPostUpdate(event(tweet, 2));
+		assertEquals(0, _updates.size());
+		assertEquals(1, listener.getSkippedUpdates(Tweet.class));
+
+		listener.onPostUpdate(event(tweet, 0, 2));
+		assertEquals(Arrays.<Object> asList("onPostUpdate", ImmutableSet.of("user")), _updates.get(0));
+
+		// all indexed properties dirty
+		listener.onPostUpdate(event(tweet, 0, 1));
+		assertEquals(Arrays.<Object> asList("onPostUpdate"), _updates.get(1));
+
+		// unknown dirty properties
+		listener.onPostUpdate(event(tweet, (int[]) null));
+		assertEquals(Arrays.<Object> asList("onPostUpdate"), _updates.get(2));
+
+		assertEquals(3, _updates.size());
+		assertEquals(1, listener.getSkippedUpdates(Tweet.class));
+	}
+
+	private PostUpdateEvent event(final Tweet tweet, final int... dirty) {
+		final EntityPersister persister = proxy(EntityPersister.class, new InvocationHandler() {
+
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				return "getPropertyNames".equals(method.getName()) ? PROPERTIES : null;
+			}
+		});
+		// no transaction in progress
+		final EventSource session = proxy(EventSource.class, new InvocationHandler() {
+
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				return method.getReturnType() == boolean.class ? false : null;
+			}
+		});
+		return new PostUpdateEvent(tweet, tweet.getId(), null, null, dirty, persister, session);
+	}
+
+	private Esi4JBatchedEventProcessor processor() {
+		final TweetTypeMapping mapping = new TweetTypeMapping("tweet");
+		final InternalIndex index = proxy(InternalIndex.class, new InvocationHandler() {
+
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				switch (method.getName()) {
+				case "isMapped":
+					return true;
+				case "findTypeMapping":
+					return mapping;
+				default:
+					return null;
+				}
+			}
+		});
+		final Esi4JTaskProcessor taskProcessor = proxy(Esi4JTaskProcessor.class, new InvocationHandler() {
+
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				return "getIndex".equals(method.getName()) ? index : null;
+			}
+		});
+
+		return (Esi4JBatchedEventProcessor) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {
+				Esi4JBatchedEventProcessor.class, Esi4JPartialUpdateEventListener.class }, new InvocationHandler() {
+
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				switch (method.getName()) {
+				case "isProcessing":
+					return true;
+				case "getTaskProcessor":
+					return taskProcessor;
+				case "onPostUpdate":
+					final List<Object> update = Lists.<Object> newArrayList(method.getName());
+					if (args.length > 1) {
+						update.add(args[1]);
+					}
+					_updates.add(update);
+					return null;
+				default:
+					return null;
+				}
+			}
+		});
+	}
+
+	private static <T> T proxy(final Class<T> type, final InvocationHandler handler) {
+		return type.cast(Proxy.newProxyInstance(HibernateEventListenerTest.class.getClassLoader(), new Class<?>[] { type }, handler));
+	}
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.esi4j.module.hibernate;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+
+import org.hibernate.SessionFactory;
+import org.junit.Test;
+
+import at.molindo.esi4j.test.util.Tweet;
+
+public class StatelessHibernateEntityResolverTest {
+
+	@Test
+	public void fetchProfile() {
+		final StatelessHibernateEntityResolver resolver = new StatelessHibernateEntityResolver(sessionFactory());
+
+		try {
+			resolver.setFetchProfile(Tweet.class, "tweet");
+			fail("fetch profile should be rejected");
+		} catch (final UnsupportedOperationException e) {
+			// expected
+		}
+
+		// fetch joins are the supported alternative
+		resolver.setFetchJoins(Tweet.class, "user");
+	}
+
+	private static SessionFactory sessionFactory() {
+		return (SessionFactory) Proxy.newProxyInstance(StatelessHibernateEntityResolverTest.class.getClassLoader(), new Class<?>[] { SessionFactory.class }, new InvocationHandler() {
+
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				return "getAllClassMetadata".equals(method.getName()) ? Collections.emptyMap() : null;
+			}
+		});
+	}
+}
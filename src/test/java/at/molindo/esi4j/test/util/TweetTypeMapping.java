@@ -19,6 +19,7 @@ import static org.elasticsearch.index.mapper.MapperBuilders.*;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.Set;
 
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.index.mapper.MapperBuilders;
@@ -26,6 +27,8 @@ import org.elasticsearch.index.mapper.internal.EnabledAttributeMapper;
 import org.elasticsearch.index.mapper.object.ObjectMapper.Dynamic;
 import org.elasticsearch.index.mapper.object.RootObjectMapper.Builder;
 
+import com.google.common.collect.ImmutableSet;
+
 import at.molindo.esi4j.mapping.impl.AbstractIntegerTypeMapping;
 
 public class TweetTypeMapping extends AbstractIntegerTypeMapping<Tweet> {
@@ -74,6 +77,22 @@ public class TweetTypeMapping extends AbstractIntegerTypeMapping<Tweet> {
 		contentBuilder.field(FIELD_MESSAGE, o.getMessage()).field(FIELD_USER, o.getUser());
 	}
 
+	@Override
+	public Set<String> getIndexedProperties() {
+		return ImmutableSet.of(FIELD_MESSAGE, FIELD_USER);
+	}
+
+	@Override
+	protected boolean writeProperties(final XContentBuilder contentBuilder, final Tweet o, final Set<String> properties) throws IOException {
+		if (properties.contains(FIELD_MESSAGE)) {
+			contentBuilder.field(FIELD_MESSAGE, o.getMessage());
+		}
+		if (properties.contains(FIELD_USER)) {
+			contentBuilder.field(FIELD_USER, o.getUser());
+		}
+		return true;
+	}
+
 	@Override
 	protected Tweet readObject(final Map<String, Object> source) {
 		final Tweet tweet = new Tweet();